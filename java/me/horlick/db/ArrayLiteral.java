@@ -0,0 +1,151 @@
+package me.horlick.db;
+
+import com.google.protobuf.Timestamp;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collection;
+
+// Encodes collections and arrays as Postgres array literals, such as {1,2,3} or {"a","b"}, so that
+// a list of any length can be bound to a single placeholder:
+//
+//   static final StatementTemplate SELECT_SHAPES =
+//       StatementTemplate.of("SELECT * FROM shapes WHERE id = ANY(:ids)");
+//
+//   client.executeStatement(SELECT_SHAPES.bind().set("ids", new long[] {1, 2, 3}).build());
+//
+// The literal is sent without a type, and the server gives it the array type that the statement
+// needs, so the same encoding works for integer, text, uuid, timestamp and enum columns, and for
+// empty lists. Arrays of primitives are encoded without boxing their elements. Elements are
+// formatted as SqlTypeAdapter formats them: timestamps in UTC and NaN as NULL. Elements that are
+// themselves arrays or collections become the rows of a multi-dimensional array, such as
+// {{1,2},{3,4}}, which Postgres requires to be rectangular. byte[] isn't an array here, since it is
+// bound as bytea, and neither is char[]. Neither can be an element, and nor can a ByteBuffer.
+final class ArrayLiteral {
+
+  private ArrayLiteral() {}
+
+  // Whether a value is bound as an array.
+  static boolean isArray(Object value) {
+    if (value instanceof Collection) {
+      return true;
+    }
+    Class<?> type = value.getClass();
+    return type.isArray() && type != byte[].class && type != char[].class;
+  }
+
+  static String encode(Object value) {
+    if (!isArray(value)) {
+      throw new IllegalArgumentException(
+          "Can't encode " + value.getClass().getName() + " as an array");
+    }
+    StringBuilder literal = new StringBuilder();
+    appendArray(literal, value);
+    return literal.toString();
+  }
+
+  private static void appendArray(StringBuilder literal, Object value) {
+    int start = literal.length();
+    literal.append('{');
+    if (value instanceof long[]) {
+      for (long element : (long[]) value) {
+        literal.append(element).append(',');
+      }
+    } else if (value instanceof int[]) {
+      for (int element : (int[]) value) {
+        literal.append(element).append(',');
+      }
+    } else if (value instanceof short[]) {
+      for (short element : (short[]) value) {
+        literal.append(element).append(',');
+      }
+    } else if (value instanceof double[]) {
+      for (double element : (double[]) value) {
+        appendDouble(literal, element);
+        literal.append(',');
+      }
+    } else if (value instanceof float[]) {
+      for (float element : (float[]) value) {
+        appendDouble(literal, element);
+        literal.append(',');
+      }
+    } else if (value instanceof boolean[]) {
+      for (boolean element : (boolean[]) value) {
+        literal.append(element).append(',');
+      }
+    } else if (value instanceof Object[]) {
+      for (Object element : (Object[]) value) {
+        appendElement(literal, element);
+        literal.append(',');
+      }
+    } else if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        appendElement(literal, element);
+        literal.append(',');
+      }
+    } else {
+      throw new IllegalArgumentException(
+          "Can't encode " + value.getClass().getName() + " as an array");
+    }
+    if (literal.length() > start + 1) {
+      literal.setLength(literal.length() - 1);
+    }
+    literal.append('}');
+  }
+
+  private static void appendDouble(StringBuilder literal, double value) {
+    if (Double.isNaN(value)) {
+      literal.append("NULL");
+    } else if (Double.isInfinite(value)) {
+      literal.append(value > 0 ? "Infinity" : "-Infinity");
+    } else {
+      literal.append(value);
+    }
+  }
+
+  private static void appendElement(StringBuilder literal, Object element) {
+    if (element == null) {
+      literal.append("NULL");
+    } else if (element instanceof byte[]
+        || element instanceof char[]
+        || element instanceof ByteBuffer) {
+      throw new IllegalArgumentException(
+          "Arrays of " + element.getClass().getSimpleName() + " can't be bound");
+    } else if (isArray(element)) {
+      appendArray(literal, element);
+    } else if (element instanceof Double || element instanceof Float) {
+      appendDouble(literal, ((Number) element).doubleValue());
+    } else if (element instanceof Long
+        || element instanceof Integer
+        || element instanceof Short
+        || element instanceof BigDecimal
+        || element instanceof Boolean) {
+      literal.append(element);
+    } else if (element instanceof Instant) {
+      appendQuoted(literal, SqlTypeAdapter.TIMESTAMP_FORMAT.format((Instant) element) + "+00");
+    } else if (element instanceof Timestamp) {
+      Instant instant = TimestampUtils.toInstant((Timestamp) element);
+      appendQuoted(literal, SqlTypeAdapter.TIMESTAMP_FORMAT.format(instant) + "+00");
+    } else if (element instanceof Enum) {
+      appendQuoted(literal, ((Enum<?>) element).name());
+    } else {
+      appendQuoted(literal, element.toString());
+    }
+  }
+
+  // Quote an element so that commas, braces, whitespace and the word NULL are taken literally.
+  private static void appendQuoted(StringBuilder literal, String s) {
+    if (s.indexOf('\u0000') >= 0) {
+      throw new RuntimeException("Strings must not contain NUL characters");
+    }
+    literal.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        literal.append('\\');
+      }
+      literal.append(c);
+    }
+    literal.append('"');
+  }
+}
@@ -0,0 +1,208 @@
+package me.horlick.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+// An AsyncDatabaseClient runs statements without blocking the caller. Each call borrows a
+// DatabaseClient from a factory, runs on its own virtual thread (or a pooled platform thread on JVMs
+// without virtual threads) and completes a CompletableFuture when it is done.
+//
+// The number of calls that hold a connection at once is limited to the maximum size of the
+// factory's connection pool. Any further calls wait, cheaply, on a parked virtual thread rather than
+// queueing inside the pool, so thousands of logical requests can share a handful of connections.
+//
+// Results are read into memory before the future completes, so that the connection is returned to
+// the pool straight away. Use DatabaseClient directly to stream large results.
+//
+// Cancelling a future that has started executing asks the database to cancel the statement that is
+// running, and the future's connection is returned to the pool once the statement has stopped.
+public class AsyncDatabaseClient implements AutoCloseable {
+
+  // A call that runs with a connection.
+  private interface Work<T> {
+    T run(DatabaseClient client, Future<T> future) throws Exception;
+  }
+
+  private final Supplier<DatabaseClient> clients;
+  private final ExecutorService executor;
+  private final Semaphore permits;
+
+  /**
+   * Create a client that borrows connections from a factory, running at most as many calls at once
+   * as the factory's pool has connections.
+   */
+  public AsyncDatabaseClient(DatabaseClientFactory factory) {
+    this(factory::create, factory.getPoolConfig().getMaxSize());
+  }
+
+  AsyncDatabaseClient(Supplier<DatabaseClient> clients, int maxConcurrency) {
+    if (maxConcurrency <= 0) {
+      throw new IllegalArgumentException("Concurrency limit must be positive");
+    }
+    this.clients = clients;
+    this.executor = VirtualThreads.newExecutor("db-async-%d");
+    this.permits = new Semaphore(maxConcurrency, true);
+  }
+
+  /**
+   * Execute the SQL statement on the database.
+   *
+   * @param statement The SQL statement and any variables to be bound.
+   * @return A future Cursor over every row of the result, which has already been read into memory.
+   */
+  public CompletableFuture<Cursor> executeStatement(Statement statement) {
+    return submit(
+        (client, future) ->
+            new ListCursor(readAll(client.executeStatement(statement), row -> row, future)));
+  }
+
+  /**
+   * Execute the SQL statement on the database and convert each row of the result with a mapper.
+   *
+   * @param statement The SQL statement and any variables to be bound.
+   * @param mapper Converts each row. It runs on the thread that reads the result.
+   * @return A future list of the converted rows.
+   */
+  public <T> CompletableFuture<List<T>> executeStatement(
+      Statement statement, RowMapper<T> mapper) {
+    return submit(
+        (client, future) -> readAll(client.executeStatement(statement), mapper, future));
+  }
+
+  /**
+   * Run some work inside a transaction. The transaction is committed if the work returns normally,
+   * and rolled back if it throws or the future is cancelled. The work runs on its own thread, so it
+   * may block.
+   *
+   * @return A future result of the work, which completes once the transaction has committed.
+   */
+  public <T> CompletableFuture<T> inTransaction(TransactionWork<T> work) {
+    return submit(
+        (client, future) -> {
+          DatabaseTransaction transaction = client.begin();
+          T result = work.run(transaction);
+          if (future.isCancelled()) {
+            throw new CancellationException();
+          }
+          transaction.commit();
+          return result;
+        });
+  }
+
+  /** Stop accepting new calls. Calls that have already been submitted run to completion. */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  private <T> CompletableFuture<T> submit(Work<T> work) {
+    Execution<T> execution = new Execution<>();
+    try {
+      executor.execute(() -> run(execution, work));
+    } catch (RejectedExecutionException e) {
+      execution.completeExceptionally(e);
+    }
+    return execution;
+  }
+
+  private <T> void run(Execution<T> execution, Work<T> work) {
+    if (!execution.start(Thread.currentThread())) {
+      // Cancelled before it started.
+      return;
+    }
+    try {
+      permits.acquire();
+      try {
+        DatabaseClient client = clients.get();
+        try {
+          if (execution.attach(client)) {
+            execution.complete(work.run(client, execution));
+          }
+        } finally {
+          // Closing the client rolls back anything that wasn't committed.
+          execution.detach();
+          client.close();
+        }
+      } finally {
+        permits.release();
+      }
+    } catch (Throwable t) {
+      execution.completeExceptionally(t);
+    } finally {
+      execution.finish();
+    }
+  }
+
+  private static <T> List<T> readAll(Cursor cursor, RowMapper<T> mapper, Future<?> future)
+      throws Exception {
+    List<T> results = new ArrayList<>();
+    try (Cursor rows = cursor) {
+      Row row;
+      while ((row = rows.next()) != null) {
+        if (future.isCancelled()) {
+          throw new CancellationException();
+        }
+        results.add(mapper.map(row));
+      }
+    }
+    return results;
+  }
+
+  // A future that knows how to stop the call computing it. Before the call has a connection it is
+  // stopped by interrupting its thread, which may be waiting for a permit or a connection. Once it
+  // has a connection it is stopped by cancelling its statement instead, since interrupting a thread
+  // blocked on a socket can close the connection.
+  private static final class Execution<T> extends CompletableFuture<T> {
+
+    private Thread thread;
+    private DatabaseClient client;
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) {
+        synchronized (this) {
+          if (client != null) {
+            client.cancel();
+          } else if (thread != null) {
+            thread.interrupt();
+          }
+        }
+      }
+      return cancelled;
+    }
+
+    synchronized boolean start(Thread thread) {
+      if (isDone()) {
+        return false;
+      }
+      this.thread = thread;
+      return true;
+    }
+
+    synchronized boolean attach(DatabaseClient client) {
+      if (isDone()) {
+        return false;
+      }
+      this.client = client;
+      return true;
+    }
+
+    synchronized void detach() {
+      client = null;
+    }
+
+    synchronized void finish() {
+      thread = null;
+      // Don't leak an interrupt to the next task if the thread is reused.
+      Thread.interrupted();
+    }
+  }
+}
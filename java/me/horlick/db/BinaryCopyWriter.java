@@ -0,0 +1,137 @@
+package me.horlick.db;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.Timestamp;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.Instant;
+import org.postgresql.copy.CopyIn;
+
+// A BinaryCopyWriter encodes rows in the binary format of the Postgres COPY command and sends them
+// to the database. Rows are encoded into a single buffer that is reused for the whole load, and the
+// buffer is only handed to the driver once it is full, so each write to the socket carries many
+// rows. The driver blocks while the server catches up, so a fast producer can't get more than one
+// buffer ahead of the database.
+//
+// Values are encoded in the binary format of the column type that matches their Java type, so the
+// types must line up with the table: Integer for integer, Long for bigint, Double for double
+// precision, String for text, Instant or Timestamp for timestamp columns, and so on.
+final class BinaryCopyWriter {
+
+  private static final byte[] SIGNATURE = {
+    'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0
+  };
+
+  // Postgres timestamps count microseconds from 2000-01-01 rather than from the Unix epoch.
+  private static final long POSTGRES_EPOCH_SECONDS = 946_684_800L;
+
+  private final CopyIn copyIn;
+  private ByteBuffer buffer;
+  private long rowCount = 0;
+
+  BinaryCopyWriter(CopyIn copyIn, int flushSize) {
+    this.copyIn = copyIn;
+    // The header is the signature, a flags field and the length of a header extension.
+    this.buffer = ByteBuffer.allocate(Math.max(flushSize, SIGNATURE.length + 8));
+    buffer.put(SIGNATURE).putInt(0).putInt(0);
+  }
+
+  void writeRow(Object[] values) throws SQLException {
+    ensureRemaining(2);
+    buffer.putShort((short) values.length);
+    for (Object value : values) {
+      writeValue(value);
+    }
+    rowCount++;
+  }
+
+  long getRowCount() {
+    return rowCount;
+  }
+
+  // Write the trailer and end the COPY, returning the number of rows the server inserted.
+  long finish() throws SQLException {
+    ensureRemaining(2);
+    buffer.putShort((short) -1);
+    flush();
+    return copyIn.endCopy();
+  }
+
+  void cancel() throws SQLException {
+    if (copyIn.isActive()) {
+      copyIn.cancelCopy();
+    }
+  }
+
+  // Each field is its length in bytes followed by its value, or a length of -1 for NULL.
+  private void writeValue(Object o) throws SQLException {
+    if (o == null) {
+      ensureRemaining(4);
+      buffer.putInt(-1);
+    } else if (o instanceof Long) {
+      ensureRemaining(12);
+      buffer.putInt(8).putLong((Long) o);
+    } else if (o instanceof Integer) {
+      ensureRemaining(8);
+      buffer.putInt(4).putInt((Integer) o);
+    } else if (o instanceof Short) {
+      ensureRemaining(6);
+      buffer.putInt(2).putShort((Short) o);
+    } else if (o instanceof Double) {
+      // Match SqlTypeAdapter, which also treats NaN as NULL.
+      if (Double.isNaN((Double) o)) {
+        writeValue(null);
+        return;
+      }
+      ensureRemaining(12);
+      buffer.putInt(8).putDouble((Double) o);
+    } else if (o instanceof Float) {
+      ensureRemaining(8);
+      buffer.putInt(4).putFloat((Float) o);
+    } else if (o instanceof Boolean) {
+      ensureRemaining(5);
+      buffer.putInt(1).put((byte) ((Boolean) o ? 1 : 0));
+    } else if (o instanceof String) {
+      writeBytes(((String) o).getBytes(UTF_8));
+    } else if (o instanceof byte[]) {
+      writeBytes((byte[]) o);
+    } else if (o instanceof Instant) {
+      ensureRemaining(12);
+      buffer.putInt(8).putLong(toPostgresMicros((Instant) o));
+    } else if (o instanceof Timestamp) {
+      ensureRemaining(12);
+      buffer.putInt(8).putLong(toPostgresMicros(TimestampUtils.toInstant((Timestamp) o)));
+    } else {
+      throw new RuntimeException("Failed to serialise \"" + o + "\" of type " + o.getClass());
+    }
+  }
+
+  private void writeBytes(byte[] bytes) throws SQLException {
+    ensureRemaining(4 + bytes.length);
+    buffer.putInt(bytes.length).put(bytes);
+  }
+
+  static long toPostgresMicros(Instant instant) {
+    return (instant.getEpochSecond() - POSTGRES_EPOCH_SECONDS) * 1_000_000
+        + instant.getNano() / 1_000;
+  }
+
+  // Make room for a value, sending the buffer if it is full. The buffer only grows if a single
+  // value is bigger than it.
+  private void ensureRemaining(int bytes) throws SQLException {
+    if (buffer.remaining() < bytes) {
+      flush();
+      if (buffer.capacity() < bytes) {
+        buffer = ByteBuffer.allocate(bytes);
+      }
+    }
+  }
+
+  private void flush() throws SQLException {
+    if (buffer.position() > 0) {
+      copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+  }
+}
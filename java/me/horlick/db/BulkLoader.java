@@ -0,0 +1,210 @@
+package me.horlick.db;
+
+import static java.util.stream.Collectors.joining;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A BulkLoader writes many rows into a table with a single COPY ... FROM STDIN command, which is far
+// faster than inserting them one statement at a time. For example:
+//
+//   try (BulkLoader loader = client.newBulkLoader("shapes", "sides", "regular")) {
+//     for (Shape shape : shapes) {
+//       loader.addRow(shape.getSides(), shape.getRegular());
+//     }
+//     loader.finish();
+//   }
+//   tx.commit();
+//
+// The COPY runs in the client's current transaction, so the rows only become visible when it
+// commits, and a failed load aborts the transaction. Rows are sent in the binary COPY format, so the
+// Java type of each value must match its column; see BinaryCopyWriter.
+public class BulkLoader implements AutoCloseable {
+
+  // The number of bytes of encoded rows to collect before sending them to the database.
+  static final int DEFAULT_FLUSH_SIZE = 256 * 1024;
+
+  // Table and column names are written into the COPY command, so only plain identifiers are
+  // allowed.
+  private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+  private final Connection connection;
+  private final List<String> columns;
+  private final String sql;
+  private int flushSize = DEFAULT_FLUSH_SIZE;
+
+  // The COPY in progress, or null until the first row is added.
+  private BinaryCopyWriter writer;
+  private boolean finished = false;
+
+  BulkLoader(Connection connection, String table, List<String> columns) {
+    if (columns.isEmpty()) {
+      throw new IllegalArgumentException("At least one column is required");
+    }
+    this.connection = connection;
+    this.columns = columns;
+    this.sql = copySql(table, columns);
+  }
+
+  // Build the COPY command, quoting each identifier. Quoted names are case sensitive, so they
+  // must be given as they are stored, which for unquoted names in the schema is lower case.
+  static String copySql(String table, List<String> columns) {
+    String[] parts = table.split("\\.", -1);
+    if (parts.length > 2) {
+      throw new IllegalArgumentException("Invalid table name \"" + table + "\"");
+    }
+    StringBuilder sql = new StringBuilder("COPY ");
+    for (int i = 0; i < parts.length; i++) {
+      if (i > 0) {
+        sql.append('.');
+      }
+      sql.append(quote(parts[i], "table"));
+    }
+    sql.append(" (")
+        .append(columns.stream().map(column -> quote(column, "column")).collect(joining(", ")))
+        .append(") FROM STDIN WITH (FORMAT binary)");
+    return sql.toString();
+  }
+
+  private static String quote(String identifier, String kind) {
+    if (!IDENTIFIER.matcher(identifier).matches()) {
+      throw new IllegalArgumentException("Invalid " + kind + " name \"" + identifier + "\"");
+    }
+    return '"' + identifier + '"';
+  }
+
+  /**
+   * Set the number of bytes of encoded rows that are collected before they are sent to the
+   * database. Larger sizes mean fewer, bigger writes. Must be called before the first row.
+   */
+  public BulkLoader setFlushSize(int bytes) {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Flush size must be positive");
+    }
+    if (writer != null) {
+      throw new IllegalStateException("Rows have already been added");
+    }
+    this.flushSize = bytes;
+    return this;
+  }
+
+  /**
+   * Add a row to the load. The first row starts the COPY.
+   *
+   * @param values The value of each column, in the order the columns were given.
+   */
+  public void addRow(Object... values) {
+    if (values.length != columns.size()) {
+      throw new IllegalArgumentException(
+          "Expected " + columns.size() + " values but got " + values.length);
+    }
+    try {
+      start().writeRow(values);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Add a row to the load, taking the value of each column from the column of the same name. */
+  public void addRow(Row row) {
+    Object[] values = new Object[columns.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = row.get(columns.get(i));
+    }
+    addRow(values);
+  }
+
+  /**
+   * Load every row of a stream and finish the COPY.
+   *
+   * @return The number of rows loaded.
+   */
+  public long load(Stream<Object[]> rows) {
+    return load(rows, values -> values);
+  }
+
+  /**
+   * Convert every item of a stream to a row, load them and finish the COPY.
+   *
+   * @param toValues Returns the value of each column of an item, in the order the columns were
+   *     given.
+   * @return The number of rows loaded.
+   */
+  public <T> long load(Stream<T> items, Function<? super T, Object[]> toValues) {
+    Iterator<T> iterator = items.iterator();
+    while (iterator.hasNext()) {
+      addRow(toValues.apply(iterator.next()));
+    }
+    return finish();
+  }
+
+  /**
+   * Load the remaining rows of a cursor, for example one reading from another database, and
+   * finish the COPY. The cursor is not closed.
+   *
+   * @return The number of rows loaded.
+   */
+  public long load(Cursor cursor) {
+    Row row;
+    while ((row = cursor.next()) != null) {
+      addRow(row);
+    }
+    return finish();
+  }
+
+  /**
+   * Send any buffered rows and end the COPY.
+   *
+   * @return The number of rows loaded.
+   */
+  public long finish() {
+    if (finished) {
+      throw new IllegalStateException("Load has already finished");
+    }
+    try {
+      long rows = start().finish();
+      finished = true;
+      return rows;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Cancel the COPY if it hasn't finished, discarding every row that was added. */
+  @Override
+  public void close() {
+    if (writer != null && !finished) {
+      finished = true;
+      try {
+        writer.cancel();
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private BinaryCopyWriter start() throws SQLException {
+    if (finished) {
+      throw new IllegalStateException("Load has already finished");
+    }
+    if (writer == null) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Running \"" + sql + "\"");
+      }
+      writer =
+          new BinaryCopyWriter(
+              connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql), flushSize);
+    }
+    return writer;
+  }
+}
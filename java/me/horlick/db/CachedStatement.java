@@ -0,0 +1,36 @@
+package me.horlick.db;
+
+import java.sql.PreparedStatement;
+
+// A CachedStatement is a PreparedStatement that has been taken from a PreparedStatementCache and
+// must be released back to it once its results have been consumed.
+final class CachedStatement {
+
+  private final PreparedStatementCache cache;
+  private final String sql;
+  private final PreparedStatement statement;
+
+  private boolean released = false;
+
+  CachedStatement(PreparedStatementCache cache, String sql, PreparedStatement statement) {
+    this.cache = cache;
+    this.sql = sql;
+    this.statement = statement;
+  }
+
+  PreparedStatement get() {
+    return statement;
+  }
+
+  String getSql() {
+    return sql;
+  }
+
+  // Return the statement to the cache. Safe to call more than once.
+  void release() {
+    if (!released) {
+      released = true;
+      cache.release(sql, statement);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package me.horlick.db;
+
+import java.util.Iterator;
+import java.util.List;
+
+// A ChainedCursor returns rows that have already been read into memory, followed by the remaining
+// rows of a live cursor, which it closes when it is closed.
+final class ChainedCursor implements Cursor {
+
+  private final Iterator<Row> buffered;
+  private final Cursor rest;
+
+  ChainedCursor(List<Row> buffered, Cursor rest) {
+    this.buffered = buffered.iterator();
+    this.rest = rest;
+  }
+
+  @Override
+  public Row next() {
+    return buffered.hasNext() ? buffered.next() : rest.next();
+  }
+
+  @Override
+  public void close() throws Exception {
+    rest.close();
+  }
+}
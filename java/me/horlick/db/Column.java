@@ -0,0 +1,76 @@
+package me.horlick.db;
+
+// A Column is a handle to a named column of a result, which avoids looking the name up for every
+// row. Handles are typically declared once alongside the statement they read from:
+//
+//   static final Column<Long> ID = Column.of("id", Long.class);
+//   static final Column<String> NAME = Column.of("name", String.class);
+//
+//   Row row;
+//   while ((row = cursor.next()) != null) {
+//     long id = row.getLong(ID);
+//     String name = row.get(NAME);
+//   }
+//
+// The first time a handle is used with a result it resolves the column's position, and it reuses
+// that position for as long as it sees rows with the same layout. Layouts are cached per statement,
+// so in practice a handle only resolves once per statement it is used with. Handles are safe to
+// share between threads.
+public final class Column<T> {
+
+  private final String name;
+  private final Class<T> type;
+
+  // The layout this handle was last resolved against, along with the position of the column in it.
+  private volatile Resolution resolution;
+
+  private Column(String name, Class<T> type) {
+    this.name = name;
+    this.type = type;
+  }
+
+  /**
+   * Create a handle to a column.
+   *
+   * @param name The name of the column in the result.
+   * @param type The type of the value returned by Row.get for this column, for example Long.class
+   *     for a bigint column.
+   */
+  public static <T> Column<T> of(String name, Class<T> type) {
+    return new Column<>(name, type);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Class<T> getType() {
+    return type;
+  }
+
+  // The position of this column in rows with the given layout.
+  int indexIn(RowLayout layout) {
+    Resolution resolved = resolution;
+    if (resolved != null && resolved.layout == layout) {
+      return resolved.index;
+    }
+    int index = layout.indexOf(name);
+    resolution = new Resolution(layout, index);
+    return index;
+  }
+
+  @Override
+  public String toString() {
+    return "Column{" + "name='" + name + '\'' + ", type=" + type.getSimpleName() + '}';
+  }
+
+  private static final class Resolution {
+    private final RowLayout layout;
+    private final int index;
+
+    private Resolution(RowLayout layout, int index) {
+      this.layout = layout;
+      this.index = index;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package me.horlick.db;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// A ColumnVector holds the values of one column for a batch of rows in off-heap buffers, laid out
+// as Arrow lays out its vectors:
+//
+//  - A validity bitmap with one bit per row, least significant bit first, that is set if the value
+//    is not NULL.
+//  - For INT, LONG, DOUBLE and BOOLEAN columns, a value buffer of 4, 8, 8 and 1 bytes per row.
+//    The value of a NULL is zero.
+//  - For STRING columns, an offset buffer of rowCount + 1 ints, where the UTF-8 bytes of row i are
+//    those of the data buffer between offsets i and i + 1.
+//
+// Buffers are little-endian. They are allocated once, when the cursor that fills them is created,
+// and are overwritten by each batch, so a vector's contents are only valid until its cursor moves
+// to the next batch. The string data buffer grows when a batch doesn't fit, and is then kept at its
+// new size, the old buffer being freed.
+//
+// Closing the cursor frees every buffer, after which the vector throws IllegalStateException. The
+// views returned by the buffer getters can't be checked in the same way, so they must not be read
+// after the next batch or after the cursor is closed.
+public final class ColumnVector {
+
+  /** How the values of a column are stored. */
+  public enum Type {
+    INT(4),
+    LONG(8),
+    DOUBLE(8),
+    BOOLEAN(1),
+    STRING(4);
+
+    private final int width;
+
+    Type(int width) {
+      this.width = width;
+    }
+
+    // The Type for a column stored in a Row as kind. Other columns are read as text.
+    static Type of(RowLayout.Kind kind) {
+      switch (kind) {
+        case INT:
+          return INT;
+        case LONG:
+          return LONG;
+        case FLOAT:
+        case DOUBLE:
+          return DOUBLE;
+        case BOOLEAN:
+          return BOOLEAN;
+        default:
+          return STRING;
+      }
+    }
+  }
+
+  private static final int INITIAL_STRING_BYTES_PER_ROW = 16;
+
+  private final String name;
+  private final Type type;
+  private final ByteBuffer validity;
+
+  // Fixed-width values, or the offsets of strings.
+  private final ByteBuffer values;
+
+  // The UTF-8 bytes of strings, or null for fixed-width columns.
+  private ByteBuffer data;
+  private final CharsetEncoder encoder;
+
+  private int rowCount;
+  private boolean closed = false;
+
+  ColumnVector(String name, Type type, int capacity) {
+    this.name = name;
+    this.type = type;
+    this.validity = DirectBuffers.allocate((capacity + 7) / 8);
+    if (type == Type.STRING) {
+      this.values = DirectBuffers.allocate(4 * (capacity + 1));
+      this.data = DirectBuffers.allocate(INITIAL_STRING_BYTES_PER_ROW * capacity);
+      this.encoder =
+          StandardCharsets.UTF_8
+              .newEncoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    } else {
+      this.values = DirectBuffers.allocate(type.width * capacity);
+      this.data = null;
+      this.encoder = null;
+    }
+  }
+
+  /** The name of the column. */
+  public String getName() {
+    return name;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /** The number of rows in the current batch. */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public boolean isNull(int row) {
+    checkRow(row);
+    return (validity.get(row >>> 3) & (1 << (row & 7))) == 0;
+  }
+
+  public int getInt(int row) {
+    checkRow(row);
+    checkType(Type.INT);
+    return values.getInt(4 * row);
+  }
+
+  /** The value of an INT or LONG column. */
+  public long getLong(int row) {
+    checkRow(row);
+    if (type == Type.INT) {
+      return values.getInt(4 * row);
+    }
+    checkType(Type.LONG);
+    return values.getLong(8 * row);
+  }
+
+  public double getDouble(int row) {
+    checkRow(row);
+    checkType(Type.DOUBLE);
+    return values.getDouble(8 * row);
+  }
+
+  public boolean getBoolean(int row) {
+    checkRow(row);
+    checkType(Type.BOOLEAN);
+    return values.get(row) != 0;
+  }
+
+  /** Decode the value of a STRING column, or return null if it is NULL. */
+  public String getString(int row) {
+    checkRow(row);
+    checkType(Type.STRING);
+    if (isNull(row)) {
+      return null;
+    }
+    int start = values.getInt(4 * row);
+    int end = values.getInt(4 * (row + 1));
+    ByteBuffer bytes = data.duplicate();
+    bytes.limit(end).position(start);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+
+  /** A read-only view of the validity bitmap. */
+  public ByteBuffer getValidityBuffer() {
+    checkOpen();
+    return view(validity, (rowCount + 7) / 8);
+  }
+
+  /** A read-only view of the fixed-width values of the batch. Not valid for STRING columns. */
+  public ByteBuffer getValueBuffer() {
+    checkOpen();
+    if (type == Type.STRING) {
+      throw new IllegalStateException("Column \"" + name + "\" is a STRING, use getDataBuffer");
+    }
+    return view(values, type.width * rowCount);
+  }
+
+  /** A read-only view of the rowCount + 1 offsets into the data buffer of a STRING column. */
+  public ByteBuffer getOffsetBuffer() {
+    checkOpen();
+    checkType(Type.STRING);
+    return view(values, 4 * (rowCount + 1));
+  }
+
+  /** A read-only view of the UTF-8 bytes of a STRING column. */
+  public ByteBuffer getDataBuffer() {
+    checkOpen();
+    checkType(Type.STRING);
+    return view(data, values.getInt(4 * rowCount));
+  }
+
+  private static ByteBuffer view(ByteBuffer buffer, int length) {
+    ByteBuffer view = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    view.position(0).limit(length);
+    return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void checkRow(int row) {
+    checkOpen();
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException(
+          "Row " + row + " out of range for a batch of " + rowCount + " rows");
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Column \"" + name + "\" has been closed");
+    }
+  }
+
+  private void checkType(Type expected) {
+    if (type != expected) {
+      throw new IllegalStateException(
+          "Column \"" + name + "\" is " + type + ", not " + expected);
+    }
+  }
+
+  // Empty the vector before filling it with a new batch.
+  void reset() {
+    checkOpen();
+    rowCount = 0;
+    for (int i = 0; i < validity.capacity(); i++) {
+      validity.put(i, (byte) 0);
+    }
+    if (type == Type.STRING) {
+      values.putInt(0, 0);
+    }
+  }
+
+  // The setters append the value of the next row.
+
+  void appendNull() {
+    int row = rowCount++;
+    switch (type) {
+      case INT:
+        values.putInt(4 * row, 0);
+        break;
+      case LONG:
+      case DOUBLE:
+        values.putLong(8 * row, 0);
+        break;
+      case BOOLEAN:
+        values.put(row, (byte) 0);
+        break;
+      case STRING:
+        values.putInt(4 * (row + 1), values.getInt(4 * row));
+        break;
+    }
+  }
+
+  void appendInt(int value) {
+    int row = setValid();
+    values.putInt(4 * row, value);
+  }
+
+  void appendLong(long value) {
+    int row = setValid();
+    values.putLong(8 * row, value);
+  }
+
+  void appendDouble(double value) {
+    int row = setValid();
+    values.putDouble(8 * row, value);
+  }
+
+  void appendBoolean(boolean value) {
+    int row = setValid();
+    values.put(row, value ? (byte) 1 : (byte) 0);
+  }
+
+  void appendString(String value) {
+    int row = setValid();
+    data.position(values.getInt(4 * row));
+    data.limit(data.capacity());
+    CharBuffer chars = CharBuffer.wrap(value);
+    encoder.reset();
+    while (true) {
+      CoderResult result = encoder.encode(chars, data, true);
+      if (result.isOverflow()) {
+        grow();
+      } else {
+        break;
+      }
+    }
+    values.putInt(4 * (row + 1), data.position());
+  }
+
+  private int setValid() {
+    int row = rowCount++;
+    validity.put(row >>> 3, (byte) (validity.get(row >>> 3) | (1 << (row & 7))));
+    return row;
+  }
+
+  // Double the data buffer, keeping what has been written so far.
+  private void grow() {
+    ByteBuffer larger = DirectBuffers.allocate(Math.max(64, 2 * data.capacity()));
+    data.flip();
+    larger.put(data);
+    DirectBuffers.free(data);
+    data = larger;
+  }
+
+  // Free the buffers. The vector can't be used afterwards.
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    rowCount = 0;
+    DirectBuffers.free(validity);
+    DirectBuffers.free(values);
+    DirectBuffers.free(data);
+  }
+}
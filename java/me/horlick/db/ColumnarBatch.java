@@ -0,0 +1,67 @@
+package me.horlick.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A batch of rows read by a ColumnarCursor, held as one ColumnVector per column. A batch and its
+// vectors are reused for every batch of a cursor, so they are only valid until the next call to
+// ColumnarCursor.nextBatch, and not at all once the cursor is closed.
+public final class ColumnarBatch {
+
+  private final RowLayout layout;
+  private final ColumnVector[] columns;
+  private int rowCount;
+
+  ColumnarBatch(RowLayout layout, int capacity) {
+    this.layout = layout;
+    this.columns = new ColumnVector[layout.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] =
+          new ColumnVector(layout.getName(i), ColumnVector.Type.of(layout.getKind(i)), capacity);
+    }
+  }
+
+  /** The number of rows in the batch. */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  /** The vector of a column, by its index in the result starting from zero. */
+  public ColumnVector getColumn(int column) {
+    return columns[column];
+  }
+
+  /** The vector of a column, by name. */
+  public ColumnVector getColumn(String name) {
+    return columns[layout.indexOf(name)];
+  }
+
+  /** Every vector, in column order. */
+  public List<ColumnVector> getColumns() {
+    return Collections.unmodifiableList(Arrays.asList(columns));
+  }
+
+  void reset() {
+    rowCount = 0;
+    for (ColumnVector column : columns) {
+      column.reset();
+    }
+  }
+
+  void setRowCount(int rowCount) {
+    this.rowCount = rowCount;
+  }
+
+  // Free the buffers of every vector.
+  void close() {
+    rowCount = 0;
+    for (ColumnVector column : columns) {
+      column.close();
+    }
+  }
+}
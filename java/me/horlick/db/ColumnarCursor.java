@@ -0,0 +1,137 @@
+package me.horlick.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// A ColumnarCursor reads the rows of a result in fixed-size batches of off-heap column vectors,
+// rather than as one Row per row. Integer, floating point and boolean columns are read with the
+// primitive getters into fixed-width buffers, and every other column is read as text into UTF-8
+// buffers, so reading a batch creates no objects other than the strings the driver returns. The
+// buffers are allocated when the cursor is created, reused for every batch and freed when the
+// cursor is closed, so a cursor must always be closed. For example:
+//
+//   try (ColumnarCursor cursor = client.executeColumnar(SELECT_EVENTS.bind().build(), 4096)) {
+//     ColumnarBatch batch;
+//     while ((batch = cursor.nextBatch()) != null) {
+//       ColumnVector latency = batch.getColumn("latency_ms");
+//       for (int i = 0; i < batch.getRowCount(); i++) {
+//         if (!latency.isNull(i)) {
+//           total += latency.getDouble(i);
+//         }
+//       }
+//     }
+//   }
+//
+// The vectors' buffers can also be handed to other code that understands Arrow's layout. See
+// ColumnVector.
+public final class ColumnarCursor implements AutoCloseable {
+
+  private final ResultSetCursor source;
+  private final ResultSet rs;
+  private final RowLayout layout;
+  private final int batchSize;
+  private final ColumnarBatch batch;
+
+  private boolean done = false;
+  private boolean closed = false;
+
+  ColumnarCursor(ResultSetCursor source, int batchSize) {
+    this.source = source;
+    this.rs = source.getResultSet();
+    this.layout = source.getLayout();
+    this.batchSize = batchSize;
+    this.batch = new ColumnarBatch(layout, batchSize);
+  }
+
+  /**
+   * Read the next batch of rows, overwriting the previous batch.
+   *
+   * @return A batch of between one and the batch size rows, or null if no more rows exist.
+   */
+  public ColumnarBatch nextBatch() {
+    if (closed) {
+      throw new IllegalStateException("Cursor has been closed");
+    }
+    if (done) {
+      return null;
+    }
+    batch.reset();
+    int rows = 0;
+    try {
+      while (rows < batchSize) {
+        if (!source.advance()) {
+          done = true;
+          break;
+        }
+        readRow();
+        rows++;
+      }
+    } catch (SQLException e) {
+      source.recordError();
+      throw new RuntimeException(e);
+    }
+    batch.setRowCount(rows);
+    return rows > 0 ? batch : null;
+  }
+
+  // Append the current row of the ResultSet to every vector. The getters use 1-based indexes.
+  private void readRow() throws SQLException {
+    for (int i = 0; i < layout.getColumnCount(); i++) {
+      ColumnVector column = batch.getColumn(i);
+      switch (column.getType()) {
+        case INT:
+          int intValue = rs.getInt(i + 1);
+          if (rs.wasNull()) {
+            column.appendNull();
+          } else {
+            column.appendInt(intValue);
+          }
+          break;
+        case LONG:
+          long longValue = rs.getLong(i + 1);
+          if (rs.wasNull()) {
+            column.appendNull();
+          } else {
+            column.appendLong(longValue);
+          }
+          break;
+        case DOUBLE:
+          double doubleValue = rs.getDouble(i + 1);
+          if (rs.wasNull()) {
+            column.appendNull();
+          } else {
+            column.appendDouble(doubleValue);
+          }
+          break;
+        case BOOLEAN:
+          boolean booleanValue = rs.getBoolean(i + 1);
+          if (rs.wasNull()) {
+            column.appendNull();
+          } else {
+            column.appendBoolean(booleanValue);
+          }
+          break;
+        default:
+          String stringValue = rs.getString(i + 1);
+          if (stringValue == null) {
+            column.appendNull();
+          } else {
+            column.appendString(stringValue);
+          }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws Exception {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      source.close();
+    } finally {
+      batch.close();
+    }
+  }
+}
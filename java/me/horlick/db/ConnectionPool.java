@@ -0,0 +1,338 @@
+package me.horlick.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A ConnectionPool keeps a set of open connections so that each DatabaseClient doesn't pay for a
+// new connection handshake and backend process.
+//
+// Idle connections are kept on a lock-free deque. Borrowing takes the most recently used connection
+// from the front, so a lightly loaded pool keeps reusing the same warm connections and the ones at
+// the back age out. A counter of permits bounds the number of borrowed connections. Borrowing and
+// returning a connection only update the counter and the deque with compare-and-set, and take no
+// locks. Callers only park, in a queue of waiting threads, when every connection is in use or
+// while another thread opens one. Waiters are woken in the order they arrived, but a thread that
+// arrives just as a permit is returned may take it first. A background thread closes connections
+// that have been idle for too long or have passed their maximum lifetime, and opens new ones to
+// keep the pool at its minimum size.
+public class ConnectionPool implements AutoCloseable {
+
+  // Opens a new physical connection.
+  interface Connector {
+    Connection connect() throws SQLException;
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+  // Connections that were in use this recently are assumed to still be alive, which saves a round
+  // trip on every borrow under load.
+  private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private static final long HOUSEKEEPING_PERIOD_SECONDS = 30;
+
+  private final Connector connector;
+  private final ConnectionPoolConfig config;
+
+  private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+  // The number of connections that may still be borrowed, and the threads waiting for one.
+  private final AtomicInteger permits;
+  private final WaitQueue permitWaiters = new WaitQueue();
+
+  // Threads holding a permit that are waiting for a connection to become idle, or for room to open
+  // one.
+  private final WaitQueue idleWaiters = new WaitQueue();
+  private final AtomicInteger totalCount = new AtomicInteger();
+  private final AtomicInteger activeCount = new AtomicInteger();
+  private final LatencyHistogram acquireLatency = new LatencyHistogram();
+
+  private final ScheduledExecutorService housekeeper;
+  private volatile boolean closed = false;
+
+  ConnectionPool(Connector connector, ConnectionPoolConfig config) {
+    this.connector = connector;
+    this.config = config;
+    this.permits = new AtomicInteger(config.getMaxSize());
+    this.housekeeper =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("db-pool-housekeeper-%d")
+                .build());
+
+    // The first run fills the pool to its minimum size without blocking the caller.
+    housekeeper.scheduleWithFixedDelay(
+        this::housekeep, 0, HOUSEKEEPING_PERIOD_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Take a connection from the pool, opening a new one if none are idle. Blocks for up to the
+   * acquire timeout if every connection is in use.
+   */
+  PooledConnection borrow() {
+    if (closed) {
+      throw new IllegalStateException("Connection pool is closed");
+    }
+
+    long start = System.nanoTime();
+    long deadline = start + config.getAcquireTimeout().toNanos();
+    if (!tryAcquirePermit() && !permitWaiters.await(this::tryAcquirePermit, deadline)) {
+      throw new RuntimeException(
+          "Timed out after "
+              + config.getAcquireTimeout()
+              + " waiting for a connection, "
+              + stats());
+    }
+    return takeWithPermit(start);
+  }
+
+  /**
+   * Take a connection from the pool like borrow, but return null straight away rather than
+   * waiting if every connection is in use.
+   */
+  PooledConnection tryBorrow() {
+    if (closed) {
+      throw new IllegalStateException("Connection pool is closed");
+    }
+
+    long start = System.nanoTime();
+    if (!tryAcquirePermit()) {
+      return null;
+    }
+    return takeWithPermit(start);
+  }
+
+  private PooledConnection takeWithPermit(long start) {
+    try {
+      PooledConnection pooled = takeIdleOrOpen(start + config.getAcquireTimeout().toNanos());
+      activeCount.incrementAndGet();
+      acquireLatency.recordSince(start);
+      return pooled;
+    } catch (RuntimeException e) {
+      releasePermit();
+      throw e;
+    }
+  }
+
+  private boolean tryAcquirePermit() {
+    int available;
+    do {
+      available = permits.get();
+      if (available == 0) {
+        return false;
+      }
+    } while (!permits.compareAndSet(available, available - 1));
+    return true;
+  }
+
+  private void releasePermit() {
+    permits.incrementAndGet();
+    permitWaiters.signal();
+  }
+
+  /** Return a borrowed connection to the pool. */
+  void release(PooledConnection pooled) {
+    activeCount.decrementAndGet();
+    try {
+      if (closed || isExpired(pooled, System.nanoTime()) || !pooled.reset()) {
+        discard(pooled);
+      } else {
+        pooled.touch();
+        offerIdle(pooled, true);
+      }
+    } finally {
+      releasePermit();
+    }
+  }
+
+  /** The current gauges of the pool. */
+  public PoolStats stats() {
+    return new PoolStats(
+        activeCount.get(),
+        idle.size(),
+        totalCount.get(),
+        permitWaiters.size(),
+        acquireLatency.snapshot());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    housekeeper.shutdownNow();
+
+    // Borrowed connections are closed as they are released.
+    PooledConnection pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      discard(pooled);
+    }
+  }
+
+  // The caller must hold a permit, which guarantees that either an idle connection or room for a
+  // new one will become available.
+  private PooledConnection takeIdleOrOpen(long deadline) {
+    while (true) {
+      PooledConnection pooled = idle.pollFirst();
+      if (pooled == null) {
+        if (reserve()) {
+          return open();
+        }
+        // Another thread is between taking a slot and putting its connection back, which can take
+        // as long as opening a connection, so wait for it rather than spinning.
+        if (!idleWaiters.await(this::mayTakeIdleOrOpen, deadline)) {
+          throw new RuntimeException("Timed out waiting for a connection, " + stats());
+        }
+        continue;
+      }
+      if (isUsable(pooled)) {
+        return pooled;
+      }
+      discard(pooled);
+    }
+  }
+
+  private boolean mayTakeIdleOrOpen() {
+    return !idle.isEmpty() || totalCount.get() < config.getMaxSize();
+  }
+
+  // Make a connection idle, or close it if the pool has been closed meanwhile. Checking after
+  // adding it means that either this or close will always see it.
+  private void offerIdle(PooledConnection pooled, boolean first) {
+    if (first) {
+      idle.offerFirst(pooled);
+    } else {
+      idle.offerLast(pooled);
+    }
+    if (closed && idle.removeFirstOccurrence(pooled)) {
+      discard(pooled);
+    } else {
+      idleWaiters.signal();
+    }
+  }
+
+  private boolean isUsable(PooledConnection pooled) {
+    long now = System.nanoTime();
+    if (isExpired(pooled, now)) {
+      return false;
+    }
+    if (pooled.getIdleNanos(now) < VALIDATION_BYPASS_NANOS) {
+      return true;
+    }
+    try {
+      return pooled
+          .getConnection()
+          .isValid((int) config.getValidationTimeout().getSeconds());
+    } catch (SQLException e) {
+      logger.warn("Connection failed validation", e);
+      return false;
+    }
+  }
+
+  private boolean isExpired(PooledConnection pooled, long now) {
+    return pooled.getAgeNanos(now) > config.getMaxLifetime().toNanos();
+  }
+
+  // Claim room for one more connection, if the pool is below its maximum size.
+  private boolean reserve() {
+    int current;
+    do {
+      current = totalCount.get();
+      if (current >= config.getMaxSize()) {
+        return false;
+      }
+    } while (!totalCount.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  // Open a connection into a slot that has already been reserved.
+  private PooledConnection open() {
+    try {
+      return new PooledConnection(connector.connect(), config.getStatementCacheSize());
+    } catch (SQLException | RuntimeException e) {
+      totalCount.decrementAndGet();
+      idleWaiters.signal();
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+  }
+
+  private void discard(PooledConnection pooled) {
+    totalCount.decrementAndGet();
+    idleWaiters.signal();
+    pooled.close();
+  }
+
+  // Close connections that are past their lifetime or have been idle for too long, then top the
+  // pool back up to its minimum size.
+  void housekeep() {
+    try {
+      long now = System.nanoTime();
+      for (PooledConnection pooled : idle) {
+        boolean idleTooLong =
+            totalCount.get() > config.getMinSize()
+                && pooled.getIdleNanos(now) > config.getIdleTimeout().toNanos();
+        // Only the thread that removes a connection from the deque may close it.
+        if ((idleTooLong || isExpired(pooled, now)) && idle.removeFirstOccurrence(pooled)) {
+          discard(pooled);
+        }
+      }
+
+      while (!closed && totalCount.get() < config.getMinSize() && reserve()) {
+        offerIdle(open(), false);
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Connection pool housekeeping failed", e);
+    }
+  }
+
+  // Threads parked until a condition they are waiting for may have become true. A thread joins the
+  // queue before checking the condition, so a signal sent after the condition changes always finds
+  // it, and each thread that leaves passes a signal on in case it was meant for the next one.
+  private static final class WaitQueue {
+    private final ConcurrentLinkedQueue<Thread> threads = new ConcurrentLinkedQueue<>();
+
+    // Wait until attempt returns true, or the deadline passes, in which case returns false.
+    boolean await(BooleanSupplier attempt, long deadline) {
+      Thread current = Thread.currentThread();
+      threads.add(current);
+      try {
+        while (!attempt.getAsBoolean()) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          LockSupport.parkNanos(this, remaining);
+          if (Thread.interrupted()) {
+            current.interrupt();
+            throw new RuntimeException(new InterruptedException());
+          }
+        }
+        return true;
+      } finally {
+        threads.remove(current);
+        signal();
+      }
+    }
+
+    // Wake the longest waiting thread, if there is one.
+    void signal() {
+      Thread next = threads.peek();
+      if (next != null) {
+        LockSupport.unpark(next);
+      }
+    }
+
+    int size() {
+      return threads.size();
+    }
+  }
+}
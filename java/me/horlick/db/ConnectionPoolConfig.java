@@ -0,0 +1,151 @@
+package me.horlick.db;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+
+// The sizing and lifecycle settings of a ConnectionPool. Instances are created with a Builder, for
+// example:
+//
+//   ConnectionPoolConfig config =
+//       ConnectionPoolConfig.newBuilder().setMinSize(2).setMaxSize(20).build();
+public class ConnectionPoolConfig {
+
+  private final int minSize;
+  private final int maxSize;
+  private final Duration acquireTimeout;
+  private final Duration idleTimeout;
+  private final Duration maxLifetime;
+  private final Duration validationTimeout;
+  private final int statementCacheSize;
+
+  private ConnectionPoolConfig(Builder builder) {
+    this.minSize = builder.minSize;
+    this.maxSize = builder.maxSize;
+    this.acquireTimeout = builder.acquireTimeout;
+    this.idleTimeout = builder.idleTimeout;
+    this.maxLifetime = builder.maxLifetime;
+    this.validationTimeout = builder.validationTimeout;
+    this.statementCacheSize = builder.statementCacheSize;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static ConnectionPoolConfig defaults() {
+    return newBuilder().build();
+  }
+
+  /** The number of connections the pool keeps open, even when they are idle. */
+  public int getMinSize() {
+    return minSize;
+  }
+
+  /** The maximum number of connections the pool will open. */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** How long a caller waits for a connection when all of them are in use. */
+  public Duration getAcquireTimeout() {
+    return acquireTimeout;
+  }
+
+  /** How long a connection may sit unused before it is closed, if the pool is above its minimum. */
+  public Duration getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /** How long a connection may be open before it is replaced by a new one. */
+  public Duration getMaxLifetime() {
+    return maxLifetime;
+  }
+
+  /** How long to wait for a connection to respond when checking that it is still alive. */
+  public Duration getValidationTimeout() {
+    return validationTimeout;
+  }
+
+  /** The number of PreparedStatements kept open on each connection. See PreparedStatementCache. */
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionPoolConfig{"
+        + "minSize="
+        + minSize
+        + ", maxSize="
+        + maxSize
+        + ", acquireTimeout="
+        + acquireTimeout
+        + ", idleTimeout="
+        + idleTimeout
+        + ", maxLifetime="
+        + maxLifetime
+        + ", validationTimeout="
+        + validationTimeout
+        + ", statementCacheSize="
+        + statementCacheSize
+        + '}';
+  }
+
+  public static class Builder {
+    private int minSize = 1;
+    private int maxSize = 10;
+    private Duration acquireTimeout = Duration.ofSeconds(30);
+    private Duration idleTimeout = Duration.ofMinutes(10);
+    private Duration maxLifetime = Duration.ofMinutes(30);
+    private Duration validationTimeout = Duration.ofSeconds(5);
+    private int statementCacheSize = 64;
+
+    private Builder() {}
+
+    public Builder setMinSize(int minSize) {
+      this.minSize = minSize;
+      return this;
+    }
+
+    public Builder setMaxSize(int maxSize) {
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    public Builder setAcquireTimeout(Duration acquireTimeout) {
+      this.acquireTimeout = acquireTimeout;
+      return this;
+    }
+
+    public Builder setIdleTimeout(Duration idleTimeout) {
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    public Builder setMaxLifetime(Duration maxLifetime) {
+      this.maxLifetime = maxLifetime;
+      return this;
+    }
+
+    public Builder setValidationTimeout(Duration validationTimeout) {
+      this.validationTimeout = validationTimeout;
+      return this;
+    }
+
+    public Builder setStatementCacheSize(int statementCacheSize) {
+      this.statementCacheSize = statementCacheSize;
+      return this;
+    }
+
+    public ConnectionPoolConfig build() {
+      checkArgument(minSize >= 0, "minSize must not be negative");
+      checkArgument(maxSize > 0, "maxSize must be positive");
+      checkArgument(minSize <= maxSize, "minSize must not be greater than maxSize");
+      checkArgument(
+          validationTimeout.getSeconds() >= 1, "validationTimeout must be at least one second");
+      checkArgument(statementCacheSize >= 0, "statementCacheSize must not be negative");
+      return new ConnectionPoolConfig(this);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package me.horlick.db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+import org.postgresql.copy.CopyOut;
+
+// Helpers for exporting the results of a query with COPY ... TO STDOUT. The driver hands over the
+// output one row at a time, exactly as the server sent it, and each row is passed straight on to
+// the destination without being decoded.
+final class CopyExport {
+
+  private CopyExport() {}
+
+  // Build the COPY command for a query. COPY can't take bind parameters, so each placeholder is
+  // replaced by the value's SQL literal.
+  static String copySql(Statement statement, CopyFormat format) {
+    String sql = statement.getTemplate().inline(statement.getSlotValues()).trim();
+    while (sql.endsWith(";")) {
+      sql = sql.substring(0, sql.length() - 1).trim();
+    }
+    return "COPY (" + sql + ") TO STDOUT WITH (" + format.getOptions() + ")";
+  }
+
+  static long writeTo(CopyOut copyOut, OutputStream out) throws SQLException, IOException {
+    try {
+      byte[] bytes;
+      while ((bytes = copyOut.readFromCopy()) != null) {
+        out.write(bytes);
+      }
+    } finally {
+      cancelIfActive(copyOut);
+    }
+    return copyOut.getHandledRowCount();
+  }
+
+  static long writeTo(CopyOut copyOut, WritableByteChannel channel)
+      throws SQLException, IOException {
+    try {
+      byte[] bytes;
+      while ((bytes = copyOut.readFromCopy()) != null) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    } finally {
+      cancelIfActive(copyOut);
+    }
+    return copyOut.getHandledRowCount();
+  }
+
+  // Stop the server sending the rest of the output if the destination failed part way through.
+  static void cancelIfActive(CopyOut copyOut) throws SQLException {
+    if (copyOut.isActive()) {
+      copyOut.cancelCopy();
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package me.horlick.db;
+
+// The formats that query results can be exported in with COPY ... TO STDOUT.
+public enum CopyFormat {
+  // Tab separated values, with NULL written as \N and backslash escapes.
+  TEXT("text"),
+  // Comma separated values, with a header line of column names.
+  CSV("csv, HEADER true"),
+  // The Postgres binary COPY format, which is the fastest to produce and read back with COPY.
+  BINARY("binary");
+
+  private final String options;
+
+  CopyFormat(String options) {
+    this.options = options;
+  }
+
+  // The options of the COPY command that select this format.
+  String getOptions() {
+    return "FORMAT " + options;
+  }
+}
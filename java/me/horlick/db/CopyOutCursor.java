@@ -0,0 +1,169 @@
+package me.horlick.db;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.postgresql.copy.CopyOut;
+
+// A CopyOutCursor reads the rows of a COPY ... TO STDOUT in the text format. Compared with a
+// ResultSetCursor this skips the driver's own decoding of each row: integer, floating point and
+// boolean columns are parsed straight from the bytes the server sent into the unboxed storage of a
+// Row. All other columns are returned as their text representation, for example "2017-01-01
+// 00:00:00+00" for a timestamp, rather than as the type JDBC would return.
+public class CopyOutCursor implements Cursor {
+
+  private final CopyOut copyOut;
+  private final RowLayout layout;
+
+  // Reused to unescape text values that contain backslashes.
+  private byte[] scratch = new byte[64];
+
+  CopyOutCursor(CopyOut copyOut, RowLayout layout) {
+    this.copyOut = copyOut;
+    this.layout = layout;
+  }
+
+  @Override
+  public Row next() {
+    try {
+      // The server sends one row per message, which the driver returns without copying.
+      byte[] line = copyOut.readFromCopy();
+      return line == null ? null : decode(line);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Fields are separated by tabs and the row ends with a newline.
+  Row decode(byte[] line) {
+    int end = line.length;
+    if (end > 0 && line[end - 1] == '\n') {
+      end--;
+    }
+
+    Row row = new Row(layout);
+    int start = 0;
+    for (int column = 0; column < layout.getColumnCount(); column++) {
+      if (start > end) {
+        throw new RuntimeException(
+            "Expected " + layout.getColumnCount() + " columns but got " + column);
+      }
+      int fieldEnd = start;
+      while (fieldEnd < end && line[fieldEnd] != '\t') {
+        fieldEnd++;
+      }
+      decodeField(row, column, line, start, fieldEnd);
+      start = fieldEnd + 1;
+    }
+    return row;
+  }
+
+  private void decodeField(Row row, int column, byte[] line, int from, int to) {
+    if (to - from == 2 && line[from] == '\\' && line[from + 1] == 'N') {
+      row.setNull(column);
+      return;
+    }
+    switch (layout.getKind(column)) {
+      case INT:
+      case LONG:
+        row.setLong(column, parseLong(line, from, to));
+        break;
+      case BOOLEAN:
+        row.setLong(column, line[from] == 't' ? 1 : 0);
+        break;
+      case FLOAT:
+      case DOUBLE:
+        row.setDouble(column, Double.parseDouble(new String(line, from, to - from, US_ASCII)));
+        break;
+      default:
+        row.setObject(column, decodeText(line, from, to));
+    }
+  }
+
+  private static long parseLong(byte[] line, int from, int to) {
+    boolean negative = line[from] == '-';
+    // Accumulate negatively so that Long.MIN_VALUE doesn't overflow.
+    long value = 0;
+    for (int i = negative ? from + 1 : from; i < to; i++) {
+      value = value * 10 - (line[i] - '0');
+    }
+    return negative ? value : -value;
+  }
+
+  // Undo the backslash escapes of the text format.
+  private String decodeText(byte[] line, int from, int to) {
+    int i = from;
+    while (i < to && line[i] != '\\') {
+      i++;
+    }
+    if (i == to) {
+      return new String(line, from, to - from, UTF_8);
+    }
+
+    if (scratch.length < to - from) {
+      scratch = Arrays.copyOf(scratch, Math.max(to - from, scratch.length * 2));
+    }
+    int length = i - from;
+    System.arraycopy(line, from, scratch, 0, length);
+    while (i < to) {
+      byte b = line[i++];
+      if (b != '\\' || i == to) {
+        scratch[length++] = b;
+        continue;
+      }
+      byte c = line[i++];
+      switch (c) {
+        case 'b':
+          scratch[length++] = '\b';
+          break;
+        case 'f':
+          scratch[length++] = '\f';
+          break;
+        case 'n':
+          scratch[length++] = '\n';
+          break;
+        case 'r':
+          scratch[length++] = '\r';
+          break;
+        case 't':
+          scratch[length++] = '\t';
+          break;
+        case 'v':
+          scratch[length++] = 0x0b;
+          break;
+        case 'x':
+          {
+            // Up to two hex digits.
+            int value = 0;
+            int end = Math.min(i + 2, to);
+            while (i < end && Character.digit(line[i], 16) >= 0) {
+              value = value * 16 + Character.digit(line[i++], 16);
+            }
+            scratch[length++] = (byte) value;
+            break;
+          }
+        default:
+          if (c >= '0' && c <= '7') {
+            // Up to three octal digits.
+            int value = c - '0';
+            int end = Math.min(i + 2, to);
+            while (i < end && line[i] >= '0' && line[i] <= '7') {
+              value = value * 8 + (line[i++] - '0');
+            }
+            scratch[length++] = (byte) value;
+          } else {
+            scratch[length++] = c;
+          }
+      }
+    }
+    return new String(scratch, 0, length, UTF_8);
+  }
+
+  /** Stop the export. If rows are still to come, the server is asked to stop sending them. */
+  @Override
+  public void close() throws Exception {
+    CopyExport.cancelIfActive(copyOut);
+  }
+}
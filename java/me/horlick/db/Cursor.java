@@ -1,5 +1,9 @@
 package me.horlick.db;
 
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 public interface Cursor extends AutoCloseable {
 
   /**
@@ -8,4 +12,50 @@ public interface Cursor extends AutoCloseable {
    * @return Either the data contained in the next row, or null if no more rows exist.
    */
   Row next();
+
+  /**
+   * Convert the remaining rows with a mapper as they are read. Closing the returned cursor closes
+   * this one.
+   *
+   * <pre>{@code
+   * try (MappedCursor<Shape> shapes = client.executeStatement(statement).map(RowMapper.of(Shape.class))) {
+   *   while (shapes.hasNext()) {
+   *     draw(shapes.next());
+   *   }
+   * }
+   * }</pre>
+   */
+  default <T> MappedCursor<T> map(RowMapper<T> mapper) {
+    return new MappedCursor<>(this, mapper);
+  }
+
+  /** A Spliterator over the remaining rows. Advancing it moves this cursor. */
+  default Spliterator<Row> spliterator() {
+    return new CursorSpliterator(this);
+  }
+
+  /**
+   * A sequential Stream over the remaining rows. Rows are read from the database as the stream is
+   * consumed, and closing the stream closes this cursor, so it should be used in a
+   * try-with-resources block:
+   *
+   * <pre>{@code
+   * try (Stream<Row> rows = client.executeStatement(statement).stream()) {
+   *   rows.forEach(...);
+   * }
+   * }</pre>
+   */
+  default Stream<Row> stream() {
+    return StreamSupport.stream(spliterator(), false)
+        .onClose(
+            () -> {
+              try {
+                close();
+              } catch (RuntimeException e) {
+                throw e;
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+  }
 }
@@ -0,0 +1,41 @@
+package me.horlick.db;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+// A CursorSpliterator adapts a Cursor to a sequential Spliterator, so that results can be consumed
+// as a Stream one row at a time. It does not support splitting, since a Cursor can only be read in
+// order.
+class CursorSpliterator implements Spliterator<Row> {
+
+  private final Cursor cursor;
+
+  CursorSpliterator(Cursor cursor) {
+    this.cursor = cursor;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Row> action) {
+    Row row = cursor.next();
+    if (row == null) {
+      return false;
+    }
+    action.accept(row);
+    return true;
+  }
+
+  @Override
+  public Spliterator<Row> trySplit() {
+    return null;
+  }
+
+  @Override
+  public long estimateSize() {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+}
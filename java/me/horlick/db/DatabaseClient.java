@@ -1,14 +1,24 @@
 package me.horlick.db;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import me.horlick.db.StatementParser.ParsedStatement;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,12 +27,99 @@ import org.slf4j.LoggerFactory;
 public class DatabaseClient implements AutoCloseable {
 
   private final Connection connection;
+  private final PooledConnection pooled;
+  private final PreparedStatementCache statementCache;
   private final StatementParser parser = new StatementParser();
 
+  // The pool the connection was borrowed from, or null if this client owns its connection.
+  private final ConnectionPool pool;
+
+  private final MetricsRegistry metrics;
+  private final SlowQueryLog slowQueryLog;
+
+  // The cache of reads that declare their tables, or null if there isn't one.
+  private final ResultCache resultCache;
+
+  // The tables written since the last commit, whose cached reads are invalidated when it succeeds.
+  private final Set<String> writtenTables = new HashSet<>();
+
+  private boolean closed = false;
+
+  // Set for clients that only read. If the client reads from a replica, the lease reports how the
+  // replica performs back to the router.
+  private boolean readOnly = false;
+  private ReplicaRouter.Lease lease;
+
+  // The isolation level of the connection's transactions. The ResultCache is only used at READ
+  // COMMITTED, since a transaction with its own snapshot must neither see rows from another
+  // snapshot nor cache rows from its own, and serializable reads must take their predicate locks.
+  private IsolationLevel isolationLevel = IsolationLevel.READ_COMMITTED;
+
+  // The most recent transaction, whose deferred writes must be sent before any other statement.
+  private DatabaseTransaction transaction;
+
+  // The statement currently executing on the database, if any, so that another thread can cancel
+  // it. Guarded by cancelLock, so that a cancel request can never reach a later statement.
+  private final Object cancelLock = new Object();
+  private PreparedStatement inFlight;
+
+  // The number of rows read from the database per round trip when a statement doesn't say. A
+  // positive fetch size makes the driver stream results rather than reading them all into memory.
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+
+  // If positive, the fetch size is adjusted to keep roughly this many bytes of rows in memory.
+  private long fetchMemoryBudget = 0;
+
+  static final int DEFAULT_FETCH_SIZE = 1000;
+  private static final int MAX_FETCH_SIZE = 100_000;
+
+  // The SQLStates of failures after which a transaction can simply be run again.
+  private static final String SERIALIZATION_FAILURE = "40001";
+  private static final String DEADLOCK_DETECTED = "40P01";
+
   private static final Logger logger = LoggerFactory.getLogger(DatabaseClient.class);
 
   DatabaseClient(Connection connection) {
-    this.connection = connection;
+    this(
+        new PooledConnection(
+            connection, ConnectionPoolConfig.defaults().getStatementCacheSize()),
+        null,
+        MetricsRegistry.getDefault(),
+        SlowQueryLog.defaults());
+  }
+
+  DatabaseClient(
+      PooledConnection pooled,
+      ConnectionPool pool,
+      MetricsRegistry metrics,
+      SlowQueryLog slowQueryLog) {
+    this(pooled, pool, metrics, slowQueryLog, null);
+  }
+
+  DatabaseClient(
+      PooledConnection pooled,
+      ConnectionPool pool,
+      MetricsRegistry metrics,
+      SlowQueryLog slowQueryLog,
+      ResultCache resultCache) {
+    this.connection = pooled.getConnection();
+    this.pooled = pooled;
+    this.statementCache = pooled.getStatementCache();
+    this.pool = pool;
+    this.metrics = metrics;
+    this.slowQueryLog = slowQueryLog;
+    this.resultCache = resultCache;
+  }
+
+  // Make this client read-only, reading from a replica if lease is not null.
+  void setReadOnly(ReplicaRouter.Lease lease) {
+    this.readOnly = true;
+    this.lease = lease;
+  }
+
+  /** Whether this client only reads, and so may be connected to a replica. */
+  public boolean isReadOnly() {
+    return readOnly;
   }
 
   /**
@@ -32,50 +129,627 @@ public class DatabaseClient implements AutoCloseable {
    * @return A Cursor to the result set if any data is returned, or an empty Cursor if no results.
    */
   public Cursor executeStatement(Statement statement) {
+    StatementTemplate template = statement.getTemplate();
+    beforeExecute(template);
+    Set<String> tables = statement.getTables();
+    if (!tables.isEmpty()) {
+      if (!template.isReadOnly()) {
+        writtenTables.addAll(tables);
+      } else if (resultCache != null
+          && isolationLevel == IsolationLevel.READ_COMMITTED
+          && Collections.disjoint(writtenTables, tables)) {
+        return executeCached(statement, template, tables);
+      }
+    }
+    return execute(statement, template, statement.getSlotValues());
+  }
+
+  /**
+   * Execute a query and read its rows ahead of the caller on a background thread, so that fetching
+   * more rows from the database overlaps with processing the rows already read. Worth it for long
+   * scans where each row takes a while to process. Results are never taken from the ResultCache.
+   *
+   * <p>Nothing else may be executed on this client until the cursor has been closed.
+   *
+   * @param statement A statement that returns rows.
+   * @param batchSize The number of rows handed to the caller at a time. The statement's fetch size
+   *     is a good choice.
+   * @param depth The maximum number of batches read ahead. Reading pauses when this many batches
+   *     are waiting for the caller.
+   * @return A cursor over the rows, which must be closed. Closing it before the last row cancels
+   *     the statement if rows are still being read, except in a transaction, where it waits up to
+   *     a second for them so that the transaction can carry on.
+   */
+  public PrefetchingCursor executePrefetching(Statement statement, int batchSize, int depth) {
+    if (batchSize <= 0 || depth <= 0) {
+      throw new IllegalArgumentException("Batch size and depth must be positive");
+    }
+    StatementTemplate template = statement.getTemplate();
+    beforeExecute(template);
+    if (!template.isReadOnly()) {
+      writtenTables.addAll(statement.getTables());
+    }
+    Cursor cursor = execute(statement, template, statement.getSlotValues());
+    if (!(cursor instanceof ResultSetCursor)) {
+      throw new IllegalArgumentException(
+          "Statement \"" + template.getSql() + "\" doesn't return any rows");
+    }
+    return new PrefetchingCursor((ResultSetCursor) cursor, batchSize, depth, transaction != null);
+  }
+
+  /**
+   * Execute a query and read its results in batches of column vectors rather than as rows, which
+   * avoids creating objects for every row of a large result. Results are never taken from the
+   * ResultCache.
+   *
+   * @param statement A statement that returns rows.
+   * @param batchSize The maximum number of rows in each batch. Buffers for this many rows are
+   *     allocated off-heap for every column when the cursor is created.
+   * @return A cursor over the batches, which must be closed to free its buffers.
+   */
+  public ColumnarCursor executeColumnar(Statement statement, int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    StatementTemplate template = statement.getTemplate();
+    beforeExecute(template);
+    if (!template.isReadOnly()) {
+      writtenTables.addAll(statement.getTables());
+    }
+    Cursor cursor = execute(statement, template, statement.getSlotValues());
+    if (!(cursor instanceof ResultSetCursor)) {
+      throw new IllegalArgumentException(
+          "Statement \"" + template.getSql() + "\" doesn't return any rows");
+    }
+    return new ColumnarCursor((ResultSetCursor) cursor, batchSize);
+  }
+
+  // Send any deferred writes, which the statement may depend on, and check that the client may run
+  // it.
+  private void beforeExecute(StatementTemplate template) {
+    if (transaction != null) {
+      transaction.flushDeferred();
+    }
+    if (readOnly && !template.isReadOnly()) {
+      throw new IllegalStateException(
+          "Read-only client can't execute \"" + template.getSql() + "\", which may write");
+    }
+  }
+
+  // Answer a read from the cache, or read its rows and cache them if they are small enough.
+  private Cursor executeCached(
+      Statement statement, StatementTemplate template, Set<String> tables) {
+    Object[] slotValues = statement.getSlotValues();
+    List<Row> rows = resultCache.get(template, slotValues);
+    if (rows == null) {
+      long generation = resultCache.generation(tables);
+      rows = new ArrayList<>();
+      long rowBytes = 0;
+      Cursor cursor = execute(statement, template, slotValues);
+      try {
+        // Results too large to cache are streamed rather than read into memory.
+        long maxRowBytes = resultCache.maxRowBytes(slotValues);
+        Row row;
+        while ((row = cursor.next()) != null) {
+          rows.add(row);
+          rowBytes += row.weighBytes();
+          if (rowBytes > maxRowBytes) {
+            Cursor rest = cursor;
+            cursor = null;
+            return new ChainedCursor(rows, rest);
+          }
+        }
+      } finally {
+        if (cursor != null) {
+          closeCursor(cursor);
+        }
+      }
+      resultCache.put(template, slotValues, tables, rows, rowBytes, generation);
+    }
+    return new ListCursor(rows);
+  }
+
+  private static void closeCursor(Cursor cursor) {
     try {
-      ParsedStatement parsedStatement = parser.parse(statement);
-      logger.info("Running \"" + parsedStatement + "\"");
-
-      // Build the prepared statement and set all of the variables.
-      PreparedStatement preparedStatement = connection.prepareStatement(parsedStatement.getSql());
-      List<Object> values = parsedStatement.getValues();
-      for (int i = 0; i < values.size(); i++) {
-        Object value = values.get(i);
-        preparedStatement.setObject(i + 1, value);
+      cursor.close();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // The statement's values are resolved once by the caller, since resolving a statement built
+  // from a map looks up every variable.
+  private Cursor execute(Statement statement, StatementTemplate template, Object[] slotValues) {
+    long start = System.nanoTime();
+    StatementMetrics statementMetrics = metrics.forTemplate(template);
+    try {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Running \"" + parser.parse(template, slotValues) + "\"");
       }
+      long parsed = System.nanoTime();
+      statementMetrics.recordParse(parsed - start);
+
+      // Take the prepared statement from the cache and set all of the variables.
+      CachedStatement cached = statementCache.acquire(template.getParameterisedSql());
+      boolean returnedCursor = false;
+      try {
+        PreparedStatement preparedStatement = cached.get();
+        template.setParameters(preparedStatement, slotValues);
+        preparedStatement.setFetchSize(fetchSizeFor(statement, template.getLayout()));
+        long prepared = System.nanoTime();
+        statementMetrics.recordPrepare(prepared - parsed);
+
+        boolean hasResultSet;
+        setInFlight(preparedStatement);
+        try {
+          hasResultSet = preparedStatement.execute();
+        } finally {
+          setInFlight(null);
+        }
+        long executed = System.nanoTime();
+        statementMetrics.recordExecute(executed - prepared);
+        if (lease != null) {
+          lease.recordLatency(executed - prepared);
+        }
+        slowQueryLog.record(template, slotValues, executed - start, pool);
 
-      boolean hasResultSet = preparedStatement.execute();
+        // If the execution produced a ResultSet then wrap it in a Cursor and return it.
+        if (!hasResultSet) {
+          statementMetrics.recordRowsAffected(preparedStatement.getUpdateCount());
+          return new EmptyCursor();
+        } else {
+          ResultSet rs = preparedStatement.getResultSet();
 
-      // If the execution produced a ResultSet then wrap it in a Cursor and return it.
-      if (!hasResultSet) {
-        return new EmptyCursor();
-      } else {
-        ResultSet rs = preparedStatement.getResultSet();
-        ResultSetMetaData md = rs.getMetaData();
+          // Work out how each column will be stored in a Row. The layout is cached on the template
+          // after the first execution, and is only rebuilt if the names or types of the columns
+          // change, for example because a table used by "SELECT *" was altered.
+          RowLayout layout = template.getLayout();
+          ResultSetMetaData md = rs.getMetaData();
+          if (layout == null || !layout.matches(md)) {
+            layout = RowLayout.fromMetaData(md);
+            template.setLayout(layout);
 
-        // Extract the names of all columns.
-        int numColumns = md.getColumnCount();
-        Map<String, Integer> columns = new HashMap<>();
+            // The first batch has already been fetched, but later ones can be sized to fit the
+            // memory budget now that we know what the rows look like.
+            if (fetchMemoryBudget > 0 && statement.getFetchSize() == 0) {
+              rs.setFetchSize(fetchSizeFor(statement, layout));
+            }
+          }
 
-        for (int i = 0; i < numColumns; i++) {
-          // Note here that getColumnName uses 1-based indexing!
-          columns.put(md.getColumnName(i + 1), i);
+          // The cursor releases the statement back to the cache when it is closed.
+          returnedCursor = true;
+          return new ResultSetCursor(rs, layout, cached, statementMetrics, start);
         }
+      } finally {
+        if (!returnedCursor) {
+          cached.release();
+        }
+      }
+    } catch (SQLException | RuntimeException e) {
+      statementMetrics.recordError();
+      if (lease != null && isConnectionFailure(e)) {
+        lease.recordFailure();
+      }
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+  }
 
-        return new ResultSetCursor(rs, columns);
+  // Whether an error means that the server couldn't be reached or is shutting down, as opposed to
+  // a problem with the statement.
+  private static boolean isConnectionFailure(Exception e) {
+    if (!(e instanceof SQLException)) {
+      return false;
+    }
+    String state = ((SQLException) e).getSQLState();
+    return state != null && (state.startsWith("08") || state.startsWith("57P"));
+  }
+
+  /**
+   * Set the number of rows read from the database per round trip, for statements that don't set
+   * their own with {@link Statement#withFetchSize(int)}. Results are streamed from the database in
+   * batches of this size, so a Cursor over a large result uses a bounded amount of memory.
+   */
+  public void setFetchSize(int fetchSize) {
+    if (fetchSize <= 0) {
+      throw new IllegalArgumentException("Fetch size must be positive");
+    }
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Size each batch of rows read from the database to fit roughly within a memory budget, based on
+   * the column types of each result. Statements that set their own fetch size are unaffected.
+   *
+   * @param bytes The approximate number of bytes of rows to hold at once, or zero to disable.
+   */
+  public void setFetchMemoryBudget(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Memory budget must not be negative");
+    }
+    this.fetchMemoryBudget = bytes;
+  }
+
+  // The number of rows to fetch per round trip. If the statement doesn't say, and the shape of its
+  // rows is known from a previous execution, the fetch size is chosen to fit the memory budget.
+  private int fetchSizeFor(Statement statement, RowLayout layout) {
+    if (statement.getFetchSize() > 0) {
+      return statement.getFetchSize();
+    } else if (fetchMemoryBudget > 0 && layout != null) {
+      long rows = fetchMemoryBudget / layout.getEstimatedRowBytes();
+      return (int) Math.max(1, Math.min(MAX_FETCH_SIZE, rows));
+    }
+    return fetchSize;
+  }
+
+  /** The cache of prepared statements on this client's connection, for monitoring hit rates. */
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Execute a list of statements using JDBC batches. Consecutive statements that share the same
+   * SQL are sent together, in batches of at most batchSize statements, so that a bulk write takes
+   * one round trip per batch rather than one per statement. Statements are always executed in the
+   * order given.
+   *
+   * @param statements The statements to execute. They must not return results.
+   * @param batchSize The maximum number of statements to send in one round trip.
+   * @return The update count of each statement, in the same order as the statements. When the
+   *     driver rewrites batched inserts these may be {@link java.sql.Statement#SUCCESS_NO_INFO}.
+   */
+  int[] executeBatch(List<Statement> statements, int batchSize) {
+    for (Statement statement : statements) {
+      writtenTables.addAll(statement.getTables());
+    }
+    int[] updateCounts = new int[statements.size()];
+    try {
+      int start = 0;
+      while (start < statements.size()) {
+        // Find the run of statements that share this statement's SQL.
+        String sql = statements.get(start).getTemplate().getParameterisedSql();
+        int end = start + 1;
+        while (end < statements.size()
+            && statements.get(end).getTemplate().getParameterisedSql().equals(sql)) {
+          end++;
+        }
+
+        executeBatch(sql, statements.subList(start, end), batchSize, updateCounts, start);
+        start = end;
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    return updateCounts;
+  }
+
+  // Execute statements that all share the same SQL, writing their update counts into updateCounts
+  // starting at offset.
+  private void executeBatch(
+      String sql, List<Statement> statements, int batchSize, int[] updateCounts, int offset)
+      throws SQLException {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Running batch of " + statements.size() + " \"" + sql + "\"");
+    }
+
+    StatementMetrics statementMetrics = metrics.forTemplate(statements.get(0).getTemplate());
+    CachedStatement cached = statementCache.acquire(sql);
+    try {
+      PreparedStatement preparedStatement = cached.get();
+      int pending = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < statements.size(); i++) {
+        Statement statement = statements.get(i);
+        statement.getTemplate().setParameters(preparedStatement, statement.getSlotValues());
+        preparedStatement.addBatch();
+        pending++;
+
+        if (pending == batchSize || i == statements.size() - 1) {
+          long prepared = System.nanoTime();
+          statementMetrics.recordPrepare(prepared - start);
+
+          int[] counts;
+          setInFlight(preparedStatement);
+          try {
+            counts = preparedStatement.executeBatch();
+          } finally {
+            setInFlight(null);
+          }
+          start = System.nanoTime();
+          statementMetrics.recordBatch(start - prepared, pending, counts);
+
+          System.arraycopy(
+              counts, 0, updateCounts, offset + i + 1 - pending, Math.min(counts.length, pending));
+          pending = 0;
+        }
       }
+    } catch (SQLException | RuntimeException e) {
+      statementMetrics.recordError();
+      throw e;
+    } finally {
+      cached.release();
+    }
+  }
+
+  /**
+   * Start a bulk load of rows into a table using COPY. The rows are written in this client's
+   * current transaction, after any deferred writes, and cached reads of the table are invalidated
+   * when it commits.
+   *
+   * @param table The table to load, optionally qualified by its schema.
+   * @param columns The columns that each row supplies values for.
+   */
+  public BulkLoader newBulkLoader(String table, String... columns) {
+    checkWritable();
+    if (transaction != null) {
+      transaction.flushDeferred();
+    }
+    BulkLoader loader = new BulkLoader(connection, table, Arrays.asList(columns));
+    writtenTables.add(Statement.normaliseTable(table));
+    return loader;
+  }
+
+  /**
+   * Export the results of a query with COPY ... TO STDOUT, writing the output to a stream as it
+   * arrives. Rows are passed on exactly as the server sent them, so a large export runs at the speed
+   * of the connection without creating a Row for each one.
+   *
+   * <p>COPY can't take bind parameters, so the statement's variables are written into the SQL as
+   * literals.
+   *
+   * @return The number of rows exported.
+   */
+  public long copyOut(Statement query, CopyFormat format, OutputStream out) {
+    try {
+      return CopyExport.writeTo(startCopyOut(query, format), out);
+    } catch (SQLException | IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Export the results of a query with COPY ... TO STDOUT, writing the output to a channel as it
+   * arrives. See {@link #copyOut(Statement, CopyFormat, OutputStream)}.
+   *
+   * @return The number of rows exported.
+   */
+  public long copyOut(Statement query, CopyFormat format, WritableByteChannel channel) {
+    try {
+      return CopyExport.writeTo(startCopyOut(query, format), channel);
+    } catch (SQLException | IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Export the results of a query with COPY ... TO STDOUT and decode them into Rows. Numeric and
+   * boolean columns are parsed straight from the wire, and every other column is returned as text.
+   * See {@link CopyOutCursor}.
+   */
+  public Cursor copyOutCursor(Statement query) {
+    try {
+      StatementTemplate template = query.getTemplate();
+      RowLayout layout = describe(query);
+      template.setLayout(layout);
+      return new CopyOutCursor(startCopyOut(query, CopyFormat.TEXT), layout);
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
   }
 
+  private CopyOut startCopyOut(Statement query, CopyFormat format) throws SQLException {
+    if (transaction != null) {
+      transaction.flushDeferred();
+    }
+    // The COPY has its parameters inlined, so only the parameterised query is logged.
+    if (logger.isDebugEnabled()) {
+      logger.debug("Running COPY of \"" + query.getTemplate().getParameterisedSql() + "\"");
+    }
+    String sql = CopyExport.copySql(query, format);
+    return copyManager().copyOut(sql);
+  }
+
+  private CopyManager copyManager() throws SQLException {
+    return connection.unwrap(PGConnection.class).getCopyAPI();
+  }
+
+  // Find the layout of a query's rows without running it.
+  private RowLayout describe(Statement statement) throws SQLException {
+    CachedStatement cached = statementCache.acquire(statement.getTemplate().getParameterisedSql());
+    try {
+      statement.getTemplate().setParameters(cached.get(), statement.getSlotValues());
+      ResultSetMetaData md = cached.get().getMetaData();
+      if (md == null) {
+        throw new IllegalArgumentException("Statement doesn't return any rows");
+      }
+      // Keep the cached layout if it still fits, since row mappers plan their work per layout.
+      RowLayout layout = statement.getTemplate().getLayout();
+      return layout != null && layout.matches(md) ? layout : RowLayout.fromMetaData(md);
+    } finally {
+      cached.release();
+    }
+  }
+
+  /**
+   * Ask the database to cancel the statement this client is currently executing, if any. Unlike
+   * the other methods of DatabaseClient this may be called from any thread. The cancelled
+   * statement fails with an exception in the thread that is executing it.
+   */
+  public void cancel() {
+    synchronized (cancelLock) {
+      if (inFlight != null) {
+        try {
+          inFlight.cancel();
+        } catch (SQLException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  private void setInFlight(PreparedStatement preparedStatement) {
+    synchronized (cancelLock) {
+      inFlight = preparedStatement;
+    }
+  }
+
   public DatabaseTransaction begin() {
-    return new DatabaseTransaction(this);
+    checkWritable();
+    transaction = new DatabaseTransaction(this);
+    return transaction;
   }
 
+  /**
+   * Run some work in a transaction at an isolation level, running it again if the transaction
+   * fails with a serialization failure or deadlock. See {@link
+   * #runInTransaction(TransactionOptions, TransactionWork)}.
+   */
+  public <T> T runInTransaction(IsolationLevel isolationLevel, TransactionWork<T> work) {
+    return runInTransaction(TransactionOptions.of(isolationLevel), work);
+  }
+
+  /**
+   * Run some work in a transaction. The transaction is committed if the work returns normally, and
+   * rolled back if it throws. If the work or the commit fails with a serialization failure
+   * (SQLState 40001) or a deadlock (40P01), the transaction is rolled back and the work is run
+   * again in a new transaction after a random backoff, until it succeeds or the attempts or retry
+   * budget of the options run out. The work may therefore run several times, so it shouldn't have
+   * effects outside the database.
+   *
+   * <p>The isolation level and read-only flag can only change between transactions, so this must
+   * not be called while statements executed on the client are uncommitted. A read-only client can
+   * run transactions whose options are read-only.
+   *
+   * @return The result of the attempt that committed.
+   */
+  public <T> T runInTransaction(TransactionOptions options, TransactionWork<T> work) {
+    if (!options.isReadOnly()) {
+      checkWritable();
+    }
+    int previousIsolation;
+    boolean previousReadOnly;
+    IsolationLevel previousLevel = isolationLevel;
+    try {
+      previousIsolation = connection.getTransactionIsolation();
+      previousReadOnly = connection.isReadOnly();
+      connection.setTransactionIsolation(options.getIsolationLevel().getJdbcLevel());
+      connection.setReadOnly(options.isReadOnly());
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    isolationLevel = options.getIsolationLevel();
+
+    long start = System.nanoTime();
+    try {
+      for (int attempt = 1; ; attempt++) {
+        DatabaseTransaction tx = new DatabaseTransaction(this);
+        transaction = tx;
+        try {
+          T result = work.run(tx);
+          tx.commit();
+          return result;
+        } catch (Exception e) {
+          rollbackAfter(tx, e);
+          String state = retryableState(e);
+          if (state == null) {
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+          }
+          if (state.equals(SERIALIZATION_FAILURE)) {
+            metrics.recordSerializationFailure();
+          } else {
+            metrics.recordDeadlock();
+          }
+
+          long backoffNanos = backoffNanos(options, attempt);
+          if (attempt >= options.getMaxAttempts()
+              || System.nanoTime() + backoffNanos - start > options.getRetryBudget().toNanos()) {
+            metrics.recordRetriesExhausted();
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+          }
+          logger.debug("Retrying transaction after attempt {} failed with {}", attempt, state);
+          sleepNanos(backoffNanos);
+          metrics.recordTransactionRetry();
+        }
+      }
+    } finally {
+      isolationLevel = previousLevel;
+      try {
+        connection.setTransactionIsolation(previousIsolation);
+        connection.setReadOnly(previousReadOnly);
+      } catch (SQLException e) {
+        logger.warn("Failed to restore the connection's transaction settings", e);
+      }
+    }
+  }
+
+  // The SQLState of the first SQLException in the causes of an exception, if it means that the
+  // transaction can be retried, or null otherwise.
+  static String retryableState(Throwable t) {
+    for (; t != null; t = t.getCause()) {
+      if (t instanceof SQLException) {
+        String state = ((SQLException) t).getSQLState();
+        return SERIALIZATION_FAILURE.equals(state) || DEADLOCK_DETECTED.equals(state)
+            ? state
+            : null;
+      }
+    }
+    return null;
+  }
+
+  // A random backoff of up to the initial backoff doubled for each previous attempt, capped at the
+  // maximum backoff.
+  static long backoffNanos(TransactionOptions options, int attempt) {
+    long cap = options.getInitialBackoff().toNanos() << Math.min(attempt - 1, 30);
+    if (cap < 0 || cap > options.getMaxBackoff().toNanos()) {
+      cap = options.getMaxBackoff().toNanos();
+    }
+    return ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+
+  private static void sleepNanos(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Roll back a transaction that failed, keeping the failure as the exception that is reported.
+  private static void rollbackAfter(DatabaseTransaction tx, Exception failure) {
+    try {
+      tx.rollback();
+    } catch (RuntimeException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new IllegalStateException(
+          "Read-only client can't write, use DatabaseClientFactory.create() instead");
+    }
+  }
+
+  /**
+   * Release the connection. Pooled connections are returned to their pool, after rolling back
+   * anything that was not committed.
+   */
   @Override
   public void close() throws Exception {
-    connection.close();
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (lease != null) {
+      lease.release();
+    }
+    if (pool != null) {
+      pool.release(pooled);
+    } else {
+      pooled.close();
+    }
   }
 
   void commit() {
@@ -83,6 +757,36 @@ public class DatabaseClient implements AutoCloseable {
       connection.commit();
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      // Even a failed commit may have been applied, so invalidate either way.
+      if (resultCache != null && !writtenTables.isEmpty()) {
+        resultCache.invalidate(writtenTables);
+      }
+      writtenTables.clear();
+    }
+  }
+
+  void rollback() {
+    try {
+      connection.rollback();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      // Nothing was written, so nothing cached needs to be invalidated.
+      writtenTables.clear();
     }
   }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  // Record the isolation level that the connection's transactions now run at.
+  void setIsolationLevel(IsolationLevel isolationLevel) {
+    this.isolationLevel = isolationLevel;
+  }
+
+  MetricsRegistry getMetrics() {
+    return metrics;
+  }
 }
@@ -4,35 +4,255 @@ import com.google.common.net.HostAndPort;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
 
-public class DatabaseClientFactory {
+// A DatabaseClientFactory hands out DatabaseClients backed by a pool of connections to a single
+// database. Closing a DatabaseClient returns its connection to the pool, so clients should be
+// created per unit of work and closed promptly.
+public class DatabaseClientFactory implements AutoCloseable {
 
-  private final HostAndPort hostAndPort;
+  private final ConnectionPool pool;
+  private final ConnectionPoolConfig poolConfig;
+  private final MetricsRegistry metrics;
+  private final SlowQueryLog slowQueryLog;
+  private final ResultCache resultCache;
+
+  // Routes read-only clients to replicas, or null if there are no replicas.
+  private final ReplicaRouter router;
 
   public DatabaseClientFactory(HostAndPort hostAndPort) {
-    this.hostAndPort = hostAndPort;
+    this(newBuilder(hostAndPort));
+  }
+
+  private DatabaseClientFactory(Builder builder) {
+    Properties props = new Properties();
+    props.putAll(builder.properties);
+
+    this.poolConfig = builder.poolConfig;
+    this.metrics = builder.metrics;
+    this.slowQueryLog = builder.slowQueryLog;
+    this.resultCache = builder.resultCache;
+    this.pool = new ConnectionPool(() -> connect(url(builder.hostAndPort), props), poolConfig);
+
+    if (builder.replicas.isEmpty()) {
+      this.router = null;
+    } else {
+      List<ReplicaRouter.Replica> replicas = new ArrayList<>();
+      for (HostAndPort replica : builder.replicas) {
+        ConnectionPool.Connector connector = () -> connect(url(replica), props);
+        replicas.add(
+            new ReplicaRouter.Replica(
+                replica.toString(), new ConnectionPool(connector, poolConfig), connector));
+      }
+      this.router =
+          new ReplicaRouter(
+              replicas,
+              ReplicaRouter.POSTGRES_LAG_PROBE,
+              builder.maxReplicaLag,
+              builder.replicaEjectionTime,
+              builder.replicaHealthCheckInterval,
+              new Random());
+    }
   }
 
+  private static String url(HostAndPort hostAndPort) {
+    return "jdbc:postgresql://" + hostAndPort.getHost() + ":" + hostAndPort.getPort() + "/";
+  }
+
+  public static Builder newBuilder(HostAndPort hostAndPort) {
+    return new Builder(hostAndPort);
+  }
+
+  /** Borrow a connection from the pool and wrap it in a DatabaseClient. */
   public DatabaseClient create() {
-    String url = "jdbc:postgresql://" + hostAndPort.getHost() + ":" + hostAndPort.getPort() + "/";
+    return new DatabaseClient(pool.borrow(), pool, metrics, slowQueryLog, resultCache);
+  }
 
-    Properties props = new Properties();
-    props.setProperty("user", "postgres");
-    props.setProperty("password", "supersecret");
+  /**
+   * Create a client that only reads. If the factory has replicas, the client is connected to the
+   * one that has recently been quickest and least busy, otherwise, or if no replica is healthy, it
+   * is connected to the primary. Reads may therefore lag slightly behind writes committed on the
+   * primary. The client rejects statements that may write and can't begin transactions.
+   *
+   * <p>Reads from replicas aren't cached by the factory's {@link ResultCache}, because a replica
+   * can return rows older than the last invalidation.
+   */
+  public DatabaseClient createReadOnly() {
+    ReplicaRouter.Lease lease = router != null ? router.borrow() : null;
+    DatabaseClient client;
+    if (lease != null) {
+      client = new DatabaseClient(lease.getConnection(), lease.getPool(), metrics, slowQueryLog);
+    } else {
+      client = create();
+    }
+    client.setReadOnly(lease);
+    return client;
+  }
+
+  /**
+   * Read every partition of a scan concurrently, each on its own connection from the pool, as one
+   * parallel stream. The partitions share a snapshot, so together they see the table as it was at
+   * a single point in time. Rows are in no particular order.
+   *
+   * <pre>{@code
+   * try (Stream<Row> rows =
+   *     factory.scan(
+   *         SCAN_EVENTS.bind().set("day", day),
+   *         Partitioning.ranges("lower", "upper", 0, maxId + 1, 64))) {
+   *   long count = rows.filter(...).count();
+   * }
+   * }</pre>
+   *
+   * <p>As many partitions are read at once as the stream's fork-join pool has threads, plus one
+   * connection that holds the snapshot, so the connection pool should be at least that large. The
+   * stream must be closed to end the snapshot.
+   *
+   * @param statement A binder with every placeholder set except those that the partitioning binds.
+   *     The partitioning's values are set on it.
+   * @param partitioning How to split the scan.
+   */
+  public Stream<Row> scan(StatementTemplate.Binder statement, Partitioning partitioning) {
+    return new PartitionedScan(this::create, partitioning.statements(statement)).stream();
+  }
+
+  /** The current gauges of the connection pool. */
+  public PoolStats getPoolStats() {
+    return pool.stats();
+  }
+
+  /** The registry that clients from this factory record their metrics into. */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
 
-    // TODO(simon): Fix this. On a default install I get "PSQLException: The server does not support SSL"
-    //props.setProperty("ssl", "true");
+  ConnectionPoolConfig getPoolConfig() {
+    return poolConfig;
+  }
+
+  /** Close all idle connections. Connections still in use are closed when they are released. */
+  @Override
+  public void close() {
+    pool.close();
+    if (router != null) {
+      router.close();
+    }
+  }
 
-    try {
-      Connection conn = DriverManager.getConnection(url, props);
+  private static Connection connect(String url, Properties props) throws SQLException {
+    Connection conn = DriverManager.getConnection(url, props);
+
+    // We force everything to be wrapped in a DatabaseTransaction, so this committing happens there.
+    conn.setAutoCommit(false);
+
+    return conn;
+  }
 
-      // We force everything to be wrapped in a DatabaseTransaction, so this committing happens there.
-      conn.setAutoCommit(false);
+  public static class Builder {
+    private final HostAndPort hostAndPort;
+    private final Properties properties = new Properties();
+    private ConnectionPoolConfig poolConfig = ConnectionPoolConfig.defaults();
+    private MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private SlowQueryLog slowQueryLog = SlowQueryLog.defaults();
+    private ResultCache resultCache;
+    private final List<HostAndPort> replicas = new ArrayList<>();
+    private Duration maxReplicaLag = Duration.ofSeconds(10);
+    private Duration replicaEjectionTime = Duration.ofSeconds(30);
+    private Duration replicaHealthCheckInterval = Duration.ofSeconds(5);
+
+    private Builder(HostAndPort hostAndPort) {
+      this.hostAndPort = hostAndPort;
+      properties.setProperty("user", "postgres");
+      properties.setProperty("password", "supersecret");
+
+      // TODO(simon): Fix this. On a default install I get "PSQLException: The server does not support SSL"
+      //properties.setProperty("ssl", "true");
+    }
+
+    public Builder setUser(String user) {
+      properties.setProperty("user", user);
+      return this;
+    }
+
+    public Builder setPassword(String password) {
+      properties.setProperty("password", password);
+      return this;
+    }
+
+    /** Set a connection property of the Postgres JDBC driver, for example "ssl". */
+    public Builder setProperty(String name, String value) {
+      properties.setProperty(name, value);
+      return this;
+    }
+
+    /**
+     * Let the Postgres driver rewrite a batch of single-row INSERTs into multi-row INSERTs, which
+     * is much faster for bulk writes. Update counts of rewritten batches are reported as {@link
+     * java.sql.Statement#SUCCESS_NO_INFO}.
+     */
+    public Builder setReWriteBatchedInserts(boolean reWriteBatchedInserts) {
+      properties.setProperty("reWriteBatchedInserts", Boolean.toString(reWriteBatchedInserts));
+      return this;
+    }
+
+    public Builder setPoolConfig(ConnectionPoolConfig poolConfig) {
+      this.poolConfig = poolConfig;
+      return this;
+    }
+
+    /** Record metrics into a registry other than the default one. */
+    public Builder setMetricsRegistry(MetricsRegistry metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    public Builder setSlowQueryLog(SlowQueryLog slowQueryLog) {
+      this.slowQueryLog = slowQueryLog;
+      return this;
+    }
+
+    /**
+     * Cache the results of reads that declare their tables with {@link Statement#withTables}, in
+     * a cache shared by every client from this factory.
+     */
+    public Builder setResultCache(ResultCache resultCache) {
+      this.resultCache = resultCache;
+      return this;
+    }
+
+    /**
+     * Add a read replica of the primary, for clients from {@link #createReadOnly()}. It is
+     * connected to with the same credentials and pool configuration as the primary.
+     */
+    public Builder addReplica(HostAndPort replica) {
+      replicas.add(replica);
+      return this;
+    }
+
+    /** Stop reading from replicas that are further than this behind the primary. */
+    public Builder setMaxReplicaLag(Duration maxReplicaLag) {
+      this.maxReplicaLag = maxReplicaLag;
+      return this;
+    }
+
+    /** How long to avoid a replica after it fails several times in a row. */
+    public Builder setReplicaEjectionTime(Duration replicaEjectionTime) {
+      this.replicaEjectionTime = replicaEjectionTime;
+      return this;
+    }
+
+    /** How often to check that each replica is reachable and up to date. */
+    public Builder setReplicaHealthCheckInterval(Duration replicaHealthCheckInterval) {
+      this.replicaHealthCheckInterval = replicaHealthCheckInterval;
+      return this;
+    }
 
-      return new DatabaseClient(conn);
-    } catch (SQLException e) {
-      throw new RuntimeException(e);
+    public DatabaseClientFactory build() {
+      return new DatabaseClientFactory(this);
     }
   }
 }
@@ -1,34 +1,140 @@
 package me.horlick.db;
 
+import java.util.ArrayList;
+import java.util.List;
+
 // A single transaction. Multiple statements can be executed atomically by calling execute.
+//
+// In deferred mode, writes that don't return rows are queued rather than sent one at a time, and
+// the queue is sent as JDBC batches before the next read and at commit. A transaction of many small
+// writes then costs a few round trips at the end instead of one per statement, which shortens how
+// long its locks are held.
 public class DatabaseTransaction implements AutoCloseable {
 
+  // The default maximum number of statements sent to the database in one round trip.
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
   private final DatabaseClient client;
 
-  private boolean committed = false;
+  // Statements added with addBatch that have not yet been flushed.
+  private final List<Statement> batch = new ArrayList<>();
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  private boolean deferred = false;
+  // Set once the transaction has been committed or rolled back.
+  private boolean finished = false;
 
   DatabaseTransaction(DatabaseClient client) {
     this.client = client;
   }
 
   /**
-   * Add a statement to the transaction to be executed atomically when commit is called.
+   * Execute a statement as part of the transaction. It is sent to the database straight away,
+   * unless the transaction is deferred and the statement is an INSERT, UPDATE or DELETE without a
+   * RETURNING clause, in which case it is queued until the next read, flush or commit. Either way
+   * its effects only become visible to other transactions at commit.
    *
    * @param statement
    */
   public void execute(Statement statement) {
-    client.executeStatement(statement);
+    if (deferred && statement.getTemplate().isWrite()) {
+      addBatch(statement);
+    } else {
+      client.executeStatement(statement);
+    }
+  }
+
+  /**
+   * Queue writes until they are needed rather than sending each one immediately. See {@link
+   * #execute(Statement)}. Errors from deferred writes, such as constraint violations, are reported
+   * by the call that sends them rather than by execute.
+   */
+  public synchronized void setDeferred(boolean deferred) {
+    this.deferred = deferred;
+  }
+
+  /**
+   * Execute a statement that returns results as part of this transaction.
+   *
+   * @return A Cursor to the result set, which must be closed before the transaction commits.
+   */
+  public Cursor query(Statement statement) {
+    // The client sends any deferred writes first, so that the query sees them.
+    return client.executeStatement(statement);
+  }
+
+  /**
+   * Execute several statements using as few round trips as possible. Consecutive statements that
+   * share the same SQL are sent to the database as a single JDBC batch.
+   *
+   * @param statements The statements to execute, in order. They must not return results.
+   * @return The update count of each statement, in the same order as the statements.
+   */
+  public int[] executeBatch(List<Statement> statements) {
+    flushDeferred();
+    return client.executeBatch(statements, batchSize);
+  }
+
+  /**
+   * Queue a statement to be sent with the next call to flush, or at commit.
+   *
+   * @param statement A statement that does not return results.
+   */
+  public synchronized void addBatch(Statement statement) {
+    batch.add(statement);
+  }
+
+  /**
+   * Send every statement queued with addBatch.
+   *
+   * @return The update count of each queued statement, in the order they were added.
+   */
+  public synchronized int[] flush() {
+    if (batch.isEmpty()) {
+      return new int[0];
+    }
+    List<Statement> statements = new ArrayList<>(batch);
+    batch.clear();
+    return client.executeBatch(statements, batchSize);
+  }
+
+  // Send any deferred writes, so that they are applied before a statement that depends on them.
+  synchronized void flushDeferred() {
+    if (deferred) {
+      flush();
+    }
+  }
+
+  /** Set the maximum number of statements sent to the database in one round trip. */
+  public void setBatchSize(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.batchSize = batchSize;
   }
 
   // Atomically execute all statements in this transaction. This method should only be called once.
   public synchronized void commit() {
-    committed = true;
+    long start = System.nanoTime();
+    flush();
+    finished = true;
     client.commit();
+    client.getMetrics().recordCommit(System.nanoTime() - start);
+  }
+
+  /**
+   * Discard everything the transaction has done, including writes that are still queued. Closing
+   * the transaction afterwards doesn't commit it.
+   */
+  public synchronized void rollback() {
+    batch.clear();
+    finished = true;
+    client.rollback();
   }
 
   @Override
   public synchronized void close() throws Exception {
-    if (!committed) {
+    if (!finished) {
       commit();
     }
   }
@@ -0,0 +1,63 @@
+package me.horlick.db;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// DirectBuffers allocates little-endian off-heap buffers and frees them as soon as their owner is
+// done with them. Left to the garbage collector, the memory of a direct buffer is only released
+// once its small heap object is collected, which can be long after many large buffers have used up
+// the direct memory limit. Freeing uses Unsafe.invokeCleaner on Java 9 and later, and the buffer's
+// Cleaner on Java 8, both looked up reflectively so the library still builds for Java 8. If
+// neither can be found, freeing does nothing and the garbage collector releases the memory as
+// before.
+//
+// A buffer that has been freed, and every view of it, must never be used again, since its memory
+// may already have been reused.
+final class DirectBuffers {
+
+  // Frees a direct buffer, or null if there is no way to.
+  private static final MethodHandle FREE = findFree();
+
+  private DirectBuffers() {}
+
+  static ByteBuffer allocate(int bytes) {
+    return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  static void free(ByteBuffer buffer) {
+    if (FREE == null || buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      FREE.invokeExact(buffer);
+    } catch (Throwable e) {
+      // The garbage collector will release it instead.
+    }
+  }
+
+  private static MethodHandle findFree() {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return lookup.unreflect(invokeCleaner).bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Before Java 9.
+    }
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      return MethodHandles.filterReturnValue(lookup.unreflect(cleaner), lookup.unreflect(clean))
+          .asType(MethodType.methodType(void.class, ByteBuffer.class));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,394 @@
+package me.horlick.db;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// A GeneratedRowMapper maps rows onto instances of a class, using code generated with method handles
+// for each layout of row it sees. See RowMapper.of for the rules used to match columns to
+// properties.
+final class GeneratedRowMapper<T> implements RowMapper<T> {
+
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+  private static final ClassValue<GeneratedRowMapper<?>> mappers =
+      new ClassValue<GeneratedRowMapper<?>>() {
+        @Override
+        protected GeneratedRowMapper<?> computeValue(Class<?> type) {
+          return new GeneratedRowMapper<>(type);
+        }
+      };
+
+  // Records are only available on Java 16 and later, so they are detected reflectively.
+  private static final Method isRecord = findMethod(Class.class, "isRecord");
+  private static final Method getRecordComponents = findMethod(Class.class, "getRecordComponents");
+
+  private final Class<T> type;
+
+  // The plan for the most recently seen layout, which is almost always the one used next.
+  private volatile Plan lastPlan;
+
+  // Plans for every layout seen, which go away along with their layout. Plans only hold their
+  // layout weakly, so that they don't keep their own keys alive.
+  private final Map<RowLayout, Plan> plans = Collections.synchronizedMap(new WeakHashMap<>());
+
+  private GeneratedRowMapper(Class<T> type) {
+    this.type = type;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> GeneratedRowMapper<T> forClass(Class<T> type) {
+    return (GeneratedRowMapper<T>) mappers.get(type);
+  }
+
+  @Override
+  public T map(Row row) {
+    RowLayout layout = row.getLayout();
+    Plan plan = lastPlan;
+    if (plan == null || plan.layout.get() != layout) {
+      plan = plans.computeIfAbsent(layout, this::plan);
+      lastPlan = plan;
+    }
+    try {
+      return type.cast(plan.map(row));
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException("Failed to map row to " + type.getName(), t);
+    }
+  }
+
+  private Plan plan(RowLayout layout) {
+    try {
+      if (Message.class.isAssignableFrom(type)) {
+        return planMessage(layout);
+      } else if (isRecord != null && (Boolean) isRecord.invoke(type)) {
+        return planRecord(layout);
+      } else {
+        return planBean(layout);
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("Failed to generate a row mapper for " + type.getName(), e);
+    }
+  }
+
+  // Protobuf messages are built by calling the setter on the message's builder for each non-NULL
+  // column.
+  private Plan planMessage(RowLayout layout) throws ReflectiveOperationException {
+    Method newBuilder = type.getMethod("newBuilder");
+    newBuilder.setAccessible(true);
+    Class<?> builderType = newBuilder.getReturnType();
+
+    Map<String, Method> setters = new HashMap<>();
+    for (Method method : builderType.getMethods()) {
+      if (method.getName().startsWith("set")
+          && method.getParameterCount() == 1
+          && !Message.Builder.class.isAssignableFrom(method.getParameterTypes()[0])) {
+        setters.put(normalise(method.getName().substring(3)), method);
+      }
+    }
+
+    List<MethodHandle> columnSetters = new ArrayList<>();
+    List<Integer> columns = new ArrayList<>();
+    for (int column = 0; column < layout.getColumnCount(); column++) {
+      Method setter = setters.get(normalise(layout.getName(column)));
+      if (setter != null) {
+        setter.setAccessible(true);
+        columns.add(column);
+        columnSetters.add(
+            bindColumn(lookup.unreflect(setter), setter.getParameterTypes()[0], column));
+      }
+    }
+
+    MethodHandle create = lookup.unreflect(newBuilder).asType(methodType(Object.class));
+    MethodHandle build =
+        lookup
+            .unreflect(accessible(builderType.getMethod("build")))
+            .asType(methodType(Object.class, Object.class));
+    return new SetterPlan(layout, create, columnSetters, columns, true, build);
+  }
+
+  // Records are built by passing each column to the canonical constructor. Components without a
+  // matching column get their default value.
+  private Plan planRecord(RowLayout layout) throws ReflectiveOperationException {
+    Object[] components = (Object[]) getRecordComponents.invoke(type);
+    Class<?>[] componentTypes = new Class<?>[components.length];
+    MethodHandle[] getters = new MethodHandle[components.length];
+
+    Map<String, Integer> columns = columnsByName(layout);
+    for (int i = 0; i < components.length; i++) {
+      Class<?> componentClass = components[i].getClass();
+      String name = (String) componentClass.getMethod("getName").invoke(components[i]);
+      componentTypes[i] = (Class<?>) componentClass.getMethod("getType").invoke(components[i]);
+
+      Integer column = columns.get(normalise(name));
+      getters[i] =
+          column != null
+              ? getter(componentTypes[i], column)
+              : MethodHandles.dropArguments(defaultValue(componentTypes[i]), 0, Row.class);
+    }
+
+    Constructor<?> constructor = type.getDeclaredConstructor(componentTypes);
+    constructor.setAccessible(true);
+
+    // Feed the same row into every argument of the constructor: (Row)T.
+    MethodHandle create = lookup.unreflectConstructor(constructor);
+    create = MethodHandles.filterArguments(create, 0, getters);
+    create =
+        MethodHandles.permuteArguments(
+            create, methodType(type, Row.class), new int[components.length]);
+    return new ConstructorPlan(layout, create.asType(methodType(Object.class, Row.class)));
+  }
+
+  // Other classes are created with their no-argument constructor, and then each column is passed to
+  // the matching setter or, failing that, assigned to the matching field.
+  private Plan planBean(RowLayout layout) throws ReflectiveOperationException {
+    Map<String, MethodHandle> setters = new HashMap<>();
+    Map<String, Class<?>> setterTypes = new HashMap<>();
+
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        String name = normalise(field.getName());
+        if (!Modifier.isStatic(modifiers)
+            && !Modifier.isFinal(modifiers)
+            && !setters.containsKey(name)) {
+          field.setAccessible(true);
+          setters.put(name, lookup.unreflectSetter(field));
+          setterTypes.put(name, field.getType());
+        }
+      }
+    }
+    // Setters take precedence over fields.
+    for (Method method : type.getMethods()) {
+      if (method.getName().startsWith("set")
+          && method.getParameterCount() == 1
+          && !Modifier.isStatic(method.getModifiers())) {
+        String name = normalise(method.getName().substring(3));
+        method.setAccessible(true);
+        setters.put(name, lookup.unreflect(method));
+        setterTypes.put(name, method.getParameterTypes()[0]);
+      }
+    }
+
+    List<MethodHandle> columnSetters = new ArrayList<>();
+    List<Integer> columns = new ArrayList<>();
+    for (int column = 0; column < layout.getColumnCount(); column++) {
+      String name = normalise(layout.getName(column));
+      MethodHandle setter = setters.get(name);
+      if (setter != null) {
+        columns.add(column);
+        columnSetters.add(bindColumn(setter, setterTypes.get(name), column));
+      }
+    }
+
+    Constructor<T> constructor = type.getDeclaredConstructor();
+    constructor.setAccessible(true);
+    MethodHandle create = lookup.unreflectConstructor(constructor).asType(methodType(Object.class));
+    return new SetterPlan(layout, create, columnSetters, columns, false, null);
+  }
+
+  // Adapt a setter (Target, P) into one that reads its value from a column: (Object, Row)void.
+  private static MethodHandle bindColumn(MethodHandle setter, Class<?> parameterType, int column)
+      throws ReflectiveOperationException {
+    MethodHandle bound = MethodHandles.filterArguments(setter, 1, getter(parameterType, column));
+    return bound.asType(methodType(void.class, Object.class, Row.class));
+  }
+
+  // A handle that reads a column as the given type: (Row)type. Primitive types are read with the
+  // primitive getters so they are never boxed.
+  private static MethodHandle getter(Class<?> type, int column)
+      throws ReflectiveOperationException {
+    MethodHandle get;
+    if (type == long.class) {
+      get = lookup.findVirtual(Row.class, "getLong", methodType(long.class, int.class));
+    } else if (type == int.class || type == short.class || type == byte.class) {
+      get = lookup.findVirtual(Row.class, "getInt", methodType(int.class, int.class));
+    } else if (type == double.class || type == float.class) {
+      get = lookup.findVirtual(Row.class, "getDouble", methodType(double.class, int.class));
+    } else if (type == boolean.class) {
+      get = lookup.findVirtual(Row.class, "getBoolean", methodType(boolean.class, int.class));
+    } else if (type == Instant.class) {
+      get = lookup.findVirtual(Row.class, "getInstant", methodType(Instant.class, int.class));
+    } else if (type == Long.class
+        || type == Integer.class
+        || type == Double.class
+        || type == Boolean.class
+        || type == Timestamp.class) {
+      get =
+          lookup.findStatic(
+              GeneratedRowMapper.class,
+              "to" + type.getSimpleName(),
+              methodType(type, Row.class, int.class));
+    } else if (type.isEnum()) {
+      get =
+          MethodHandles.insertArguments(
+              lookup.findStatic(
+                  GeneratedRowMapper.class,
+                  "toEnum",
+                  methodType(Enum.class, Row.class, int.class, Class.class)),
+              2,
+              type);
+    } else {
+      get = lookup.findVirtual(Row.class, "getObject", methodType(Object.class, int.class));
+    }
+
+    get = MethodHandles.insertArguments(get, 1, column);
+    return MethodHandles.explicitCastArguments(get, methodType(type, Row.class));
+  }
+
+  private static MethodHandle defaultValue(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return MethodHandles.constant(type, null);
+    } else if (type == boolean.class) {
+      return MethodHandles.constant(type, false);
+    } else if (type == char.class) {
+      return MethodHandles.constant(type, (char) 0);
+    }
+    return MethodHandles.explicitCastArguments(
+        MethodHandles.constant(int.class, 0), methodType(type));
+  }
+
+  // Conversions used by generated getters for boxed types, which keep NULL as null.
+
+  static Long toLong(Row row, int column) {
+    return row.isNull(column) ? null : row.getLong(column);
+  }
+
+  static Integer toInteger(Row row, int column) {
+    return row.isNull(column) ? null : row.getInt(column);
+  }
+
+  static Double toDouble(Row row, int column) {
+    return row.isNull(column) ? null : row.getDouble(column);
+  }
+
+  static Boolean toBoolean(Row row, int column) {
+    return row.isNull(column) ? null : row.getBoolean(column);
+  }
+
+  static Timestamp toTimestamp(Row row, int column) {
+    Instant instant = row.getInstant(column);
+    return instant == null ? null : TimestampUtils.fromInstant(instant);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Enum toEnum(Row row, int column, Class type) {
+    Object value = row.getObject(column);
+    return value == null ? null : Enum.valueOf(type, value.toString());
+  }
+
+  private static Map<String, Integer> columnsByName(RowLayout layout) {
+    Map<String, Integer> columns = new HashMap<>();
+    for (int column = 0; column < layout.getColumnCount(); column++) {
+      columns.put(normalise(layout.getName(column)), column);
+    }
+    return columns;
+  }
+
+  // Names are compared ignoring case and underscores, so "created_at" matches "createdAt".
+  private static String normalise(String name) {
+    StringBuilder normalised = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c != '_') {
+        normalised.append(Character.toLowerCase(c));
+      }
+    }
+    return normalised.toString();
+  }
+
+  private static Method accessible(Method method) {
+    method.setAccessible(true);
+    return method;
+  }
+
+  private static Method findMethod(Class<?> type, String name) {
+    try {
+      return type.getMethod(name);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  // The generated code for mapping rows with one particular layout.
+  private abstract static class Plan {
+    final WeakReference<RowLayout> layout;
+
+    Plan(RowLayout layout) {
+      this.layout = new WeakReference<>(layout);
+    }
+
+    abstract Object map(Row row) throws Throwable;
+  }
+
+  private static final class ConstructorPlan extends Plan {
+    // (Row)Object
+    private final MethodHandle create;
+
+    ConstructorPlan(RowLayout layout, MethodHandle create) {
+      super(layout);
+      this.create = create;
+    }
+
+    @Override
+    Object map(Row row) throws Throwable {
+      return (Object) create.invokeExact(row);
+    }
+  }
+
+  private static final class SetterPlan extends Plan {
+    // ()Object
+    private final MethodHandle create;
+    // (Object, Row)void
+    private final MethodHandle[] setters;
+    private final int[] columns;
+    private final boolean skipNulls;
+    // (Object)Object, or null if the created object is the result.
+    private final MethodHandle finish;
+
+    SetterPlan(
+        RowLayout layout,
+        MethodHandle create,
+        List<MethodHandle> setters,
+        List<Integer> columns,
+        boolean skipNulls,
+        MethodHandle finish) {
+      super(layout);
+      this.create = create;
+      this.setters = setters.toArray(new MethodHandle[0]);
+      this.columns = new int[columns.size()];
+      for (int i = 0; i < this.columns.length; i++) {
+        this.columns[i] = columns.get(i);
+      }
+      this.skipNulls = skipNulls;
+      this.finish = finish;
+    }
+
+    @Override
+    Object map(Row row) throws Throwable {
+      Object target = (Object) create.invokeExact();
+      for (int i = 0; i < setters.length; i++) {
+        if (!skipNulls || !row.isNull(columns[i])) {
+          setters[i].invokeExact(target, row);
+        }
+      }
+      return finish == null ? target : (Object) finish.invokeExact(target);
+    }
+  }
+}
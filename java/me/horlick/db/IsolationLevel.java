@@ -0,0 +1,26 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+
+// The isolation levels that Postgres implements. READ UNCOMMITTED behaves as READ COMMITTED there,
+// so it isn't offered.
+//
+// At REPEATABLE_READ and SERIALIZABLE a transaction can fail with a serialization failure when it
+// conflicts with a concurrent one, and must be run again. DatabaseClient.runInTransaction does
+// that automatically.
+public enum IsolationLevel {
+  READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+  REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+  SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+  private final int jdbcLevel;
+
+  IsolationLevel(int jdbcLevel) {
+    this.jdbcLevel = jdbcLevel;
+  }
+
+  // The matching Connection.TRANSACTION_* constant.
+  int getJdbcLevel() {
+    return jdbcLevel;
+  }
+}
@@ -0,0 +1,197 @@
+package me.horlick.db;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A LatencyHistogram records durations in nanoseconds into log-linear buckets, in the style of an
+// HDR histogram. Each power of two is split into 32 linear sub-buckets, so any recorded value is
+// reported to within about 3% of its true value. Recording is lock-free and allocation-free, and is
+// safe to call from any number of threads.
+//
+// Similar latencies share a bucket, so threads recording at a high rate would contend on the few
+// buckets that hold most of their values. The bucket counts start as a single array, and like a
+// LongAdder, split into more stripes when threads collide, up to one per processor. Each thread
+// counts into the stripe picked by its id, and a snapshot sums the stripes. Stripes are separate
+// arrays, so the same bucket in two stripes is never on the same cache line. A histogram that is
+// never contended keeps a single array.
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  // Enough buckets to cover every non-negative long.
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (64 - SUB_BUCKET_BITS);
+
+  private static final int MAX_STRIPES =
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+  // A power of two of bucket count arrays. Only replaced by a longer array, when threads collide.
+  private volatile AtomicLongArray[] stripes = {new AtomicLongArray(BUCKET_COUNT)};
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /** Record a single duration. Negative values are recorded as zero. */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    increment(bucketOf(nanos));
+    totalNanos.add(nanos);
+
+    // A new maximum is rare once a few values have been recorded, so this seldom writes.
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  private void increment(int bucket) {
+    AtomicLongArray[] current = stripes;
+    AtomicLongArray stripe = current[stripeIndex(current.length)];
+    long count = stripe.get(bucket);
+    if (!stripe.compareAndSet(bucket, count, count + 1)) {
+      // Another thread is counting into the same bucket, so spread the threads out.
+      if (current.length < MAX_STRIPES) {
+        expand(current);
+      }
+      current = stripes;
+      current[stripeIndex(current.length)].incrementAndGet(bucket);
+    }
+  }
+
+  private static int stripeIndex(int stripeCount) {
+    long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    return (int) (hash >>> 32) & (stripeCount - 1);
+  }
+
+  // Double the number of stripes, unless another thread already has.
+  private synchronized void expand(AtomicLongArray[] current) {
+    if (stripes != current) {
+      return;
+    }
+    AtomicLongArray[] expanded = Arrays.copyOf(current, current.length * 2);
+    for (int i = current.length; i < expanded.length; i++) {
+      expanded[i] = new AtomicLongArray(BUCKET_COUNT);
+    }
+    stripes = expanded;
+  }
+
+  /** Record the time elapsed since a value previously returned by {@link System#nanoTime()}. */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /** Take a consistent-enough copy of the histogram for reporting. */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    long count = 0;
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        long bucketCount = stripe.get(i);
+        copy[i] += bucketCount;
+        count += bucketCount;
+      }
+    }
+    return new Snapshot(copy, count, totalNanos.sum(), maxNanos.get());
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return SUB_BUCKET_COUNT * (shift + 1) + subBucket;
+  }
+
+  // The largest value that is recorded into a bucket.
+  static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKET_COUNT - 1;
+    long subBucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return (subBucket << shift) + (1L << shift) - 1;
+  }
+
+  // An immutable view of a histogram at a point in time.
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+      this.counts = counts;
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public double getMeanNanos() {
+      return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Estimate a percentile of the recorded values.
+     *
+     * @param percentile A value between 0 and 100, for example 99.9.
+     * @return The highest value that is equivalent to the given percentile, in nanoseconds.
+     */
+    public long getPercentileNanos(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= target) {
+          return Math.min(highestValueIn(i), maxNanos);
+        }
+      }
+      return maxNanos;
+    }
+
+    /** Combine this snapshot with another, for example to aggregate several histograms. */
+    public Snapshot merge(Snapshot other) {
+      long[] merged = new long[counts.length];
+      for (int i = 0; i < merged.length; i++) {
+        merged[i] = counts[i] + other.counts[i];
+      }
+      return new Snapshot(
+          merged,
+          count + other.count,
+          totalNanos + other.totalNanos,
+          Math.max(maxNanos, other.maxNanos));
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{"
+          + "count="
+          + count
+          + ", meanMicros="
+          + TimeUnit.NANOSECONDS.toMicros((long) getMeanNanos())
+          + ", p50Micros="
+          + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50))
+          + ", p99Micros="
+          + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99))
+          + ", maxMicros="
+          + TimeUnit.NANOSECONDS.toMicros(maxNanos)
+          + '}';
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package me.horlick.db;
+
+import java.util.Iterator;
+import java.util.List;
+
+// A ListCursor iterates over rows that have already been read into memory, so it holds no database
+// resources.
+public class ListCursor implements Cursor {
+
+  private final Iterator<Row> rows;
+
+  ListCursor(List<Row> rows) {
+    this.rows = rows.iterator();
+  }
+
+  @Override
+  public Row next() {
+    return rows.hasNext() ? rows.next() : null;
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,66 @@
+package me.horlick.db;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A MappedCursor reads the rows of a Cursor and converts each one with a RowMapper as it is read, so
+// typed results can be processed without holding them all in memory. Closing it closes the
+// underlying Cursor.
+public class MappedCursor<T> implements Iterator<T>, AutoCloseable {
+
+  private final Cursor cursor;
+  private final RowMapper<T> mapper;
+
+  // The row read by hasNext but not yet returned by next.
+  private Row nextRow;
+  private boolean exhausted = false;
+
+  MappedCursor(Cursor cursor, RowMapper<T> mapper) {
+    this.cursor = cursor;
+    this.mapper = mapper;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextRow == null && !exhausted) {
+      nextRow = cursor.next();
+      exhausted = nextRow == null;
+    }
+    return nextRow != null;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Row row = nextRow;
+    nextRow = null;
+    return mapper.map(row);
+  }
+
+  /** A sequential Stream over the remaining values. Closing the stream closes this cursor. */
+  public Stream<T> stream() {
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+        .onClose(
+            () -> {
+              try {
+                close();
+              } catch (RuntimeException e) {
+                throw e;
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+  }
+
+  @Override
+  public void close() throws Exception {
+    cursor.close();
+  }
+}
@@ -0,0 +1,9 @@
+package me.horlick.db;
+
+// A MetricsExporter publishes snapshots of a MetricsRegistry to a monitoring system. Exporters are
+// called periodically from a background thread; see MetricsRegistry.addExporter.
+@FunctionalInterface
+public interface MetricsExporter {
+
+  void export(MetricsSnapshot snapshot);
+}
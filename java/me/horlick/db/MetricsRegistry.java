@@ -0,0 +1,124 @@
+package me.horlick.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A MetricsRegistry collects the metrics of every statement run by the clients that share it.
+// Metrics are keyed by StatementTemplate rather than by the SQL with values bound, so the number of
+// entries is bounded by the number of statements in the program.
+//
+// Clients record into the default registry unless their factory is given another one.
+public class MetricsRegistry implements AutoCloseable {
+
+  private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+  private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+  private final ConcurrentMap<StatementTemplate, StatementMetrics> statements =
+      new ConcurrentHashMap<>();
+  private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+  // Transactions run by runInTransaction that failed and could be retried, and what happened next.
+  private final AtomicLong serializationFailureCount = new AtomicLong();
+  private final AtomicLong deadlockCount = new AtomicLong();
+  private final AtomicLong transactionRetryCount = new AtomicLong();
+  private final AtomicLong retriesExhaustedCount = new AtomicLong();
+
+  // Runs exporters, created when the first one is added.
+  private ScheduledExecutorService exportScheduler;
+
+  /** The registry used by clients whose factory wasn't given one. */
+  public static MetricsRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  StatementMetrics forTemplate(StatementTemplate template) {
+    StatementMetrics metrics = statements.get(template);
+    if (metrics == null) {
+      metrics =
+          statements.computeIfAbsent(template, t -> new StatementMetrics(t.getSql()));
+    }
+    return metrics;
+  }
+
+  void recordCommit(long nanos) {
+    commitLatency.record(nanos);
+  }
+
+  void recordSerializationFailure() {
+    serializationFailureCount.incrementAndGet();
+  }
+
+  void recordDeadlock() {
+    deadlockCount.incrementAndGet();
+  }
+
+  void recordTransactionRetry() {
+    transactionRetryCount.incrementAndGet();
+  }
+
+  void recordRetriesExhausted() {
+    retriesExhaustedCount.incrementAndGet();
+  }
+
+  /** Take a copy of every metric in the registry. */
+  public MetricsSnapshot snapshot() {
+    Map<String, StatementMetrics.Snapshot> snapshots = new LinkedHashMap<>();
+    for (StatementMetrics metrics : statements.values()) {
+      snapshots.put(metrics.getSql(), metrics.snapshot());
+    }
+    return new MetricsSnapshot(
+        snapshots,
+        commitLatency.snapshot(),
+        serializationFailureCount.get(),
+        deadlockCount.get(),
+        transactionRetryCount.get(),
+        retriesExhaustedCount.get());
+  }
+
+  /**
+   * Call an exporter with a snapshot of the registry at a fixed period, from a background thread.
+   * Exporters are called one at a time, so a slow exporter delays the others.
+   */
+  public synchronized void addExporter(MetricsExporter exporter, Duration period) {
+    if (exportScheduler == null) {
+      exportScheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("db-metrics-exporter-%d")
+                  .build());
+    }
+    long periodNanos = period.toNanos();
+    exportScheduler.scheduleAtFixedRate(
+        () -> {
+          try {
+            exporter.export(snapshot());
+          } catch (RuntimeException e) {
+            logger.warn("Metrics exporter failed", e);
+          }
+        },
+        periodNanos,
+        periodNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /** Stop calling exporters. */
+  @Override
+  public synchronized void close() {
+    if (exportScheduler != null) {
+      exportScheduler.shutdownNow();
+      exportScheduler = null;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package me.horlick.db;
+
+import java.util.Collections;
+import java.util.Map;
+
+// A point-in-time view of a MetricsRegistry.
+public class MetricsSnapshot {
+
+  private final Map<String, StatementMetrics.Snapshot> statements;
+  private final LatencyHistogram.Snapshot commitLatency;
+  private final long serializationFailureCount;
+  private final long deadlockCount;
+  private final long transactionRetryCount;
+  private final long retriesExhaustedCount;
+
+  MetricsSnapshot(
+      Map<String, StatementMetrics.Snapshot> statements,
+      LatencyHistogram.Snapshot commitLatency,
+      long serializationFailureCount,
+      long deadlockCount,
+      long transactionRetryCount,
+      long retriesExhaustedCount) {
+    this.statements = Collections.unmodifiableMap(statements);
+    this.commitLatency = commitLatency;
+    this.serializationFailureCount = serializationFailureCount;
+    this.deadlockCount = deadlockCount;
+    this.transactionRetryCount = transactionRetryCount;
+    this.retriesExhaustedCount = retriesExhaustedCount;
+  }
+
+  /** The metrics of every statement that has run, keyed by its SQL with named placeholders. */
+  public Map<String, StatementMetrics.Snapshot> getStatements() {
+    return statements;
+  }
+
+  /** The metrics of a single statement, or null if it hasn't run. */
+  public StatementMetrics.Snapshot getStatement(String sql) {
+    return statements.get(sql);
+  }
+
+  /** How long transactions took to commit, including sending any queued statements. */
+  public LatencyHistogram.Snapshot getCommitLatency() {
+    return commitLatency;
+  }
+
+  /** The number of transactions in runInTransaction that failed to serialize (SQLState 40001). */
+  public long getSerializationFailureCount() {
+    return serializationFailureCount;
+  }
+
+  /** The number of transactions in runInTransaction chosen as a deadlock victim (40P01). */
+  public long getDeadlockCount() {
+    return deadlockCount;
+  }
+
+  /** The number of times runInTransaction ran a transaction again after one of those failures. */
+  public long getTransactionRetryCount() {
+    return transactionRetryCount;
+  }
+
+  /** The number of transactions that runInTransaction gave up on, out of attempts or budget. */
+  public long getRetriesExhaustedCount() {
+    return retriesExhaustedCount;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricsSnapshot{"
+        + "statements="
+        + statements.values()
+        + ", commitLatency="
+        + commitLatency
+        + ", serializationFailureCount="
+        + serializationFailureCount
+        + ", deadlockCount="
+        + deadlockCount
+        + ", transactionRetryCount="
+        + transactionRetryCount
+        + ", retriesExhaustedCount="
+        + retriesExhaustedCount
+        + '}';
+  }
+}
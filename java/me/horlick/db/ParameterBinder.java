@@ -0,0 +1,19 @@
+package me.horlick.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Sets a JDBC parameter from a value of one Java type, with the setter and SQL type that suit it.
+// Binders for custom types are registered with ParameterBinders.register.
+@FunctionalInterface
+public interface ParameterBinder<T> {
+
+  /**
+   * Set a parameter of a statement.
+   *
+   * @param statement The statement to set the parameter of.
+   * @param index The parameter index, starting from one.
+   * @param value The value to bind, which is never null.
+   */
+  void bind(PreparedStatement statement, int index, T value) throws SQLException;
+}
@@ -0,0 +1,203 @@
+package me.horlick.db;
+
+import com.google.protobuf.Timestamp;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// The registry of ParameterBinders, which decides how a value of each Java class is set as a JDBC
+// parameter. Binding with the setter for the value's type, such as setLong, rather than setObject
+// saves the driver from inferring the type of every value, and sends types that the driver doesn't
+// know about in a form that Postgres accepts:
+//
+//  - Instant and protobuf Timestamp are sent as timestamps in UTC.
+//  - NaN doubles and floats are sent as NULL, as SqlTypeAdapter writes them.
+//  - UUIDs are sent as uuid, and enums as their name with the type left for the server to infer,
+//    so they can be written to both Postgres enum and text columns.
+//  - byte[] and ByteBuffer are sent as bytea.
+//  - Other arrays and collections are sent as an SQL array, so that "id = ANY(:ids)" takes a list
+//    of any length. See ArrayLiteral.
+//
+// Classes without a binder are passed to setObject, as before. Binders are looked up once per class
+// through a ClassValue, and each StatementTemplate keeps the last binder used for each parameter,
+// so binding a value of the same class as last time costs a class comparison.
+//
+// Binders for other classes can be registered, for example:
+//
+//   ParameterBinders.register(Money.class, (statement, index, money) ->
+//       statement.setBigDecimal(index, money.getAmount()));
+//
+// A binder registered for a class also applies to its subclasses and, for an interface, to classes
+// that implement it, unless they have a binder of their own. Register binders at startup, before
+// any statement binds a value of the class, since templates may already have cached the old one.
+public final class ParameterBinders {
+
+  private static final ParameterBinder<Object> OBJECT = PreparedStatement::setObject;
+
+  private static final ParameterBinder<Object> ENUM =
+      (statement, index, value) ->
+          statement.setObject(index, ((Enum<?>) value).name(), Types.OTHER);
+
+  private static final ParameterBinder<Object> ARRAY =
+      (statement, index, value) ->
+          statement.setObject(index, ArrayLiteral.encode(value), Types.OTHER);
+
+  private static final ParameterBinder<Object> BYTE_BUFFER =
+      (statement, index, value) -> {
+        ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        statement.setBytes(index, bytes);
+      };
+
+  // Calendars aren't thread-safe, but the driver only reads the time zone of the one it is given.
+  private static final ThreadLocal<Calendar> utc =
+      ThreadLocal.withInitial(() -> Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+
+  private static final Map<Class<?>, ParameterBinder<Object>> builtIn = new HashMap<>();
+
+  static {
+    builtIn(Long.class, (statement, index, value) -> statement.setLong(index, value));
+    builtIn(Integer.class, (statement, index, value) -> statement.setInt(index, value));
+    builtIn(Short.class, (statement, index, value) -> statement.setShort(index, value));
+    builtIn(Boolean.class, (statement, index, value) -> statement.setBoolean(index, value));
+    builtIn(String.class, PreparedStatement::setString);
+    builtIn(BigDecimal.class, PreparedStatement::setBigDecimal);
+    builtIn(
+        Double.class,
+        (statement, index, value) -> {
+          if (value.isNaN()) {
+            statement.setNull(index, Types.DOUBLE);
+          } else {
+            statement.setDouble(index, value);
+          }
+        });
+    builtIn(
+        Float.class,
+        (statement, index, value) -> {
+          if (value.isNaN()) {
+            statement.setNull(index, Types.REAL);
+          } else {
+            statement.setFloat(index, value);
+          }
+        });
+    builtIn(Instant.class, ParameterBinders::setInstant);
+    builtIn(
+        Timestamp.class,
+        (statement, index, value) ->
+            setInstant(statement, index, TimestampUtils.toInstant(value)));
+    builtIn(java.sql.Timestamp.class, PreparedStatement::setTimestamp);
+    builtIn(java.sql.Date.class, PreparedStatement::setDate);
+    builtIn(java.sql.Time.class, PreparedStatement::setTime);
+    builtIn(
+        UUID.class, (statement, index, value) -> statement.setObject(index, value, Types.OTHER));
+    builtIn(byte[].class, PreparedStatement::setBytes);
+  }
+
+  // Binders registered by users, which take precedence over the built-in ones.
+  private static final ConcurrentMap<Class<?>, ParameterBinder<?>> registered =
+      new ConcurrentHashMap<>();
+
+  private static final ClassValue<ParameterBinder<Object>> binders =
+      new ClassValue<ParameterBinder<Object>>() {
+        @Override
+        protected ParameterBinder<Object> computeValue(Class<?> type) {
+          return find(type);
+        }
+      };
+
+  private ParameterBinders() {}
+
+  /**
+   * Bind values of a class, and of its subclasses or implementations that don't have their own
+   * binder, with a custom binder.
+   *
+   * @throws IllegalStateException If a binder is already registered for the class.
+   */
+  public static <T> void register(Class<T> type, ParameterBinder<? super T> binder) {
+    if (registered.putIfAbsent(type, binder) != null) {
+      throw new IllegalStateException("A binder is already registered for " + type.getName());
+    }
+    binders.remove(type);
+  }
+
+  // The binder for values of exactly this class.
+  static ParameterBinder<Object> forClass(Class<?> type) {
+    return binders.get(type);
+  }
+
+  private static ParameterBinder<Object> find(Class<?> type) {
+    ParameterBinder<Object> binder = findRegistered(type);
+    if (binder != null) {
+      return binder;
+    }
+    binder = builtIn.get(type);
+    if (binder != null) {
+      return binder;
+    }
+    // Enum constants with a body are subclasses of their enum, and ByteBuffers are always a
+    // subclass. byte[] is built in, so every other array is bound as an SQL array.
+    if (Enum.class.isAssignableFrom(type)) {
+      return ENUM;
+    } else if (ByteBuffer.class.isAssignableFrom(type)) {
+      return BYTE_BUFFER;
+    } else if (Collection.class.isAssignableFrom(type) || type.isArray()) {
+      return ARRAY;
+    }
+    return OBJECT;
+  }
+
+  // The binder registered for the nearest superclass, or failing that for an interface, searching
+  // interfaces nearest first.
+  @SuppressWarnings("unchecked")
+  private static ParameterBinder<Object> findRegistered(Class<?> type) {
+    if (registered.isEmpty()) {
+      return null;
+    }
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      ParameterBinder<?> binder = registered.get(c);
+      if (binder != null) {
+        return (ParameterBinder<Object>) binder;
+      }
+    }
+    Deque<Class<?>> interfaces = new ArrayDeque<>();
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      interfaces.addAll(Arrays.asList(c.getInterfaces()));
+    }
+    while (!interfaces.isEmpty()) {
+      Class<?> i = interfaces.removeFirst();
+      ParameterBinder<?> binder = registered.get(i);
+      if (binder != null) {
+        return (ParameterBinder<Object>) binder;
+      }
+      interfaces.addAll(Arrays.asList(i.getInterfaces()));
+    }
+    return null;
+  }
+
+  // Timestamps are sent with an explicit UTC offset, so they are stored correctly whether or not
+  // the column has a time zone.
+  private static void setInstant(PreparedStatement statement, int index, Instant instant)
+      throws SQLException {
+    statement.setTimestamp(index, java.sql.Timestamp.from(instant), utc.get());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void builtIn(Class<T> type, ParameterBinder<? super T> binder) {
+    builtIn.put(type, (ParameterBinder<Object>) binder);
+  }
+}
@@ -0,0 +1,226 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A PartitionedScan reads the partitions of a scan concurrently, each on its own connection, and
+// returns their rows as one parallel Stream.
+//
+// The stream's Spliterator starts with every partition and splits in half until each piece holds a
+// single partition, so the fork-join pool that runs the stream reads as many partitions at once as
+// it has threads. A partition borrows a client when its first row is needed and returns it as soon
+// as its last row has been read.
+//
+// So that the partitions together see a consistent view of the table, a coordinating transaction
+// exports its snapshot with pg_export_snapshot, and each partition imports it into a read-only
+// REPEATABLE READ transaction before running its statement. The coordinating transaction stays open
+// until the stream is closed, since the snapshot can't be imported after it ends.
+final class PartitionedScan {
+
+  private static final Logger logger = LoggerFactory.getLogger(PartitionedScan.class);
+
+  // Snapshot identifiers look like "00000003-0000001B-1". They can't be bound as parameters, so
+  // they are checked before being written into SQL.
+  private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+
+  private final Supplier<DatabaseClient> clients;
+  private final List<Statement> partitions;
+
+  // Partitions that are being read, so that closing the stream early can release them.
+  private final Set<Partition> open = ConcurrentHashMap.newKeySet();
+
+  private DatabaseClient exporter;
+  private String snapshotId;
+
+  PartitionedScan(Supplier<DatabaseClient> clients, List<Statement> partitions) {
+    this.clients = clients;
+    this.partitions = partitions;
+  }
+
+  // Export a snapshot and return a parallel stream over every partition, which must be closed.
+  Stream<Row> stream() {
+    exporter = clients.get();
+    try {
+      snapshotId = exportSnapshot(exporter);
+    } catch (SQLException | RuntimeException e) {
+      closeExporter();
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+    return StreamSupport.stream(new PartitionSpliterator(0, partitions.size()), true)
+        .onClose(this::close);
+  }
+
+  private static String exportSnapshot(DatabaseClient client) throws SQLException {
+    Connection connection = beginSnapshot(client);
+    try (java.sql.Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT pg_export_snapshot()")) {
+      rs.next();
+      String id = rs.getString(1);
+      if (id == null || !SNAPSHOT_ID.matcher(id).matches()) {
+        throw new IllegalStateException("Unexpected snapshot identifier \"" + id + "\"");
+      }
+      return id;
+    }
+  }
+
+  private static void importSnapshot(DatabaseClient client, String snapshotId)
+      throws SQLException {
+    Connection connection = beginSnapshot(client);
+    try (java.sql.Statement statement = connection.createStatement()) {
+      statement.execute("SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+    }
+  }
+
+  // Make the client's next transaction a read-only REPEATABLE READ one, which the ResultCache
+  // doesn't answer reads in.
+  private static Connection beginSnapshot(DatabaseClient client) throws SQLException {
+    Connection connection = client.getConnection();
+    connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+    connection.setReadOnly(true);
+    client.setIsolationLevel(IsolationLevel.REPEATABLE_READ);
+    return connection;
+  }
+
+  // End a snapshot transaction and put the connection back to the defaults before it returns to
+  // the pool.
+  private static void endSnapshot(DatabaseClient client) {
+    Connection connection = client.getConnection();
+    try {
+      connection.rollback();
+      connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      connection.setReadOnly(false);
+      client.setIsolationLevel(IsolationLevel.READ_COMMITTED);
+    } catch (SQLException e) {
+      logger.warn("Failed to end snapshot transaction", e);
+    }
+    try {
+      client.close();
+    } catch (Exception e) {
+      logger.warn("Failed to close client", e);
+    }
+  }
+
+  private void close() {
+    for (Partition partition : open) {
+      partition.close();
+    }
+    closeExporter();
+  }
+
+  private void closeExporter() {
+    if (exporter != null) {
+      endSnapshot(exporter);
+      exporter = null;
+    }
+  }
+
+  // A partition that is being read, with the client that reads it.
+  private final class Partition {
+    private final DatabaseClient client;
+    private Cursor cursor;
+    private boolean closed = false;
+
+    Partition(Statement statement) {
+      this.client = clients.get();
+      open.add(this);
+      try {
+        importSnapshot(client, snapshotId);
+        this.cursor = client.executeStatement(statement);
+      } catch (SQLException | RuntimeException e) {
+        close();
+        throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+      }
+    }
+
+    Row next() {
+      try {
+        return cursor.next();
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      open.remove(this);
+      if (cursor != null) {
+        try {
+          cursor.close();
+        } catch (Exception e) {
+          logger.warn("Failed to close cursor", e);
+        }
+      }
+      endSnapshot(client);
+    }
+  }
+
+  // Splits into ranges of partitions, and reads each range one partition at a time.
+  private final class PartitionSpliterator implements Spliterator<Row> {
+    private int from;
+    private final int to;
+    private Partition current;
+
+    PartitionSpliterator(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Row> action) {
+      while (true) {
+        if (current == null) {
+          if (from >= to) {
+            return false;
+          }
+          current = new Partition(partitions.get(from++));
+        }
+        Row row = current.next();
+        if (row != null) {
+          action.accept(row);
+          return true;
+        }
+        current.close();
+        current = null;
+      }
+    }
+
+    @Override
+    public Spliterator<Row> trySplit() {
+      if (current != null || to - from < 2) {
+        return null;
+      }
+      int mid = (from + to) >>> 1;
+      PartitionSpliterator prefix = new PartitionSpliterator(from, mid);
+      from = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      // The number of rows isn't known. Reporting an unknown size makes the stream split down to
+      // single partitions.
+      return from < to || current != null ? Long.MAX_VALUE : 0;
+    }
+
+    @Override
+    public int characteristics() {
+      return NONNULL;
+    }
+  }
+}
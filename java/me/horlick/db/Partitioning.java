@@ -0,0 +1,117 @@
+package me.horlick.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A Partitioning splits a scan into partitions that can be read in parallel, by binding different
+// values to placeholders in the scan's SQL for each partition. The SQL decides what the values
+// mean, so the same statement shape works for any table:
+//
+//  - ranges binds the bounds of contiguous key ranges:
+//      SELECT * FROM events WHERE id >= :lower AND id < :upper
+//  - hash binds a modulus and a remainder:
+//      SELECT * FROM events WHERE mod(abs(hashtext(user_name)), :modulus) = :remainder
+//  - ctid binds ranges of the table's physical blocks, which needs no index:
+//      SELECT * FROM events WHERE ctid >= CAST(:lower AS tid) AND ctid < CAST(:upper AS tid)
+//
+// Postgres 14 and later read only the blocks in a ctid range. Earlier versions read the whole
+// table for each partition, so prefer ranges or hash there. Casts must be written with CAST
+// rather than "::", which isn't a valid placeholder.
+public final class Partitioning {
+
+  // Binds the values of one partition.
+  private interface PartitionBinder {
+    void bind(StatementTemplate.Binder binder, int partition);
+  }
+
+  // An upper bound past the last block of any table. Block numbers are less than 2^32 - 1.
+  private static final String LAST_CTID = "(4294967295,0)";
+
+  private final int count;
+  private final PartitionBinder binder;
+
+  private Partitioning(int count, PartitionBinder binder) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("Partition count must be positive");
+    }
+    this.count = count;
+    this.binder = binder;
+  }
+
+  /**
+   * Split the keys from min, inclusive, to max, exclusive, into count ranges of nearly equal size.
+   * The lower placeholder is bound to the first key of each range and the upper placeholder to the
+   * first key after it.
+   */
+  public static Partitioning ranges(
+      String lowerName, String upperName, long min, long max, int count) {
+    if (max <= min) {
+      throw new IllegalArgumentException("max must be greater than min");
+    }
+    long span = max - min;
+    if (span < 0) {
+      throw new IllegalArgumentException("The range from min to max is too large");
+    }
+    return new Partitioning(
+        count,
+        (binder, partition) ->
+            binder
+                .set(lowerName, bound(min, span, count, partition))
+                .set(upperName, bound(min, span, count, partition + 1)));
+  }
+
+  /**
+   * Bind the partition count to the modulus placeholder and each partition's number, from zero, to
+   * the remainder placeholder.
+   */
+  public static Partitioning hash(String modulusName, String remainderName, int count) {
+    return new Partitioning(
+        count,
+        (binder, partition) -> binder.set(modulusName, count).set(remainderName, partition));
+  }
+
+  /**
+   * Split a table's blocks into count ranges, binding tid literals such as "(1024,0)" to the lower
+   * and upper placeholders. The last range has no upper bound, so rows in blocks added after the
+   * size was measured are still read.
+   *
+   * @param blocks The number of blocks in the table, for example from {@code
+   *     pg_relation_size(CAST(:table AS regclass)) / CAST(current_setting('block_size') AS int)}.
+   */
+  public static Partitioning ctid(String lowerName, String upperName, long blocks, int count) {
+    if (blocks < 0) {
+      throw new IllegalArgumentException("Block count must not be negative");
+    }
+    return new Partitioning(
+        count,
+        (binder, partition) ->
+            binder
+                .set(lowerName, "(" + bound(0, blocks, count, partition) + ",0)")
+                .set(
+                    upperName,
+                    partition == count - 1
+                        ? LAST_CTID
+                        : "(" + bound(0, blocks, count, partition + 1) + ",0)"));
+  }
+
+  // The first key of a partition, giving the first span % count partitions one extra key each.
+  private static long bound(long min, long span, int count, int partition) {
+    return min + span / count * partition + Math.min(partition, span % count);
+  }
+
+  /** The number of partitions. */
+  public int getCount() {
+    return count;
+  }
+
+  // The statement for each partition, binding the partition's values on top of the values already
+  // set on binder.
+  List<Statement> statements(StatementTemplate.Binder binder) {
+    List<Statement> statements = new ArrayList<>(count);
+    for (int partition = 0; partition < count; partition++) {
+      this.binder.bind(binder, partition);
+      statements.add(binder.build());
+    }
+    return statements;
+  }
+}
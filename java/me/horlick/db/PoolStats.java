@@ -0,0 +1,65 @@
+package me.horlick.db;
+
+// A point-in-time view of the gauges of a ConnectionPool, used for sizing the pool under load.
+public class PoolStats {
+
+  private final int activeCount;
+  private final int idleCount;
+  private final int totalCount;
+  private final int waiterCount;
+  private final LatencyHistogram.Snapshot acquireLatency;
+
+  PoolStats(
+      int activeCount,
+      int idleCount,
+      int totalCount,
+      int waiterCount,
+      LatencyHistogram.Snapshot acquireLatency) {
+    this.activeCount = activeCount;
+    this.idleCount = idleCount;
+    this.totalCount = totalCount;
+    this.waiterCount = waiterCount;
+    this.acquireLatency = acquireLatency;
+  }
+
+  /** The number of connections currently borrowed by a DatabaseClient. */
+  public int getActiveCount() {
+    return activeCount;
+  }
+
+  /** The number of open connections waiting to be borrowed. */
+  public int getIdleCount() {
+    return idleCount;
+  }
+
+  /** The number of open connections, whether borrowed or idle. */
+  public int getTotalCount() {
+    return totalCount;
+  }
+
+  /** The number of callers blocked waiting for a connection. */
+  public int getWaiterCount() {
+    return waiterCount;
+  }
+
+  /** How long callers have waited to borrow a connection. */
+  public LatencyHistogram.Snapshot getAcquireLatency() {
+    return acquireLatency;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolStats{"
+        + "active="
+        + activeCount
+        + ", idle="
+        + idleCount
+        + ", total="
+        + totalCount
+        + ", waiters="
+        + waiterCount
+        + ", acquireLatency="
+        + acquireLatency
+        + '}';
+  }
+}
@@ -0,0 +1,69 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A PooledConnection is a physical database connection along with the bookkeeping that a
+// ConnectionPool needs to decide whether it can be handed out again. Each connection has its own
+// PreparedStatementCache, which lives as long as the connection does.
+final class PooledConnection {
+
+  private static final Logger logger = LoggerFactory.getLogger(PooledConnection.class);
+
+  private final Connection connection;
+  private final PreparedStatementCache statementCache;
+  private final long createdNanos;
+  private volatile long lastUsedNanos;
+
+  PooledConnection(Connection connection, int statementCacheSize) {
+    this.connection = connection;
+    this.statementCache = new PreparedStatementCache(connection, statementCacheSize);
+    this.createdNanos = System.nanoTime();
+    this.lastUsedNanos = createdNanos;
+  }
+
+  Connection getConnection() {
+    return connection;
+  }
+
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  long getAgeNanos(long now) {
+    return now - createdNanos;
+  }
+
+  long getIdleNanos(long now) {
+    return now - lastUsedNanos;
+  }
+
+  void touch() {
+    lastUsedNanos = System.nanoTime();
+  }
+
+  // Roll back anything the previous user left uncommitted so the next user starts with a clean
+  // transaction. Returns false if the connection is no longer usable.
+  boolean reset() {
+    try {
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+      }
+      return true;
+    } catch (SQLException e) {
+      logger.warn("Failed to reset connection, discarding it", e);
+      return false;
+    }
+  }
+
+  void close() {
+    statementCache.close();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      logger.warn("Failed to close connection", e);
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package me.horlick.db;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A PrefetchingCursor reads rows ahead of its consumer on a background thread, so that fetching the
+// next rows from the database overlaps with processing the current ones.
+//
+// The background thread decodes rows into batches and hands them over through a bounded queue. When
+// the queue is full it waits for the consumer to take a batch, so at most depth batches are held in
+// memory however far behind the consumer falls. The consumer only waits when the queue is empty.
+//
+// The background thread owns the underlying ResultSet, which isn't safe to use from two threads,
+// and closes it when it stops. Closing the cursor early discards any prefetched rows and waits for
+// the background thread to stop, so the connection can be used again as soon as close returns. If
+// the background thread is reading from the database at the time:
+//  - outside a transaction, the statement is cancelled, so close returns promptly;
+//  - inside a transaction, which a cancelled statement would abort, the rows being read are allowed
+//    to arrive, which takes one round trip of the fetch size, and nothing further is read. If they
+//    take longer than the close timeout, the statement is cancelled after all, and the transaction
+//    can then only be rolled back.
+public final class PrefetchingCursor implements Cursor {
+
+  private static final Logger logger = LoggerFactory.getLogger(PrefetchingCursor.class);
+
+  private static final ExecutorService FETCHERS = VirtualThreads.newExecutor("db-prefetch-%d");
+
+  // How long close waits for a read in progress inside a transaction before cancelling it.
+  static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  // Put on the queue after the last batch, or after a failure.
+  private static final List<Row> END = Collections.emptyList();
+
+  private final ResultSetCursor source;
+  private final int batchSize;
+  private final boolean inTransaction;
+  private final long closeTimeoutNanos;
+  private final BlockingQueue<List<Row>> queue;
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  // The thread running fetch, and whether it is reading from the database rather than waiting for
+  // space in the queue. Guarded by lock, so that close never cancels the statement or interrupts
+  // the fetcher once it has finished reading.
+  private final Object lock = new Object();
+  private Thread fetcher;
+  private boolean reading = false;
+
+  private volatile boolean closed = false;
+  private volatile Throwable failure;
+
+  // The batch being consumed, and the position of the next row in it.
+  private List<Row> batch = Collections.emptyList();
+  private int position = 0;
+  private boolean done = false;
+
+  PrefetchingCursor(ResultSetCursor source, int batchSize, int depth, boolean inTransaction) {
+    this(source, batchSize, depth, inTransaction, CLOSE_TIMEOUT_NANOS, FETCHERS);
+  }
+
+  PrefetchingCursor(
+      ResultSetCursor source,
+      int batchSize,
+      int depth,
+      boolean inTransaction,
+      long closeTimeoutNanos,
+      Executor executor) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    if (depth <= 0) {
+      throw new IllegalArgumentException("Depth must be positive");
+    }
+    this.source = source;
+    this.batchSize = batchSize;
+    this.inTransaction = inTransaction;
+    this.closeTimeoutNanos = closeTimeoutNanos;
+    this.queue = new ArrayBlockingQueue<>(depth);
+    executor.execute(this::fetch);
+  }
+
+  // Runs on the background thread until every row has been read, reading fails or the cursor is
+  // closed.
+  private void fetch() {
+    synchronized (lock) {
+      fetcher = Thread.currentThread();
+    }
+    try {
+      while (startReading()) {
+        List<Row> rows = new ArrayList<>(batchSize);
+        Row row = null;
+        try {
+          while (rows.size() < batchSize && !closed && (row = source.next()) != null) {
+            rows.add(row);
+          }
+        } finally {
+          stopReading();
+        }
+        if (closed) {
+          break;
+        }
+        if (!rows.isEmpty()) {
+          queue.put(rows);
+        }
+        if (row == null) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Closed while waiting for space in the queue.
+    } catch (RuntimeException | Error e) {
+      if (!closed) {
+        failure = e;
+      }
+    } finally {
+      synchronized (lock) {
+        fetcher = null;
+        // Clear an interrupt from close that arrived after the fetcher stopped waiting, so that it
+        // can't disturb closing the ResultSet.
+        Thread.interrupted();
+      }
+      try {
+        source.close();
+      } catch (Exception e) {
+        logger.warn("Failed to close prefetched cursor", e);
+      }
+      if (!closed) {
+        // Only waits until the consumer takes a batch or closes the cursor, which empties the
+        // queue.
+        Uninterruptibles.putUninterruptibly(queue, END);
+      }
+      stopped.countDown();
+    }
+  }
+
+  // Called before reading more rows. Returns false if the cursor has been closed.
+  private boolean startReading() {
+    synchronized (lock) {
+      if (closed) {
+        return false;
+      }
+      reading = true;
+      return true;
+    }
+  }
+
+  private void stopReading() {
+    synchronized (lock) {
+      reading = false;
+    }
+  }
+
+  @Override
+  public Row next() {
+    if (closed) {
+      throw new IllegalStateException("Cursor is closed");
+    }
+    while (position == batch.size()) {
+      if (done) {
+        return null;
+      }
+      try {
+        batch = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      position = 0;
+      if (batch == END) {
+        done = true;
+        if (failure != null) {
+          throw new RuntimeException(failure);
+        }
+      }
+    }
+    return batch.get(position++);
+  }
+
+  /**
+   * Stop reading ahead and release the statement, waiting for the background thread to stop. If
+   * rows are being read from the database, the statement is cancelled, unless the cursor was
+   * opened in a transaction. Then the rows are allowed to arrive so that the transaction can carry
+   * on, and the statement is only cancelled if they take longer than a second.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    synchronized (lock) {
+      // Interrupting a thread that is blocked on a socket can close the socket, so a fetcher that
+      // is reading is stopped by cancelling its statement, or notices closed once its rows arrive.
+      if (reading) {
+        if (!inTransaction) {
+          cancelRead();
+        }
+      } else if (fetcher != null) {
+        fetcher.interrupt();
+      }
+    }
+    queue.clear();
+    if (!Uninterruptibles.awaitUninterruptibly(stopped, closeTimeoutNanos, TimeUnit.NANOSECONDS)) {
+      synchronized (lock) {
+        cancelRead();
+      }
+      Uninterruptibles.awaitUninterruptibly(stopped);
+    }
+    batch = Collections.emptyList();
+  }
+
+  // Cancel the statement if the fetcher is still reading from it. The caller must hold lock.
+  private void cancelRead() {
+    if (reading) {
+      try {
+        source.cancel();
+      } catch (SQLException e) {
+        logger.warn("Failed to cancel prefetched statement", e);
+      }
+    }
+  }
+}
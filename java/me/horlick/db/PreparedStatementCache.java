@@ -0,0 +1,121 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A PreparedStatementCache keeps the most recently used PreparedStatements of a single connection,
+// keyed by their parameterised SQL. Reusing the same PreparedStatement means the driver only
+// prepares it once, and once it has been executed often enough the Postgres driver switches to a
+// named server-side statement so the query is no longer planned on every execution.
+//
+// A statement is removed from the cache while it is in use and put back when it is released, so a
+// query that is executed again while an earlier Cursor over it is still open gets its own
+// statement. When the cache is full the least recently used statement is closed.
+public class PreparedStatementCache implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+  private final Connection connection;
+  private final int capacity;
+
+  // Ordered from least to most recently released.
+  private final LinkedHashMap<String, PreparedStatement> statements;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  PreparedStatementCache(Connection connection, int capacity) {
+    this.connection = connection;
+    this.capacity = capacity;
+    this.statements =
+        new LinkedHashMap<String, PreparedStatement>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= PreparedStatementCache.this.capacity) {
+              return false;
+            }
+            evictionCount.incrementAndGet();
+            closeQuietly(eldest.getValue());
+            return true;
+          }
+        };
+  }
+
+  // Take the statement for some SQL out of the cache, preparing it if it isn't there.
+  synchronized CachedStatement acquire(String sql) throws SQLException {
+    PreparedStatement statement = statements.remove(sql);
+    if (statement != null) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+      statement =
+          connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+    return new CachedStatement(this, sql, statement);
+  }
+
+  // Put a statement back into the cache once its results have been consumed.
+  synchronized void release(String sql, PreparedStatement statement) {
+    try {
+      statement.clearParameters();
+      statement.clearBatch();
+    } catch (SQLException e) {
+      logger.warn("Failed to clear parameters, closing statement", e);
+      closeQuietly(statement);
+      return;
+    }
+
+    PreparedStatement previous = statements.put(sql, statement);
+    if (previous != null) {
+      // The same SQL was in use twice at once, so keep only the most recent statement.
+      closeQuietly(previous);
+    }
+  }
+
+  /** The number of executions that reused a cached statement. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** The number of executions that had to prepare a new statement. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** The number of statements closed to make room for others. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** The number of statements currently cached. */
+  public synchronized int size() {
+    return statements.size();
+  }
+
+  /** Close every cached statement. */
+  @Override
+  public synchronized void close() {
+    Iterator<PreparedStatement> it = statements.values().iterator();
+    while (it.hasNext()) {
+      closeQuietly(it.next());
+      it.remove();
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logger.warn("Failed to close statement", e);
+    }
+  }
+}
@@ -0,0 +1,395 @@
+package me.horlick.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A ReplicaRouter picks the read replica that each read-only DatabaseClient connects to.
+//
+// Replicas are balanced by the power of two choices: two available replicas are picked at random
+// and the one with the lower cost wins, where the cost is an exponentially weighted moving average
+// of its statement latency multiplied by the number of clients currently using it, plus one. This
+// sends most reads to fast, idle replicas while still spreading load, and a replica that slows down
+// is avoided within a few statements.
+//
+// A replica stops being available when:
+//  - a background health check can't reach it, or finds it lagging behind the primary by more than
+//    the maximum lag, until a later check passes, or
+//  - it fails several times in a row to open a connection or to run a statement, for the ejection
+//    time.
+//
+// Health checks probe every replica at once, each on a dedicated connection outside the replica's
+// pool and with a query timeout, so a busy pool doesn't make a replica look unhealthy and a replica
+// that hangs doesn't hold up checks of the others. A replica whose pool is exhausted is busy rather
+// than failing, and clients try another straight away instead of waiting for a connection.
+//
+// If no replica is available, the caller falls back to the primary.
+final class ReplicaRouter implements AutoCloseable {
+
+  // Reads the replication lag of a database in milliseconds, or zero if it isn't a replica, giving
+  // up after timeoutSeconds.
+  interface LagProbe {
+    long lagMillis(Connection connection, int timeoutSeconds) throws SQLException;
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+
+  // The weight given to each new latency sample in the moving average.
+  private static final double EWMA_ALPHA = 0.2;
+
+  // Consecutive failures after which a replica is ejected.
+  static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+  // How long a health check waits for a replica to report its lag.
+  static final int PROBE_TIMEOUT_SECONDS = 5;
+
+  // The functions that report replication progress were renamed in Postgres 10. A replica that has
+  // replayed everything it received is up to date, however long ago the last write was.
+  private static final String LAG_QUERY =
+      "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+          + " ELSE COALESCE(1000 * EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)"
+          + " END";
+  private static final String LAG_QUERY_9 =
+      "SELECT CASE WHEN pg_last_xlog_receive_location() = pg_last_xlog_replay_location() THEN 0"
+          + " ELSE COALESCE(1000 * EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)"
+          + " END";
+
+  static final LagProbe POSTGRES_LAG_PROBE =
+      (connection, timeoutSeconds) -> {
+        boolean before10 = connection.getMetaData().getDatabaseMajorVersion() < 10;
+        try (java.sql.Statement statement = connection.createStatement()) {
+          statement.setQueryTimeout(timeoutSeconds);
+          try (ResultSet rs = statement.executeQuery(before10 ? LAG_QUERY_9 : LAG_QUERY)) {
+            rs.next();
+            return rs.getLong(1);
+          }
+        } finally {
+          connection.rollback();
+        }
+      };
+
+  private final List<Replica> replicas;
+  private final LagProbe lagProbe;
+  private final long maxLagMillis;
+  private final long ejectionNanos;
+  private final Random random;
+
+  private final ScheduledExecutorService healthChecker;
+  private final ExecutorService probes;
+
+  ReplicaRouter(
+      List<Replica> replicas,
+      LagProbe lagProbe,
+      Duration maxLag,
+      Duration ejectionTime,
+      Duration healthCheckInterval,
+      Random random) {
+    this.replicas = new ArrayList<>(replicas);
+    this.lagProbe = lagProbe;
+    this.maxLagMillis = maxLag.toMillis();
+    this.ejectionNanos = ejectionTime.toNanos();
+    this.random = random;
+    this.probes = VirtualThreads.newExecutor("db-replica-probe-%d");
+    if (healthCheckInterval.isZero()) {
+      this.healthChecker = null;
+    } else {
+      this.healthChecker =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("db-replica-health-check-%d")
+                  .build());
+      healthChecker.scheduleWithFixedDelay(
+          this::checkHealth, 0, healthCheckInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Borrow a connection from the cheapest available replica, trying others if it fails.
+   *
+   * @return The replica and its connection, or null if no replica could give out a connection.
+   */
+  Lease borrow() {
+    List<Replica> tried = new ArrayList<>();
+    Replica replica;
+    while ((replica = choose(tried)) != null) {
+      tried.add(replica);
+      try {
+        // Rather than wait for a connection to a saturated replica, move straight on to the next.
+        PooledConnection pooled = replica.pool.tryBorrow();
+        if (pooled == null) {
+          logger.debug("Replica " + replica.name + " is busy");
+          continue;
+        }
+        replica.active.incrementAndGet();
+        return new Lease(this, replica, pooled);
+      } catch (RuntimeException e) {
+        // The pool wraps the SQLException of a connection that couldn't be opened. Anything else
+        // means the pool was too busy to hand one out, which says nothing about the replica's
+        // health.
+        if (e.getCause() instanceof SQLException) {
+          logger.warn("Failed to borrow a connection from replica " + replica.name, e);
+          recordFailure(replica);
+        } else {
+          logger.debug("Replica " + replica.name + " is busy", e);
+        }
+      }
+    }
+    return null;
+  }
+
+  // Pick between two random available replicas that haven't been tried yet, or null if there are
+  // none.
+  Replica choose(List<Replica> excluded) {
+    long now = System.nanoTime();
+    List<Replica> available = new ArrayList<>(replicas.size());
+    for (Replica replica : replicas) {
+      if (replica.isAvailable(now) && !excluded.contains(replica)) {
+        available.add(replica);
+      }
+    }
+    if (available.isEmpty()) {
+      return null;
+    } else if (available.size() == 1) {
+      return available.get(0);
+    }
+    int first = random.nextInt(available.size());
+    int second = random.nextInt(available.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    Replica a = available.get(first);
+    Replica b = available.get(second);
+    return a.cost() <= b.cost() ? a : b;
+  }
+
+  void recordFailure(Replica replica) {
+    if (replica.consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+      replica.consecutiveFailures.set(0);
+      replica.ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+      logger.warn(
+          "Ejected replica "
+              + replica.name
+              + " for "
+              + TimeUnit.NANOSECONDS.toSeconds(ejectionNanos)
+              + "s after "
+              + MAX_CONSECUTIVE_FAILURES
+              + " failures in a row");
+    }
+  }
+
+  // Probe every replica's connectivity and lag, at once, and wait for the probes to finish.
+  void checkHealth() {
+    List<Replica> checked = new ArrayList<>();
+    List<Callable<Void>> checks = new ArrayList<>();
+    for (Replica replica : replicas) {
+      // A probe that outlived the last check is still waiting on its replica.
+      if (!replica.probing.compareAndSet(false, true)) {
+        setHealthy(replica, false, "its last health check hasn't finished");
+        continue;
+      }
+      checked.add(replica);
+      checks.add(
+          () -> {
+            try {
+              checkHealth(replica);
+            } finally {
+              replica.probing.set(false);
+            }
+            return null;
+          });
+    }
+    try {
+      // The query timeout normally ends a probe first, but connecting or a replica that ignores
+      // cancellation could take longer.
+      List<Future<Void>> results =
+          probes.invokeAll(checks, 2 * PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      for (int i = 0; i < results.size(); i++) {
+        if (results.get(i).isCancelled()) {
+          setHealthy(checked.get(i), false, "its health check timed out");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void checkHealth(Replica replica) {
+    boolean healthy;
+    String reason = null;
+    try {
+      if (replica.probeConnection == null) {
+        replica.probeConnection = replica.connector.connect();
+      }
+      long lagMillis = lagProbe.lagMillis(replica.probeConnection, PROBE_TIMEOUT_SECONDS);
+      replica.lagMillis = lagMillis;
+      healthy = lagMillis <= maxLagMillis;
+      if (!healthy) {
+        reason = "it is " + lagMillis + "ms behind the primary";
+      }
+    } catch (SQLException | RuntimeException e) {
+      healthy = false;
+      reason = "its health check failed: " + e;
+      replica.closeProbeConnection();
+    }
+    setHealthy(replica, healthy, reason);
+  }
+
+  private static void setHealthy(Replica replica, boolean healthy, String reason) {
+    if (replica.healthy && !healthy) {
+      logger.warn("Not reading from replica " + replica.name + " because " + reason);
+    } else if (!replica.healthy && healthy) {
+      logger.info("Reading from replica " + replica.name + " again");
+    }
+    replica.healthy = healthy;
+  }
+
+  List<Replica> getReplicas() {
+    return replicas;
+  }
+
+  @Override
+  public void close() {
+    if (healthChecker != null) {
+      healthChecker.shutdownNow();
+    }
+    probes.shutdownNow();
+    for (Replica replica : replicas) {
+      replica.pool.close();
+      replica.closeProbeConnection();
+    }
+  }
+
+  // A connection borrowed from a replica by a read-only DatabaseClient, which reports how the
+  // replica performs through it.
+  static final class Lease {
+    private final ReplicaRouter router;
+    private final Replica replica;
+    private final PooledConnection pooled;
+
+    Lease(ReplicaRouter router, Replica replica, PooledConnection pooled) {
+      this.router = router;
+      this.replica = replica;
+      this.pooled = pooled;
+    }
+
+    PooledConnection getConnection() {
+      return pooled;
+    }
+
+    ConnectionPool getPool() {
+      return replica.pool;
+    }
+
+    void recordLatency(long nanos) {
+      replica.recordLatency(nanos);
+    }
+
+    void recordFailure() {
+      router.recordFailure(replica);
+    }
+
+    // Called when the client is closed, before it returns the connection to the pool.
+    void release() {
+      replica.active.decrementAndGet();
+    }
+  }
+
+  // One read replica and the router's view of it.
+  static final class Replica {
+    private final String name;
+    private final ConnectionPool pool;
+
+    // Opens the connection that health checks use, which is kept outside the pool.
+    private final ConnectionPool.Connector connector;
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile Connection probeConnection;
+
+    // The number of clients using the replica.
+    private final AtomicInteger active = new AtomicInteger();
+
+    // The moving average of statement latency, in nanoseconds, stored as the bits of a double.
+    // Zero until the first sample, so new replicas are tried early.
+    private final AtomicLong latencyBits = new AtomicLong(Double.doubleToLongBits(0));
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long ejectedUntilNanos;
+    private volatile boolean healthy = true;
+    private volatile long lagMillis;
+
+    Replica(String name, ConnectionPool pool, ConnectionPool.Connector connector) {
+      this.name = name;
+      this.pool = pool;
+      this.connector = connector;
+      this.ejectedUntilNanos = System.nanoTime();
+    }
+
+    void closeProbeConnection() {
+      Connection connection = probeConnection;
+      probeConnection = null;
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          logger.warn("Failed to close health check connection to replica " + name, e);
+        }
+      }
+    }
+
+    boolean isAvailable(long now) {
+      return healthy && now - ejectedUntilNanos >= 0;
+    }
+
+    double cost() {
+      return getLatencyNanos() * (active.get() + 1);
+    }
+
+    // Called when a statement has run on the replica.
+    void recordLatency(long nanos) {
+      consecutiveFailures.set(0);
+      long bits;
+      double updated;
+      do {
+        bits = latencyBits.get();
+        double average = Double.longBitsToDouble(bits);
+        updated = average == 0 ? nanos : average + EWMA_ALPHA * (nanos - average);
+      } while (!latencyBits.compareAndSet(bits, Double.doubleToLongBits(updated)));
+    }
+
+    String getName() {
+      return name;
+    }
+
+    double getLatencyNanos() {
+      return Double.longBitsToDouble(latencyBits.get());
+    }
+
+    int getActiveCount() {
+      return active.get();
+    }
+
+    long getLagMillis() {
+      return lagMillis;
+    }
+
+    boolean isHealthy() {
+      return healthy;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package me.horlick.db;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A ResultCache keeps the rows returned by reads of tables that rarely change, so that repeating
+// a read doesn't go to the database. It is opt-in twice over: a factory must be given a cache, and
+// only statements that declare the tables they read with Statement.withTables are cached, for
+// example:
+//
+//   static final StatementTemplate SELECT_COUNTRY =
+//       StatementTemplate.of("SELECT * FROM countries WHERE code = :code");
+//
+//   Statement statement = SELECT_COUNTRY.bind().set("code", "NZ").build();
+//   client.executeStatement(statement.withTables("countries"));
+//
+// Entries are keyed by template and bound values, and hold the rows fully read into memory. The
+// cache is bounded by an estimate of the memory those rows use, measured from the values read, and
+// evicts the least recently used entries to stay under it. Each entry also expires after a time to live, which can be set per
+// template.
+//
+// Writes that declare tables, whether executed directly or deferred, invalidate every cached read
+// of those tables when their transaction commits. Until then, reads of those tables in the same
+// transaction bypass the cache so that they see the transaction's own writes. A read that was
+// running while one of its tables was invalidated isn't cached, so a result read before a commit
+// can't be stored after it. Writes that don't declare their tables, or that are made by something
+// other than this library, are only picked up when entries expire.
+//
+// Reads are assumed to see the latest committed data, as they do at the default READ COMMITTED
+// isolation level, so clients bypass the cache in REPEATABLE READ and SERIALIZABLE transactions,
+// which read from their own snapshot. Cached rows are shared between callers and must not be
+// modified.
+public class ResultCache {
+
+  private final long maxWeightBytes;
+  private final long ttlNanos;
+  private final Map<StatementTemplate, Long> templateTtlNanos;
+
+  // Ordered from least to most recently used. Guarded by this.
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+  private long weightBytes;
+
+  // The number of times each table has been invalidated. Guarded by this.
+  private final Map<String, Long> tableGenerations = new HashMap<>();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  private ResultCache(Builder builder) {
+    this.maxWeightBytes = builder.maxWeightBytes;
+    this.ttlNanos = builder.ttl.toNanos();
+    this.templateTtlNanos = new HashMap<>(builder.templateTtlNanos);
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  // The rows cached for a statement, or null if there are none or they have expired.
+  synchronized List<Row> get(StatementTemplate template, Object[] slotValues) {
+    Key key = new Key(template, slotValues);
+    Entry entry = entries.get(key);
+    if (entry != null && System.nanoTime() - entry.expiresAtNanos >= 0) {
+      remove(key, entry);
+      entry = null;
+    }
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    return entry.rows;
+  }
+
+  // A number that changes whenever any of the tables is invalidated. Generations only increase,
+  // so their sum is enough.
+  synchronized long generation(Set<String> tables) {
+    long generation = 0;
+    for (String table : tables) {
+      generation += tableGenerations.getOrDefault(table, 0L);
+    }
+    return generation;
+  }
+
+  // The most bytes of rows that put would cache for a statement, so that readers can stop
+  // buffering a result that is too large and stream the rest of it instead. A single huge result
+  // would push out everything else.
+  long maxRowBytes(Object[] slotValues) {
+    return maxWeightBytes / 8 - keyBytes(slotValues);
+  }
+
+  private static long keyBytes(Object[] slotValues) {
+    return 128 + 16L * slotValues.length;
+  }
+
+  // Cache the rows of a read, which weigh rowBytes, unless they are too large or one of its tables
+  // was invalidated after generation was taken.
+  synchronized void put(
+      StatementTemplate template,
+      Object[] slotValues,
+      Set<String> tables,
+      List<Row> rows,
+      long rowBytes,
+      long generation) {
+    if (generation(tables) != generation || rowBytes > maxRowBytes(slotValues)) {
+      return;
+    }
+    long weight = keyBytes(slotValues) + rowBytes;
+
+    Key key = new Key(template, slotValues);
+    Long ttl = templateTtlNanos.get(template);
+    long expiresAtNanos = System.nanoTime() + (ttl != null ? ttl : ttlNanos);
+    Entry entry = new Entry(rows, tables, weight, expiresAtNanos);
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      weightBytes -= previous.weight;
+      unindex(key, previous);
+    }
+    weightBytes += weight;
+    for (String table : tables) {
+      keysByTable.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+    }
+
+    Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+    while (weightBytes > maxWeightBytes && eldest.hasNext()) {
+      Map.Entry<Key, Entry> evicted = eldest.next();
+      eldest.remove();
+      weightBytes -= evicted.getValue().weight;
+      unindex(evicted.getKey(), evicted.getValue());
+      evictionCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove every cached read of some tables. Committed writes that declare their tables do this
+   * automatically, so this is only needed for tables changed some other way.
+   */
+  public synchronized void invalidate(Collection<String> tables) {
+    for (String table : tables) {
+      String name = Statement.normaliseTable(table);
+      tableGenerations.merge(name, 1L, Long::sum);
+      Set<Key> keys = keysByTable.remove(name);
+      if (keys == null) {
+        continue;
+      }
+      for (Key key : keys) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+          weightBytes -= entry.weight;
+          unindex(key, entry);
+          invalidationCount.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /** Remove every cached read of some tables. */
+  public void invalidate(String... tables) {
+    invalidate(Arrays.asList(tables));
+  }
+
+  /** Remove everything from the cache. */
+  public synchronized void invalidateAll() {
+    invalidate(new HashSet<>(keysByTable.keySet()));
+    entries.clear();
+    weightBytes = 0;
+  }
+
+  private void remove(Key key, Entry entry) {
+    entries.remove(key);
+    weightBytes -= entry.weight;
+    unindex(key, entry);
+  }
+
+  private void unindex(Key key, Entry entry) {
+    for (String table : entry.tables) {
+      Set<Key> keys = keysByTable.get(table);
+      if (keys != null && keys.remove(key) && keys.isEmpty()) {
+        keysByTable.remove(table);
+      }
+    }
+  }
+
+  /** The number of reads answered from the cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** The number of cacheable reads that went to the database. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** The number of entries removed to stay under the memory limit. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** The number of entries removed because one of their tables was written. */
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  /** The estimated number of bytes used by cached rows. */
+  public synchronized long getWeightBytes() {
+    return weightBytes;
+  }
+
+  /** The number of cached results. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  // Bound values are compared by content, including arrays.
+  private static final class Key {
+    private final StatementTemplate template;
+    private final Object[] slotValues;
+    private final int hash;
+
+    Key(StatementTemplate template, Object[] slotValues) {
+      this.template = template;
+      this.slotValues = slotValues;
+      this.hash = 31 * template.hashCode() + Arrays.deepHashCode(slotValues);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return template == key.template && Arrays.deepEquals(slotValues, key.slotValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Entry {
+    private final List<Row> rows;
+    private final Set<String> tables;
+    private final long weight;
+    private final long expiresAtNanos;
+
+    Entry(List<Row> rows, Set<String> tables, long weight, long expiresAtNanos) {
+      this.rows = Collections.unmodifiableList(rows);
+      this.tables = tables;
+      this.weight = weight;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  public static class Builder {
+    private long maxWeightBytes = 64L << 20;
+    private Duration ttl = Duration.ofMinutes(5);
+    private final Map<StatementTemplate, Long> templateTtlNanos = new HashMap<>();
+
+    private Builder() {}
+
+    /** Limit the estimated memory used by cached rows. Defaults to 64 MiB. */
+    public Builder setMaxWeightBytes(long maxWeightBytes) {
+      this.maxWeightBytes = maxWeightBytes;
+      return this;
+    }
+
+    /** How long results are kept before they are read again. Defaults to five minutes. */
+    public Builder setTtl(Duration ttl) {
+      this.ttl = ttl;
+      return this;
+    }
+
+    /** Use a different time to live for one statement. */
+    public Builder setTtl(StatementTemplate template, Duration ttl) {
+      templateTtlNanos.put(template, ttl.toNanos());
+      return this;
+    }
+
+    public ResultCache build() {
+      checkArgument(maxWeightBytes > 0, "maxWeightBytes must be positive");
+      checkArgument(!ttl.isNegative() && !ttl.isZero(), "ttl must be positive");
+      for (long nanos : templateTtlNanos.values()) {
+        checkArgument(nanos > 0, "ttl must be positive");
+      }
+      return new ResultCache(this);
+    }
+  }
+}
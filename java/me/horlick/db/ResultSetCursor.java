@@ -2,41 +2,135 @@ package me.horlick.db;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Map;
 
 public class ResultSetCursor implements Cursor {
 
   private final ResultSet rs;
-  private final Map<String, Integer> columnIndices;
+  private final RowLayout layout;
+  private final CachedStatement statement;
 
-  ResultSetCursor(ResultSet rs, Map<String, Integer> columnIndices) {
+  // Where to record the rows read and how long it took, timed from startNanos.
+  private final StatementMetrics metrics;
+  private final long startNanos;
+  private long firstRowNanos = 0;
+  private long rowCount = 0;
+  private boolean drained = false;
+
+  ResultSetCursor(ResultSet rs, RowLayout layout, CachedStatement statement) {
+    this(rs, layout, statement, new StatementMetrics(statement.getSql()), System.nanoTime());
+  }
+
+  ResultSetCursor(
+      ResultSet rs,
+      RowLayout layout,
+      CachedStatement statement,
+      StatementMetrics metrics,
+      long startNanos) {
     this.rs = rs;
-    this.columnIndices = columnIndices;
+    this.layout = layout;
+    this.statement = statement;
+    this.metrics = metrics;
+    this.startNanos = startNanos;
   }
 
   @Override
   public Row next() {
     try {
-      if (!rs.next()) {
+      if (!advance()) {
         return null;
       }
 
-      int numColumns = columnIndices.size();
+      int numColumns = layout.getColumnCount();
 
-      Object values[] = new Object[numColumns];
+      // Numeric and boolean columns are read with the primitive getters so they are never boxed.
+      // The ResultSet getters use 1-based indexes.
+      Row row = new Row(layout);
       for (int i = 0; i < numColumns; i++) {
-        // getObject uses 1-based indexes.
-        values[i] = rs.getObject(i + 1);
+        switch (layout.getKind(i)) {
+          case INT:
+          case LONG:
+            long longValue = rs.getLong(i + 1);
+            if (rs.wasNull()) {
+              row.setNull(i);
+            } else {
+              row.setLong(i, longValue);
+            }
+            break;
+          case BOOLEAN:
+            boolean booleanValue = rs.getBoolean(i + 1);
+            if (rs.wasNull()) {
+              row.setNull(i);
+            } else {
+              row.setLong(i, booleanValue ? 1 : 0);
+            }
+            break;
+          case FLOAT:
+          case DOUBLE:
+            double doubleValue = rs.getDouble(i + 1);
+            if (rs.wasNull()) {
+              row.setNull(i);
+            } else {
+              row.setDouble(i, doubleValue);
+            }
+            break;
+          default:
+            row.setObject(i, rs.getObject(i + 1));
+        }
       }
 
-      return new Row(columnIndices, values);
+      return row;
     } catch (SQLException e) {
+      metrics.recordError();
       throw new RuntimeException(e);
     }
   }
 
+  // Move the ResultSet to the next row, recording metrics. Returns false after the last row.
+  boolean advance() throws SQLException {
+    if (!rs.next()) {
+      recordDrained();
+      return false;
+    }
+    if (rowCount++ == 0) {
+      firstRowNanos = System.nanoTime();
+      metrics.recordFirstRow(firstRowNanos - startNanos);
+    }
+    return true;
+  }
+
+  ResultSet getResultSet() {
+    return rs;
+  }
+
+  RowLayout getLayout() {
+    return layout;
+  }
+
+  void recordError() {
+    metrics.recordError();
+  }
+
+  // Ask the database to cancel the statement. May be called from any thread.
+  void cancel() throws SQLException {
+    statement.get().cancel();
+  }
+
+  // Record the rows read, once, when the last row has been read or the cursor is closed early.
+  private void recordDrained() {
+    if (!drained) {
+      drained = true;
+      long now = System.nanoTime();
+      metrics.recordDrain(rowCount == 0 ? now - startNanos : now - firstRowNanos, rowCount);
+    }
+  }
+
   @Override
   public void close() throws Exception {
-    rs.close();
+    recordDrained();
+    try {
+      rs.close();
+    } finally {
+      statement.release();
+    }
   }
 }
@@ -1,33 +1,267 @@
 package me.horlick.db;
 
+import java.lang.reflect.Array;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.temporal.Temporal;
+import java.util.Date;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import me.horlick.db.RowLayout.Kind;
 
 // A single row of data from a table, treated as a map from column names to values.
+//
+// Integer, boolean and floating point columns are stored unboxed, so reading them with the typed
+// accessors such as getLong and getDouble doesn't allocate. Like JDBC, the typed accessors return
+// zero or false for NULL values; use isNull to tell the difference.
 public class Row {
 
-  private final Map<String, Integer> columnIndices;
-  private final Object values[];
+  private final RowLayout layout;
+  private final long[] longs;
+  private final double[] doubles;
+  private final Object[] objects;
+
+  // A bit per column, set if the column is NULL.
+  private final long[] nulls;
 
   public Row(Map<String, Integer> columnIndices, Object[] values) {
-    this.columnIndices = columnIndices;
-    this.values = values;
+    this(RowLayout.ofObjects(columnIndices));
+    System.arraycopy(values, 0, objects, 0, values.length);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == null) {
+        setNull(i);
+      }
+    }
+  }
+
+  // An empty row, to be filled in by a Cursor.
+  Row(RowLayout layout) {
+    this.layout = layout;
+    this.longs = new long[layout.getLongCount()];
+    this.doubles = new double[layout.getDoubleCount()];
+    this.objects = new Object[layout.getObjectCount()];
+    this.nulls = new long[(layout.getColumnCount() + 63) / 64];
   }
 
   @SuppressWarnings("unchecked")
   public <T> T get(String columnName) {
-    Integer index = columnIndices.get(columnName);
-    if (index == null) {
-      throw new RuntimeException(
-          "Column \""
-              + columnName
-              + "\" not found. Available columns are: "
-              + columnIndices
-                  .keySet()
-                  .stream()
-                  .map(name -> "\"" + name + "\"")
-                  .collect(Collectors.joining(", ")));
-    }
-    return (T) values[index];
+    return (T) getObject(layout.indexOf(columnName));
+  }
+
+  /** Whether the value of a column is NULL. */
+  public boolean isNull(String columnName) {
+    return isNull(layout.indexOf(columnName));
+  }
+
+  public long getLong(String columnName) {
+    return getLong(layout.indexOf(columnName));
+  }
+
+  public int getInt(String columnName) {
+    return getInt(layout.indexOf(columnName));
+  }
+
+  public double getDouble(String columnName) {
+    return getDouble(layout.indexOf(columnName));
+  }
+
+  public boolean getBoolean(String columnName) {
+    return getBoolean(layout.indexOf(columnName));
+  }
+
+  /** The value of a timestamp column as an Instant, or null if it is NULL. */
+  public Instant getInstant(String columnName) {
+    return getInstant(layout.indexOf(columnName));
+  }
+
+  /** The value of a column, looked up by a handle rather than by name. */
+  public <T> T get(Column<T> column) {
+    return column.getType().cast(getObject(column.indexIn(layout)));
+  }
+
+  public boolean isNull(Column<?> column) {
+    return isNull(column.indexIn(layout));
+  }
+
+  public long getLong(Column<?> column) {
+    return getLong(column.indexIn(layout));
+  }
+
+  public int getInt(Column<?> column) {
+    return getInt(column.indexIn(layout));
+  }
+
+  public double getDouble(Column<?> column) {
+    return getDouble(column.indexIn(layout));
+  }
+
+  public boolean getBoolean(Column<?> column) {
+    return getBoolean(column.indexIn(layout));
+  }
+
+  public Instant getInstant(Column<?> column) {
+    return getInstant(column.indexIn(layout));
+  }
+
+  RowLayout getLayout() {
+    return layout;
+  }
+
+  boolean isNull(int column) {
+    return (nulls[column >>> 6] & (1L << column)) != 0;
+  }
+
+  Object getObject(int column) {
+    if (isNull(column)) {
+      return null;
+    }
+    int slot = layout.getSlot(column);
+    switch (layout.getKind(column)) {
+      case INT:
+        return (int) longs[slot];
+      case LONG:
+        return longs[slot];
+      case BOOLEAN:
+        return longs[slot] != 0;
+      case FLOAT:
+        return (float) doubles[slot];
+      case DOUBLE:
+        return doubles[slot];
+      default:
+        return objects[slot];
+    }
+  }
+
+  long getLong(int column) {
+    Kind kind = layout.getKind(column);
+    if (kind.isLong()) {
+      return longs[layout.getSlot(column)];
+    } else if (kind.isDouble()) {
+      return (long) doubles[layout.getSlot(column)];
+    }
+    Object value = objects[layout.getSlot(column)];
+    return value == null ? 0 : asNumber(column, value).longValue();
+  }
+
+  int getInt(int column) {
+    return (int) getLong(column);
+  }
+
+  double getDouble(int column) {
+    Kind kind = layout.getKind(column);
+    if (kind.isDouble()) {
+      return doubles[layout.getSlot(column)];
+    } else if (kind.isLong()) {
+      return longs[layout.getSlot(column)];
+    }
+    Object value = objects[layout.getSlot(column)];
+    return value == null ? 0 : asNumber(column, value).doubleValue();
+  }
+
+  boolean getBoolean(int column) {
+    Kind kind = layout.getKind(column);
+    if (kind.isLong()) {
+      return longs[layout.getSlot(column)] != 0;
+    } else if (kind.isDouble()) {
+      return doubles[layout.getSlot(column)] != 0;
+    }
+    Object value = objects[layout.getSlot(column)];
+    if (value == null) {
+      return false;
+    } else if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    throw wrongType(column, value, "boolean");
+  }
+
+  Instant getInstant(int column) {
+    Object value = getObject(column);
+    if (value == null) {
+      return null;
+    } else if (value instanceof Timestamp) {
+      return ((Timestamp) value).toInstant();
+    } else if (value instanceof OffsetDateTime) {
+      return ((OffsetDateTime) value).toInstant();
+    } else if (value instanceof Instant) {
+      return (Instant) value;
+    }
+    throw wrongType(column, value, "timestamp");
+  }
+
+  private Number asNumber(int column, Object value) {
+    if (value instanceof Number) {
+      return (Number) value;
+    }
+    throw wrongType(column, value, "number");
+  }
+
+  private RuntimeException wrongType(int column, Object value, String expected) {
+    return new RuntimeException(
+        "Column \""
+            + layout.getName(column)
+            + "\" holds a "
+            + value.getClass().getName()
+            + ", not a "
+            + expected);
+  }
+
+  // An estimate of the memory used by the row, from the values it actually holds, so that long
+  // text and bytea values are counted in full.
+  long weighBytes() {
+    long bytes = 64 + 8L * (longs.length + doubles.length + nulls.length + objects.length);
+    for (Object value : objects) {
+      bytes += weigh(value);
+    }
+    return bytes;
+  }
+
+  private static long weigh(Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof String) {
+      return 40 + 2L * ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return 16 + ((byte[]) value).length;
+    } else if (value instanceof Object[]) {
+      Object[] elements = (Object[]) value;
+      long bytes = 16 + 8L * elements.length;
+      for (Object element : elements) {
+        bytes += weigh(element);
+      }
+      return bytes;
+    } else if (value.getClass().isArray()) {
+      return 16 + 8L * Array.getLength(value);
+    } else if (value instanceof Number
+        || value instanceof Boolean
+        || value instanceof Date
+        || value instanceof Temporal
+        || value instanceof UUID) {
+      return 32;
+    }
+    // Anything else, such as a json document or an array from the driver, is weighed by its text.
+    return 40 + 2L * String.valueOf(value).length();
+  }
+
+  // Setters used by Cursors to fill in the row.
+
+  void setNull(int column) {
+    nulls[column >>> 6] |= 1L << column;
+  }
+
+  void setLong(int column, long value) {
+    longs[layout.getSlot(column)] = value;
+  }
+
+  void setDouble(int column, double value) {
+    doubles[layout.getSlot(column)] = value;
+  }
+
+  void setObject(int column, Object value) {
+    if (value == null) {
+      setNull(column);
+    } else {
+      objects[layout.getSlot(column)] = value;
+    }
   }
 }
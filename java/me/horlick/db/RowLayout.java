@@ -0,0 +1,239 @@
+package me.horlick.db;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// A RowLayout describes the columns of a result: their names, and how the value of each one is
+// stored in a Row. Integer, boolean and floating point columns are kept unboxed in long and double
+// arrays, and everything else is kept as an Object. Layouts are immutable and shared by every row of
+// a result, and the layout of each statement is cached on its StatementTemplate so that it is only
+// built from the metadata the first time the statement runs.
+final class RowLayout {
+
+  // How a column is read from a ResultSet and stored in a Row. The boxed type returned by Row.get
+  // matches what the driver's getObject returns for the column.
+  enum Kind {
+    INT,
+    LONG,
+    BOOLEAN,
+    FLOAT,
+    DOUBLE,
+    OBJECT;
+
+    boolean isLong() {
+      return this == INT || this == LONG || this == BOOLEAN;
+    }
+
+    boolean isDouble() {
+      return this == FLOAT || this == DOUBLE;
+    }
+  }
+
+  private final String[] names;
+  private final Map<String, Integer> columnIndices;
+  private final Kind[] kinds;
+
+  // The index of each column within the long, double or Object storage of a Row, depending on its
+  // kind.
+  private final int[] slots;
+  private final int longCount;
+  private final int doubleCount;
+  private final int objectCount;
+
+  // A rough estimate of the heap used by one row, including the driver's copy of it.
+  private final long estimatedRowBytes;
+
+  RowLayout(String[] names, Kind[] kinds, long estimatedRowBytes) {
+    this.names = names;
+    this.estimatedRowBytes = estimatedRowBytes;
+    this.kinds = kinds;
+    this.slots = new int[kinds.length];
+
+    Map<String, Integer> indices = new HashMap<>();
+    int longs = 0;
+    int doubles = 0;
+    int objects = 0;
+    for (int i = 0; i < kinds.length; i++) {
+      indices.put(names[i], i);
+      if (kinds[i].isLong()) {
+        slots[i] = longs++;
+      } else if (kinds[i].isDouble()) {
+        slots[i] = doubles++;
+      } else {
+        slots[i] = objects++;
+      }
+    }
+    this.columnIndices = Collections.unmodifiableMap(indices);
+    this.longCount = longs;
+    this.doubleCount = doubles;
+    this.objectCount = objects;
+  }
+
+  // Build the layout of a result from its metadata.
+  static RowLayout fromMetaData(ResultSetMetaData md) throws SQLException {
+    int numColumns = md.getColumnCount();
+    String[] names = new String[numColumns];
+    Kind[] kinds = new Kind[numColumns];
+    long rowBytes = 64;
+    for (int i = 0; i < numColumns; i++) {
+      // Note here that the metadata uses 1-based indexing!
+      names[i] = md.getColumnName(i + 1);
+      kinds[i] = kindOf(md.getColumnType(i + 1), md.getColumnTypeName(i + 1));
+      rowBytes += estimateColumnBytes(md, i + 1);
+    }
+    return new RowLayout(names, kinds, rowBytes);
+  }
+
+  // Whether a result with this metadata has the same column names, and stores each column the
+  // same way, as this layout. A statement's result can change shape without changing width, for
+  // example when a column used by "SELECT *" is altered or renamed, or when a placeholder that is
+  // selected is bound to a value of another type.
+  boolean matches(ResultSetMetaData md) throws SQLException {
+    int numColumns = md.getColumnCount();
+    if (numColumns != kinds.length) {
+      return false;
+    }
+    for (int i = 0; i < numColumns; i++) {
+      int sqlType = md.getColumnType(i + 1);
+      // Only BIT columns need the type name to find their kind, and it costs a lookup.
+      String typeName = sqlType == Types.BIT ? md.getColumnTypeName(i + 1) : null;
+      if (kinds[i] != kindOf(sqlType, typeName) || !names[i].equals(md.getColumnName(i + 1))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The most recently used layouts built by ofObjects, keyed by their columns, so that rows built
+  // from the same columns share a layout, and with it the plans of any row mappers.
+  private static final int OBJECT_LAYOUT_CACHE_SIZE = 256;
+
+  private static final Map<Map<String, Integer>, RowLayout> objectLayouts =
+      new LinkedHashMap<Map<String, Integer>, RowLayout>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, Integer>, RowLayout> eldest) {
+          return size() > OBJECT_LAYOUT_CACHE_SIZE;
+        }
+      };
+
+  // A layout that stores every column as an Object.
+  static RowLayout ofObjects(Map<String, Integer> columnIndices) {
+    synchronized (objectLayouts) {
+      RowLayout layout = objectLayouts.get(columnIndices);
+      if (layout == null) {
+        layout = buildObjects(columnIndices);
+        // Copy the key, since the caller may change its map later.
+        objectLayouts.put(new HashMap<>(columnIndices), layout);
+      }
+      return layout;
+    }
+  }
+
+  private static RowLayout buildObjects(Map<String, Integer> columnIndices) {
+    String[] names = new String[columnIndices.size()];
+    for (Map.Entry<String, Integer> column : columnIndices.entrySet()) {
+      names[column.getValue()] = column.getKey();
+    }
+    Kind[] kinds = new Kind[names.length];
+    Arrays.fill(kinds, Kind.OBJECT);
+    return new RowLayout(names, kinds, 64 + 64L * names.length);
+  }
+
+  private static long estimateColumnBytes(ResultSetMetaData md, int column) throws SQLException {
+    switch (md.getColumnType(column)) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.REAL:
+      case Types.DOUBLE:
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return 48;
+      default:
+        // Variable length columns report a huge display size when they are unbounded.
+        return 64 + 2L * Math.min(md.getColumnDisplaySize(column), 256);
+    }
+  }
+
+  private static Kind kindOf(int sqlType, String typeName) {
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return Kind.INT;
+      case Types.BIGINT:
+        return Kind.LONG;
+      case Types.BOOLEAN:
+        return Kind.BOOLEAN;
+      case Types.BIT:
+        // Postgres reports bool columns as BIT, but bit(n) columns are not booleans.
+        return "bool".equals(typeName) ? Kind.BOOLEAN : Kind.OBJECT;
+      case Types.REAL:
+        return Kind.FLOAT;
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return Kind.DOUBLE;
+      default:
+        return Kind.OBJECT;
+    }
+  }
+
+  long getEstimatedRowBytes() {
+    return estimatedRowBytes;
+  }
+
+  int getColumnCount() {
+    return kinds.length;
+  }
+
+  String getName(int column) {
+    return names[column];
+  }
+
+  Kind getKind(int column) {
+    return kinds[column];
+  }
+
+  int getSlot(int column) {
+    return slots[column];
+  }
+
+  int getLongCount() {
+    return longCount;
+  }
+
+  int getDoubleCount() {
+    return doubleCount;
+  }
+
+  int getObjectCount() {
+    return objectCount;
+  }
+
+  // Find the index of a column, throwing if it doesn't exist.
+  int indexOf(String columnName) {
+    Integer index = columnIndices.get(columnName);
+    if (index == null) {
+      throw new RuntimeException(
+          "Column \""
+              + columnName
+              + "\" not found. Available columns are: "
+              + columnIndices
+                  .keySet()
+                  .stream()
+                  .map(name -> "\"" + name + "\"")
+                  .collect(Collectors.joining(", ")));
+    }
+    return index;
+  }
+}
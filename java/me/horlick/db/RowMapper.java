@@ -0,0 +1,32 @@
+package me.horlick.db;
+
+// A RowMapper converts each Row of a result into an object, for use with Cursor.map. A mapper can
+// be written by hand as a lambda, or generated for a class with RowMapper.of.
+@FunctionalInterface
+public interface RowMapper<T> {
+
+  T map(Row row);
+
+  /**
+   * A mapper that builds instances of a class from the columns of each row. Columns are matched to
+   * properties by name, ignoring case and underscores, so a "created_at" column sets a "createdAt"
+   * property. Supported classes are:
+   *
+   * <ul>
+   *   <li>Protobuf messages, which are built with their generated builder's setters. NULL columns
+   *       leave the field unset.
+   *   <li>Records, which are built with their canonical constructor.
+   *   <li>Other classes with a no-argument constructor, whose setters or non-final fields are set.
+   * </ul>
+   *
+   * <p>Timestamp columns can be mapped to Instant or protobuf Timestamp properties, and text
+   * columns to enums. Columns without a matching property are ignored.
+   *
+   * <p>The code that maps a row is generated with method handles the first time the mapper sees
+   * each shape of result, and reads each column by position with the primitive getters. Mappers are
+   * cached per class and are safe to share between threads.
+   */
+  static <T> RowMapper<T> of(Class<T> type) {
+    return GeneratedRowMapper.forClass(type);
+  }
+}
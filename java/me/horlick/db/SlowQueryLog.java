@@ -0,0 +1,298 @@
+package me.horlick.db;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A SlowQueryLog logs statements that take longer than a threshold to execute, for example:
+//
+//   SlowQueryLog log =
+//       SlowQueryLog.newBuilder()
+//           .setThreshold(Duration.ofMillis(200))
+//           .setThreshold(REPORT_QUERY, Duration.ofSeconds(5))
+//           .setMaxLogsPerSecond(5)
+//           .setExplain(true)
+//           .build();
+//
+// A statement's time is measured from the start of executeStatement until the database returns
+// the first batch of results. Statements faster than every threshold return after a single
+// comparison, without looking anything up or rendering any values. Slow statements are logged at
+// most maxLogsPerSecond times a second, and the number that were skipped is reported with the next
+// one that is logged.
+//
+// Parameter values are rendered through SqlTypeAdapter only when a statement is logged, and are
+// truncated to maxParameterLength characters, or replaced by their type if parameters are
+// redacted.
+//
+// With explain enabled, a slow statement that only reads is run again under EXPLAIN (ANALYZE,
+// BUFFERS) on another connection from the pool, in a read-only transaction that is rolled back, and
+// its plan is logged. Plans are captured one at a time on a background thread, and are skipped if
+// too many are waiting. Plans contain the literal values of parameters, so explain can't be
+// combined with redacted parameters.
+public class SlowQueryLog {
+
+  private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+  private static final SlowQueryLog DEFAULT = newBuilder().build();
+
+  // Statements that might only read. They are explained in a read-only transaction, so anything
+  // that turns out to write fails rather than changing data.
+  private static final Pattern READ =
+      Pattern.compile("^\\s*(SELECT|WITH)\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final SqlTypeAdapter literals = new SqlTypeAdapter();
+
+  private static final int MAX_PENDING_EXPLAINS = 16;
+
+  private final long thresholdNanos;
+  private final Map<StatementTemplate, Long> templateThresholdNanos;
+
+  // The smallest of all the thresholds. Anything faster is never logged.
+  private final long minThresholdNanos;
+
+  private final long logIntervalNanos;
+  private final int maxParameterLength;
+  private final boolean redactParameters;
+  private final boolean explain;
+
+  // The earliest time that the next slow statement may be logged, and the number skipped since the
+  // last one was logged.
+  private final AtomicLong nextLogNanos = new AtomicLong(Long.MIN_VALUE);
+  private final AtomicLong skipped = new AtomicLong();
+
+  // Runs EXPLAINs, created when the first one is needed.
+  private ExecutorService explainer;
+
+  private SlowQueryLog(Builder builder) {
+    this.thresholdNanos = builder.threshold.toNanos();
+    this.templateThresholdNanos = new HashMap<>(builder.templateThresholdNanos);
+    long min = thresholdNanos;
+    for (long nanos : templateThresholdNanos.values()) {
+      min = Math.min(min, nanos);
+    }
+    this.minThresholdNanos = min;
+    this.logIntervalNanos = TimeUnit.SECONDS.toNanos(1) / builder.maxLogsPerSecond;
+    this.maxParameterLength = builder.maxParameterLength;
+    this.redactParameters = builder.redactParameters;
+    this.explain = builder.explain;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * The log used when a factory isn't given one: statements slower than a second are logged, at
+   * most once a second, without EXPLAIN.
+   */
+  public static SlowQueryLog defaults() {
+    return DEFAULT;
+  }
+
+  // Called after every statement has executed.
+  //
+  // @param pool The pool to borrow a connection from to run EXPLAIN, or null if there isn't one.
+  void record(StatementTemplate template, Object[] slotValues, long nanos, ConnectionPool pool) {
+    if (!isSlow(template, nanos) || !logger.isWarnEnabled()) {
+      return;
+    }
+    if (!tryAcquireLogPermit()) {
+      skipped.incrementAndGet();
+      return;
+    }
+
+    long skippedCount = skipped.getAndSet(0);
+    logger.warn(
+        "Slow statement took "
+            + TimeUnit.NANOSECONDS.toMillis(nanos)
+            + "ms: \""
+            + template.getParameterisedSql()
+            + "\" with parameters "
+            + renderParameters(template, slotValues)
+            + (skippedCount > 0 ? " (" + skippedCount + " more not logged)" : ""));
+
+    if (explain && pool != null && READ.matcher(template.getSql()).find()) {
+      String sql;
+      try {
+        sql = template.inline(slotValues);
+      } catch (RuntimeException e) {
+        logger.debug("Can't explain a statement with these parameters", e);
+        return;
+      }
+      submitExplain(template, sql, pool);
+    }
+  }
+
+  boolean isSlow(StatementTemplate template, long nanos) {
+    if (nanos < minThresholdNanos) {
+      return false;
+    }
+    Long threshold = templateThresholdNanos.get(template);
+    return nanos >= (threshold == null ? thresholdNanos : threshold);
+  }
+
+  // A smooth rate limit: each permit pushes the time of the next one back by the log interval.
+  boolean tryAcquireLogPermit() {
+    long now = System.nanoTime();
+    long next = nextLogNanos.get();
+    return (next == Long.MIN_VALUE || now - next >= 0)
+        && nextLogNanos.compareAndSet(next, now + logIntervalNanos);
+  }
+
+  String renderParameters(StatementTemplate template, Object[] slotValues) {
+    List<Object> values = template.parameters(slotValues);
+    StringBuilder rendered = new StringBuilder("[");
+    for (int i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        rendered.append(", ");
+      }
+      rendered.append(renderValue(values.get(i)));
+    }
+    return rendered.append(']').toString();
+  }
+
+  private String renderValue(Object value) {
+    if (value == null) {
+      return "NULL";
+    } else if (redactParameters) {
+      return "<" + value.getClass().getSimpleName() + ">";
+    }
+    String literal;
+    try {
+      literal = literals.adapt(value);
+    } catch (RuntimeException e) {
+      literal = String.valueOf(value);
+    }
+    if (literal.length() > maxParameterLength) {
+      return literal.substring(0, maxParameterLength) + "...(" + literal.length() + " chars)";
+    }
+    return literal;
+  }
+
+  private synchronized void submitExplain(
+      StatementTemplate template, String sql, ConnectionPool pool) {
+    if (explainer == null) {
+      explainer =
+          new ThreadPoolExecutor(
+              1,
+              1,
+              0,
+              TimeUnit.SECONDS,
+              new ArrayBlockingQueue<>(MAX_PENDING_EXPLAINS),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat("db-slow-query-explain-%d")
+                  .build());
+    }
+    try {
+      explainer.execute(() -> explain(template, sql, pool));
+    } catch (RejectedExecutionException e) {
+      logger.debug("Too many slow statements waiting to be explained, skipping one");
+    }
+  }
+
+  private static void explain(StatementTemplate template, String sql, ConnectionPool pool) {
+    PooledConnection pooled;
+    try {
+      pooled = pool.borrow();
+    } catch (RuntimeException e) {
+      logger.warn("No connection to explain slow statement", e);
+      return;
+    }
+    try {
+      Connection connection = pooled.getConnection();
+      StringBuilder plan = new StringBuilder();
+      try (java.sql.Statement statement = connection.createStatement()) {
+        // ANALYZE runs the statement, so make sure that it can't change anything.
+        statement.execute("SET TRANSACTION READ ONLY");
+        try (ResultSet rs = statement.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+          while (rs.next()) {
+            plan.append('\n').append(rs.getString(1));
+          }
+        }
+      } finally {
+        connection.rollback();
+      }
+      logger.warn("Plan of slow statement \"" + template.getParameterisedSql() + "\":" + plan);
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Failed to explain slow statement", e);
+    } finally {
+      pool.release(pooled);
+    }
+  }
+
+  public static class Builder {
+    private Duration threshold = Duration.ofSeconds(1);
+    private final Map<StatementTemplate, Long> templateThresholdNanos = new HashMap<>();
+    private int maxLogsPerSecond = 1;
+    private int maxParameterLength = 64;
+    private boolean redactParameters = false;
+    private boolean explain = false;
+
+    private Builder() {}
+
+    /** Log statements that take longer than this. */
+    public Builder setThreshold(Duration threshold) {
+      this.threshold = threshold;
+      return this;
+    }
+
+    /** Use a different threshold for one statement, for example one that is expected to be slow. */
+    public Builder setThreshold(StatementTemplate template, Duration threshold) {
+      templateThresholdNanos.put(template, threshold.toNanos());
+      return this;
+    }
+
+    public Builder setMaxLogsPerSecond(int maxLogsPerSecond) {
+      this.maxLogsPerSecond = maxLogsPerSecond;
+      return this;
+    }
+
+    /** Truncate the logged value of each parameter to this many characters. */
+    public Builder setMaxParameterLength(int maxParameterLength) {
+      this.maxParameterLength = maxParameterLength;
+      return this;
+    }
+
+    /** Log the type of each parameter rather than its value. Can't be combined with explain. */
+    public Builder setRedactParameters(boolean redactParameters) {
+      this.redactParameters = redactParameters;
+      return this;
+    }
+
+    /**
+     * Capture the plan of slow statements that only read, with EXPLAIN (ANALYZE, BUFFERS). Plans
+     * show the values of parameters, so this can't be combined with redacted parameters.
+     */
+    public Builder setExplain(boolean explain) {
+      this.explain = explain;
+      return this;
+    }
+
+    public SlowQueryLog build() {
+      checkArgument(!threshold.isNegative(), "threshold must not be negative");
+      checkArgument(maxLogsPerSecond > 0, "maxLogsPerSecond must be positive");
+      checkArgument(maxParameterLength > 0, "maxParameterLength must be positive");
+      checkArgument(
+          !(redactParameters && explain),
+          "Parameters can't be redacted from plans, so explain can't be used with them");
+      return new SlowQueryLog(this);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package me.horlick.db;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a constant that holds SQL with named placeholders, so that SqlTemplateProcessor checks and
+// compiles it at build time. For example, given:
+//
+//   class ShapeQueries {
+//     @SqlTemplate static final String INSERT_SHAPE =
+//         "INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)";
+//   }
+//
+// a malformed placeholder or a stray question mark fails the build, and the processor generates
+// ShapeQueriesTemplates.INSERT_SHAPE, a StatementTemplate whose parameterised SQL and slots are
+// already worked out.
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface SqlTemplate {}
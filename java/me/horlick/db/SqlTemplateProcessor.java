@@ -0,0 +1,211 @@
+package me.horlick.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+// An annotation processor that compiles every @SqlTemplate constant at build time, using the same
+// tokeniser as StatementTemplate. SQL that the tokeniser rejects, such as a stray question mark or
+// a colon that isn't followed by a name, is reported as a compile error on the constant.
+//
+// For each class with @SqlTemplate constants it generates a class of the same name plus
+// "Templates", holding a StatementTemplate per constant with the parameterised SQL and slot table
+// written out as literals. Nothing is tokenised when the generated class is loaded, and its
+// templates are registered so that StatementTemplate.of with the same SQL returns them too. The
+// runtime tokeniser is then only a fallback for SQL that isn't annotated.
+//
+// This file is built separately from the rest of the library, as a java_plugin.
+@SupportedAnnotationTypes("me.horlick.db.SqlTemplate")
+public final class SqlTemplateProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Map<TypeElement, List<VariableElement>> constantsByType = new LinkedHashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(SqlTemplate.class)) {
+      VariableElement field = (VariableElement) element;
+      if (check(field)) {
+        constantsByType
+            .computeIfAbsent((TypeElement) field.getEnclosingElement(), t -> new ArrayList<>())
+            .add(field);
+      }
+    }
+    for (Map.Entry<TypeElement, List<VariableElement>> entry : constantsByType.entrySet()) {
+      generate(entry.getKey(), entry.getValue());
+    }
+    return true;
+  }
+
+  // Check that a field is a constant that the generated class can refer to, and that its SQL
+  // compiles.
+  private boolean check(VariableElement field) {
+    Set<Modifier> modifiers = field.getModifiers();
+    if (!(field.getConstantValue() instanceof String)
+        || !modifiers.contains(Modifier.STATIC)
+        || !modifiers.contains(Modifier.FINAL)) {
+      error(field, "@SqlTemplate must be on a static final String initialised with a constant");
+      return false;
+    }
+    for (Element e = field; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+      if (e.getModifiers().contains(Modifier.PRIVATE)) {
+        error(field, "@SqlTemplate constants and the classes containing them must not be private");
+        return false;
+      }
+    }
+    try {
+      StatementTemplate.compile((String) field.getConstantValue());
+      return true;
+    } catch (IllegalArgumentException e) {
+      error(field, "Invalid SQL: " + e.getMessage());
+      return false;
+    }
+  }
+
+  private void generate(TypeElement type, List<VariableElement> fields) {
+    String packageName = packageOf(type).getQualifiedName().toString();
+    String className = generatedName(type);
+    boolean isPublic = type.getModifiers().contains(Modifier.PUBLIC);
+
+    StringBuilder source = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source
+        .append("import me.horlick.db.StatementTemplate;\n\n")
+        .append("// Generated by SqlTemplateProcessor from ")
+        .append(type.getQualifiedName())
+        .append(". Do not edit.\n")
+        .append(isPublic ? "public " : "")
+        .append("final class ")
+        .append(className)
+        .append(" {\n");
+
+    for (VariableElement field : fields) {
+      StatementTemplate template = StatementTemplate.compile((String) field.getConstantValue());
+      int[] slotOffsets = new int[template.getSlotCount()];
+      for (int slot = 0; slot < slotOffsets.length; slot++) {
+        slotOffsets[slot] = template.getSlotOffset(slot);
+      }
+      int[] parameterSlots = new int[template.getParameterCount()];
+      for (int parameter = 0; parameter < parameterSlots.length; parameter++) {
+        parameterSlots[parameter] = template.getParameterSlot(parameter);
+      }
+
+      source
+          .append('\n')
+          .append(isPublic && field.getModifiers().contains(Modifier.PUBLIC) ? "  public " : "  ")
+          .append("static final StatementTemplate ")
+          .append(field.getSimpleName())
+          .append(" =\n      StatementTemplate.precompiled(\n          ")
+          .append(type.getQualifiedName())
+          .append('.')
+          .append(field.getSimpleName())
+          .append(",\n          ")
+          .append(literal(template.getParameterisedSql()))
+          .append(",\n          new String[] {");
+      for (int slot = 0; slot < template.getSlotCount(); slot++) {
+        source.append(slot > 0 ? ", " : "").append(literal(template.getSlotNames().get(slot)));
+      }
+      source
+          .append("},\n          ")
+          .append(intArray(slotOffsets))
+          .append(",\n          ")
+          .append(intArray(parameterSlots))
+          .append(");\n");
+    }
+    source.append("\n  private ").append(className).append("() {}\n}\n");
+
+    String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+      try (Writer writer = file.openWriter()) {
+        writer.write(source.toString());
+      }
+    } catch (IOException e) {
+      error(type, "Failed to write " + qualifiedName + ": " + e.getMessage());
+    }
+  }
+
+  // The simple names of a type and the types enclosing it, joined with underscores, plus
+  // "Templates".
+  static String generatedName(TypeElement type) {
+    StringBuilder name = new StringBuilder(type.getSimpleName());
+    for (Element e = type.getEnclosingElement();
+        e.getKind() != ElementKind.PACKAGE;
+        e = e.getEnclosingElement()) {
+      name.insert(0, e.getSimpleName() + "_");
+    }
+    return name.append("Templates").toString();
+  }
+
+  private static PackageElement packageOf(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  private static String intArray(int[] values) {
+    StringBuilder array = new StringBuilder("new int[] {");
+    for (int i = 0; i < values.length; i++) {
+      array.append(i > 0 ? ", " : "").append(values[i]);
+    }
+    return array.append('}').toString();
+  }
+
+  // A Java string literal for a value.
+  static String literal(String value) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          literal.append("\\\"");
+          break;
+        case '\\':
+          literal.append("\\\\");
+          break;
+        case '\n':
+          literal.append("\\n");
+          break;
+        case '\r':
+          literal.append("\\r");
+          break;
+        case '\t':
+          literal.append("\\t");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            literal.append(String.format("\\u%04x", (int) c));
+          } else {
+            literal.append(c);
+          }
+      }
+    }
+    return literal.append('"').toString();
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -6,9 +6,13 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 // An SqlTypeAdapter converts java types into their equivalent SQL types for use as variables in a query.
+// The result is an SQL literal that can be written directly into the text of a statement, for
+// commands such as COPY that can't take bind parameters. Strings are written as escape string
+// constants, E'...', with backslashes and quotes escaped, so they are read the same way whether or
+// not standard_conforming_strings is on.
 public class SqlTypeAdapter implements Adapter<Object, String> {
 
-  private final DateTimeFormatter timestampFormatter =
+  static final DateTimeFormatter TIMESTAMP_FORMAT =
       DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS").withZone(ZoneId.of("UTC"));
 
   @Override
@@ -16,24 +20,48 @@ public class SqlTypeAdapter implements Adapter<Object, String> {
     if (o == null) {
       return "NULL";
     } else if (o instanceof Instant) {
-      return timestampFormatter.format((Instant) o);
+      return timestamp((Instant) o);
     } else if (o instanceof Timestamp) {
-      return timestampFormatter.format(TimestampUtils.toInstant((Timestamp) o));
+      return timestamp(TimestampUtils.toInstant((Timestamp) o));
     } else if (o instanceof Double) {
       if (Double.isNaN((Double) o)) {
         return "NULL";
+      } else if (Double.isInfinite((Double) o)) {
+        return (Double) o > 0 ? "'Infinity'" : "'-Infinity'";
       }
       return Double.toString((Double) o);
     } else if (o instanceof String) {
-      return String.format("'%s'", (String) o);
+      return quote((String) o);
     } else if (o instanceof Long) {
       return Long.toString((Long) o);
     } else if (o instanceof Integer) {
       return Integer.toString((Integer) o);
     } else if (o instanceof Boolean) {
       return (Boolean) o ? "TRUE" : "FALSE";
+    } else if (ArrayLiteral.isArray(o)) {
+      return quote(ArrayLiteral.encode(o));
     } else {
       throw new RuntimeException("Failed to serialise \"" + o + "\" of type " + o.getClass());
     }
   }
+
+  // Timestamps are always in UTC, so the offset is explicit in case the column has a time zone.
+  private String timestamp(Instant instant) {
+    return "'" + TIMESTAMP_FORMAT.format(instant) + "+00'";
+  }
+
+  private static String quote(String s) {
+    if (s.indexOf('\u0000') >= 0) {
+      throw new RuntimeException("Strings must not contain NUL characters");
+    }
+    StringBuilder quoted = new StringBuilder(s.length() + 3).append("E'");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '\\' || c == '\'') {
+        quoted.append(c);
+      }
+      quoted.append(c);
+    }
+    return quoted.append('\'').toString();
+  }
 }
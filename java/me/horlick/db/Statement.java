@@ -1,7 +1,11 @@
 package me.horlick.db;
 
 import com.google.errorprone.annotations.CompileTimeConstant;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 // An SQL statement containing zero or more placeholders and a map of placeholder names to values that is used for the substitution. The format of a placeholder is a comma followed by alphanumeric characters or underscores, for example:
 //   SELECT * FROM shapes WHERE sides = :sides
@@ -14,6 +18,17 @@ public class Statement {
   private final String sql;
   private final Map<String, Object> variables;
 
+  // Set when the statement was built from a StatementTemplate, in which case the values are already
+  // in slot order and variables is null.
+  private final StatementTemplate template;
+  private final Object[] slotValues;
+
+  // The number of rows to fetch from the database at a time, or zero to use the client's default.
+  private final int fetchSize;
+
+  // The tables the statement reads or writes, for the ResultCache.
+  private final Set<String> tables;
+
   /**
    * An SQL statement with placeholders.
    *
@@ -23,6 +38,61 @@ public class Statement {
   public Statement(@CompileTimeConstant final String sql, Map<String, Object> variables) {
     this.sql = sql;
     this.variables = variables;
+    this.template = null;
+    this.slotValues = null;
+    this.fetchSize = 0;
+    this.tables = Collections.emptySet();
+  }
+
+  // A statement whose values have been bound by slot. See StatementTemplate.Binder.
+  Statement(StatementTemplate template, Object[] slotValues) {
+    this.sql = template.getSql();
+    this.variables = null;
+    this.template = template;
+    this.slotValues = slotValues;
+    this.fetchSize = 0;
+    this.tables = Collections.emptySet();
+  }
+
+  private Statement(Statement statement, int fetchSize, Set<String> tables) {
+    this.sql = statement.sql;
+    this.variables = statement.variables;
+    this.template = statement.template;
+    this.slotValues = statement.slotValues;
+    this.fetchSize = fetchSize;
+    this.tables = tables;
+  }
+
+  /**
+   * Copy this statement, overriding the number of rows fetched from the database at a time when
+   * reading its results. Smaller values use less memory, larger values take fewer round trips.
+   *
+   * @param fetchSize A positive number of rows.
+   */
+  public Statement withFetchSize(int fetchSize) {
+    if (fetchSize <= 0) {
+      throw new IllegalArgumentException("Fetch size must be positive");
+    }
+    return new Statement(this, fetchSize, tables);
+  }
+
+  /**
+   * Copy this statement, declaring the tables that it reads or writes. Reads that declare their
+   * tables are cached if the client has a {@link ResultCache}, and writes that declare their
+   * tables invalidate those cached reads when their transaction commits.
+   *
+   * @param tables Table names, matched without regard to case.
+   */
+  public Statement withTables(String... tables) {
+    Set<String> names = new LinkedHashSet<>();
+    for (String table : tables) {
+      names.add(normaliseTable(table));
+    }
+    return new Statement(this, fetchSize, Collections.unmodifiableSet(names));
+  }
+
+  static String normaliseTable(String table) {
+    return table.trim().toLowerCase(Locale.ROOT);
   }
 
   String getSql() {
@@ -32,4 +102,23 @@ public class Statement {
   Map<String, Object> getVariables() {
     return variables;
   }
+
+  int getFetchSize() {
+    return fetchSize;
+  }
+
+  Set<String> getTables() {
+    return tables;
+  }
+
+  // The compiled form of the SQL. Statements created from a map share a process-wide cache of
+  // templates, so the SQL is only tokenised the first time it is seen.
+  StatementTemplate getTemplate() {
+    return template != null ? template : StatementTemplate.forSql(sql);
+  }
+
+  // The values to bind, in slot order.
+  Object[] getSlotValues() {
+    return slotValues != null ? slotValues : getTemplate().resolve(variables);
+  }
 }
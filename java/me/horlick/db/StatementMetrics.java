@@ -0,0 +1,197 @@
+package me.horlick.db;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// The metrics of a single statement template, shared by every execution of it whatever values are
+// bound. Counters are striped so that concurrent executions don't contend on them.
+//
+// The latency of each execution is split into phases:
+//   parse:     looking up the template and collecting the values to bind.
+//   prepare:   taking a prepared statement from the cache, or preparing it, and binding values.
+//   execute:   sending the statement and waiting for the first batch of results.
+//   firstRow:  from the start of the execution until the caller reads the first row.
+//   drain:     from the first row until the cursor is exhausted or closed.
+public final class StatementMetrics {
+
+  private final String sql;
+
+  private final LongAdder executions = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder rowsReturned = new LongAdder();
+  private final LongAdder rowsAffected = new LongAdder();
+
+  private final LatencyHistogram parseLatency = new LatencyHistogram();
+  private final LatencyHistogram prepareLatency = new LatencyHistogram();
+  private final LatencyHistogram executeLatency = new LatencyHistogram();
+  private final LatencyHistogram firstRowLatency = new LatencyHistogram();
+  private final LatencyHistogram drainLatency = new LatencyHistogram();
+
+  StatementMetrics(String sql) {
+    this.sql = sql;
+  }
+
+  /** The SQL of the template, with its named placeholders. */
+  public String getSql() {
+    return sql;
+  }
+
+  void recordParse(long nanos) {
+    parseLatency.record(nanos);
+  }
+
+  void recordPrepare(long nanos) {
+    prepareLatency.record(nanos);
+  }
+
+  void recordExecute(long nanos) {
+    executions.increment();
+    executeLatency.record(nanos);
+  }
+
+  // A JDBC batch counts as one execution per statement in it.
+  void recordBatch(long nanos, int statements, int[] updateCounts) {
+    executions.add(statements);
+    executeLatency.record(nanos);
+    for (int count : updateCounts) {
+      recordRowsAffected(count);
+    }
+  }
+
+  void recordFirstRow(long nanos) {
+    firstRowLatency.record(nanos);
+  }
+
+  void recordDrain(long nanos, long rows) {
+    drainLatency.record(nanos);
+    rowsReturned.add(rows);
+  }
+
+  void recordRowsAffected(long rows) {
+    if (rows > 0) {
+      rowsAffected.add(rows);
+    }
+  }
+
+  void recordError() {
+    errors.increment();
+  }
+
+  /** Take a copy of the metrics for reporting. */
+  public Snapshot snapshot() {
+    return new Snapshot(
+        sql,
+        executions.sum(),
+        errors.sum(),
+        rowsReturned.sum(),
+        rowsAffected.sum(),
+        parseLatency.snapshot(),
+        prepareLatency.snapshot(),
+        executeLatency.snapshot(),
+        firstRowLatency.snapshot(),
+        drainLatency.snapshot());
+  }
+
+  // An immutable view of the metrics of a statement at a point in time.
+  public static class Snapshot {
+    private final String sql;
+    private final long executionCount;
+    private final long errorCount;
+    private final long rowsReturned;
+    private final long rowsAffected;
+    private final LatencyHistogram.Snapshot parseLatency;
+    private final LatencyHistogram.Snapshot prepareLatency;
+    private final LatencyHistogram.Snapshot executeLatency;
+    private final LatencyHistogram.Snapshot firstRowLatency;
+    private final LatencyHistogram.Snapshot drainLatency;
+
+    private Snapshot(
+        String sql,
+        long executionCount,
+        long errorCount,
+        long rowsReturned,
+        long rowsAffected,
+        LatencyHistogram.Snapshot parseLatency,
+        LatencyHistogram.Snapshot prepareLatency,
+        LatencyHistogram.Snapshot executeLatency,
+        LatencyHistogram.Snapshot firstRowLatency,
+        LatencyHistogram.Snapshot drainLatency) {
+      this.sql = sql;
+      this.executionCount = executionCount;
+      this.errorCount = errorCount;
+      this.rowsReturned = rowsReturned;
+      this.rowsAffected = rowsAffected;
+      this.parseLatency = parseLatency;
+      this.prepareLatency = prepareLatency;
+      this.executeLatency = executeLatency;
+      this.firstRowLatency = firstRowLatency;
+      this.drainLatency = drainLatency;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    /** The number of times the statement was sent to the database, alone or in a batch. */
+    public long getExecutionCount() {
+      return executionCount;
+    }
+
+    /** The number of executions, or reads of their results, that failed. */
+    public long getErrorCount() {
+      return errorCount;
+    }
+
+    /** The number of rows read from the results of the statement. */
+    public long getRowsReturned() {
+      return rowsReturned;
+    }
+
+    /** The number of rows inserted, updated or deleted by the statement, where the driver says. */
+    public long getRowsAffected() {
+      return rowsAffected;
+    }
+
+    public LatencyHistogram.Snapshot getParseLatency() {
+      return parseLatency;
+    }
+
+    public LatencyHistogram.Snapshot getPrepareLatency() {
+      return prepareLatency;
+    }
+
+    public LatencyHistogram.Snapshot getExecuteLatency() {
+      return executeLatency;
+    }
+
+    public LatencyHistogram.Snapshot getFirstRowLatency() {
+      return firstRowLatency;
+    }
+
+    public LatencyHistogram.Snapshot getDrainLatency() {
+      return drainLatency;
+    }
+
+    @Override
+    public String toString() {
+      return "StatementMetrics{"
+          + "sql='"
+          + sql
+          + '\''
+          + ", executions="
+          + executionCount
+          + ", errors="
+          + errorCount
+          + ", rowsReturned="
+          + rowsReturned
+          + ", rowsAffected="
+          + rowsAffected
+          + ", execute="
+          + executeLatency
+          + ", firstRow="
+          + firstRowLatency
+          + ", drain="
+          + drainLatency
+          + '}';
+    }
+  }
+}
@@ -3,14 +3,12 @@ package me.horlick.db;
 import static java.util.stream.Collectors.joining;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.Sets;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
-// A StatementParser takes a Statement and replaces all placeholders with the correct values.
+// A StatementParser takes a Statement and replaces all placeholders with the correct values. The
+// SQL of each Statement is only tokenised the first time it is seen, after which the compiled
+// StatementTemplate is reused.
 public class StatementParser {
 
   private enum ParseState {
@@ -18,9 +16,7 @@ public class StatementParser {
     PLACEHOLDER
   }
 
-  interface Token {
-    String get(Map<String, Object> variables, List<Object> values);
-  }
+  interface Token {}
 
   // A string of SQL.
   static class SqlText implements Token {
@@ -35,8 +31,7 @@ public class StatementParser {
       return "SqlText{" + "token='" + token + '\'' + '}';
     }
 
-    @Override
-    public String get(Map<String, Object> variables, List<Object> values) {
+    String getText() {
       return token;
     }
 
@@ -96,23 +91,13 @@ public class StatementParser {
       return result;
     }
 
-    @Override
-    public String get(Map<String, Object> variables, List<Object> values) {
-      Object value = variables.get(variableName);
-      if (value == null) {
-        throw new RuntimeException(
-            "Variable '" + variableName + "' not resolved at character " + offset);
-      }
-
-      values.add(value);
-
-      // Substitute the named placeholder with the JDBC-style question mark placeholder.
-      return "?";
-    }
-
     String getVariableName() {
       return variableName;
     }
+
+    int getOffset() {
+      return offset;
+    }
   }
 
   static class ParsedStatement {
@@ -126,7 +111,7 @@ public class StatementParser {
           + sql
           + '\''
           + ", values=["
-          + values.stream().map(Object::toString).collect(joining(","))
+          + values.stream().map(String::valueOf).collect(joining(","))
           + "]"
           + '}';
     }
@@ -173,50 +158,12 @@ public class StatementParser {
    * @return The raw SQL string to be executed on a database.
    */
   ParsedStatement parse(final Statement statement) {
-    List<Token> tokens = tokenise(statement.getSql());
-
-    String result = "";
-    List<Object> values = new ArrayList<>();
-    for (Token token : tokens) {
-      result += token.get(statement.getVariables(), values);
-    }
-
-    // Throw an exception if there are variables that have been provided, but not used.
-    checkAllVariablesAreUsed(statement, tokens);
-
-    return new ParsedStatement(result, values);
+    return parse(statement.getTemplate(), statement.getSlotValues());
   }
 
-  // Ensure all variables supplied in the Statement are used in the query.
-  private void checkAllVariablesAreUsed(Statement statement, List<Token> tokens) {
-    Set<String> usedVariables = new HashSet<>();
-    for (Token token : tokens) {
-      if (token instanceof SqlVariable) {
-        usedVariables.add(((SqlVariable) token).getVariableName());
-      }
-    }
-
-    Set<String> allVariables = statement.getVariables().keySet();
-
-    Set<String> unusedVariables = Sets.difference(allVariables, usedVariables);
-    if (!unusedVariables.isEmpty()) {
-      throw new RuntimeException("Unused variables: " + join(unusedVariables));
-    }
-  }
-
-  // Take a set of strings, comma separate them and join them.
-  private String join(Set<String> strings) {
-    String joined = "";
-    boolean first = true;
-    for (String string : strings) {
-      if (first) {
-        first = false;
-      } else {
-        joined += ", ";
-      }
-      joined += string;
-    }
-    return joined;
+  // Bind values that have already been resolved from a statement.
+  ParsedStatement parse(StatementTemplate template, Object[] slotValues) {
+    return new ParsedStatement(template.getParameterisedSql(), template.parameters(slotValues));
   }
 
   // Take an input SQL string and determine which parts are raw SQL and which parts are variable placeholders.
@@ -230,7 +177,7 @@ public class StatementParser {
     ParseState state = ParseState.TEXT;
 
     // The current token that is being parsed.
-    String token = "";
+    StringBuilder token = new StringBuilder();
 
     List<Token> tokens = new ArrayList<>();
 
@@ -238,27 +185,37 @@ public class StatementParser {
       if (state == ParseState.TEXT) {
         // We can either continue skipping parts of the SQL statement, or begin a new placeholder.
         if (input.charAt(i) == ':') {
-          if (!token.isEmpty()) {
-            tokens.add(new SqlText(token));
+          // A placeholder is a colon followed by a name, so anything else, such as a Postgres "::"
+          // cast or a colon at the end, is a mistake that would otherwise produce an odd variable
+          // or silently disappear.
+          if (i == input.length() - 1 || !isValidPlaceholderStart(input.charAt(i + 1))) {
+            throw new IllegalArgumentException(
+                "Malformed placeholder at character "
+                    + i
+                    + ": a colon must be followed by a name made of letters, digits and"
+                    + " underscores");
+          }
+          if (token.length() > 0) {
+            tokens.add(new SqlText(token.toString()));
           }
           state = ParseState.PLACEHOLDER;
-          token = "";
+          token.setLength(0);
         } else {
-          token += input.charAt(i);
+          token.append(input.charAt(i));
 
           // End of input.
           if (i == input.length() - 1) {
-            tokens.add(new SqlText(token));
+            tokens.add(new SqlText(token.toString()));
           }
         }
       } else if (state == ParseState.PLACEHOLDER) {
-        token += input.charAt(i);
+        token.append(input.charAt(i));
 
         // If we're mid way through a placeholder, then check the next character is still a valid identifier, if not, end the Placeholder and begin the next TEXT state on the following character.
         if (i >= input.length() - 1 || !isValidPlaceholderName(input.charAt(i + 1))) {
-          tokens.add(new SqlVariable(token, i - token.length()));
+          tokens.add(new SqlVariable(token.toString(), i - token.length()));
           state = ParseState.TEXT;
-          token = "";
+          token.setLength(0);
         }
       }
     }
@@ -266,6 +223,10 @@ public class StatementParser {
     return tokens;
   }
 
+  private boolean isValidPlaceholderStart(char c) {
+    return Character.isAlphabetic(c) || (c == '_');
+  }
+
   private boolean isValidPlaceholderName(char c) {
     return Character.isAlphabetic(c) || Character.isDigit(c) || (c == '_');
   }
@@ -0,0 +1,418 @@
+package me.horlick.db;
+
+import com.google.errorprone.annotations.CompileTimeConstant;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import me.horlick.db.StatementParser.SqlText;
+import me.horlick.db.StatementParser.SqlVariable;
+import me.horlick.db.StatementParser.Token;
+
+// A StatementTemplate is the compiled form of an SQL statement containing named placeholders. The
+// SQL is tokenised once, rewritten to use JDBC-style question marks, and each distinct placeholder
+// is assigned a slot. Values are then bound by slot index rather than by looking up a map, for
+// example:
+//
+//   static final StatementTemplate INSERT_SHAPE =
+//       StatementTemplate.of("INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)");
+//
+//   client.executeStatement(INSERT_SHAPE.bind().set("sides", 3).set("regular", true).build());
+//
+// Templates are immutable and safe to share between threads.
+public final class StatementTemplate {
+
+  // Every template that has been compiled in this process, keyed by the original SQL. SQL must be
+  // compile-time constant, so the number of entries is bounded by the number of statements in the
+  // program.
+  private static final ConcurrentMap<String, StatementTemplate> templates =
+      new ConcurrentHashMap<>();
+
+  // Statements that can never return rows: INSERT, UPDATE and DELETE without a RETURNING clause.
+  // Anything else, including a write inside a WITH query, is conservatively assumed to return rows.
+  private static final Pattern WRITE =
+      Pattern.compile("^\\s*(INSERT|UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern RETURNING =
+      Pattern.compile("\\bRETURNING\\b", Pattern.CASE_INSENSITIVE);
+
+  // Statements that only read: queries that don't contain a write or take row locks. Anything that
+  // might do either is treated as a write by the ResultCache.
+  private static final Pattern READ =
+      Pattern.compile("^\\s*(SELECT|WITH|VALUES|TABLE)\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern WRITE_OR_LOCK =
+      Pattern.compile(
+          "\\b(INSERT|UPDATE|DELETE|MERGE|FOR\\s+(KEY\\s+)?SHARE)\\b", Pattern.CASE_INSENSITIVE);
+
+  private static final SqlTypeAdapter literals = new SqlTypeAdapter();
+
+  private final String sql;
+  private final String parameterisedSql;
+  private final boolean write;
+  private final boolean readOnly;
+
+  // The name of each slot, in order of first appearance in the SQL.
+  private final List<String> slotNames;
+  private final Map<String, Integer> slotIndices;
+
+  // The character offset of the first use of each slot, used for error messages.
+  private final int[] slotOffsets;
+
+  // For each JDBC parameter (question mark), the slot that supplies its value. A placeholder that
+  // is used more than once maps several parameters onto the same slot.
+  private final int[] parameterSlots;
+
+  // The binder used for the last value of each JDBC parameter, which is almost always right for the
+  // next value too. Entries are immutable, so threads that race to replace one can't corrupt it.
+  private final CachedBinder[] binders;
+
+  // The layout of the rows returned the last time this statement ran, or null if it hasn't run or
+  // doesn't return rows.
+  private volatile RowLayout layout;
+
+  private StatementTemplate(
+      String sql,
+      String parameterisedSql,
+      List<String> slotNames,
+      int[] slotOffsets,
+      int[] parameterSlots) {
+    this.sql = sql;
+    this.parameterisedSql = parameterisedSql;
+    this.slotNames = Collections.unmodifiableList(slotNames);
+    this.slotOffsets = slotOffsets;
+    this.parameterSlots = parameterSlots;
+    this.binders = new CachedBinder[parameterSlots.length];
+    this.write = WRITE.matcher(sql).find() && !RETURNING.matcher(sql).find();
+    this.readOnly = READ.matcher(sql).find() && !WRITE_OR_LOCK.matcher(sql).find();
+
+    Map<String, Integer> indices = new HashMap<>();
+    for (int i = 0; i < slotNames.size(); i++) {
+      indices.put(slotNames.get(i), i);
+    }
+    this.slotIndices = indices;
+  }
+
+  /**
+   * Get the compiled template for an SQL statement, compiling it on first use.
+   *
+   * @param sql A compile-time constant that holds an SQL statement and zero or more placeholders.
+   */
+  public static StatementTemplate of(@CompileTimeConstant final String sql) {
+    return forSql(sql);
+  }
+
+  /**
+   * Register a template that was compiled at build time by the {@link SqlTemplate} annotation
+   * processor, so that it is never tokenised at runtime. Generated code calls this, and it isn't
+   * meant to be called by hand.
+   *
+   * @param sql The original SQL, including named placeholders.
+   * @param parameterisedSql The SQL with each placeholder replaced by a question mark.
+   * @param slotNames The name of each distinct placeholder, in order of first appearance.
+   * @param slotOffsets The character offset of the first use of each placeholder.
+   * @param parameterSlots The slot that supplies each question mark, in order.
+   * @return The template, or the one already registered for the same SQL.
+   */
+  public static StatementTemplate precompiled(
+      @CompileTimeConstant final String sql,
+      @CompileTimeConstant final String parameterisedSql,
+      String[] slotNames,
+      int[] slotOffsets,
+      int[] parameterSlots) {
+    StatementTemplate template = templates.get(sql);
+    if (template != null) {
+      return template;
+    }
+    if (slotOffsets.length != slotNames.length) {
+      throw new IllegalArgumentException("Every slot must have an offset");
+    }
+    for (int slot : parameterSlots) {
+      if (slot < 0 || slot >= slotNames.length) {
+        throw new IllegalArgumentException("Parameter slot " + slot + " out of range");
+      }
+    }
+    template =
+        new StatementTemplate(
+            sql,
+            parameterisedSql,
+            new ArrayList<>(Arrays.asList(slotNames)),
+            slotOffsets.clone(),
+            parameterSlots.clone());
+    StatementTemplate existing = templates.putIfAbsent(sql, template);
+    return existing != null ? existing : template;
+  }
+
+  // Look up the template for some SQL that is already known to be compile-time constant, for
+  // example because it came from a Statement.
+  static StatementTemplate forSql(String sql) {
+    StatementTemplate template = templates.get(sql);
+    if (template == null) {
+      template = templates.computeIfAbsent(sql, StatementTemplate::compile);
+    }
+    return template;
+  }
+
+  // Tokenise the SQL and build the slot table.
+  static StatementTemplate compile(String sql) {
+    List<Token> tokens = new StatementParser().tokenise(sql);
+
+    StringBuilder parameterisedSql = new StringBuilder(sql.length());
+    List<String> slotNames = new ArrayList<>();
+    Map<String, Integer> slotIndices = new HashMap<>();
+    List<Integer> slotOffsets = new ArrayList<>();
+    List<Integer> parameterSlots = new ArrayList<>();
+
+    for (Token token : tokens) {
+      if (token instanceof SqlVariable) {
+        SqlVariable variable = (SqlVariable) token;
+        Integer slot = slotIndices.get(variable.getVariableName());
+        if (slot == null) {
+          slot = slotNames.size();
+          slotNames.add(variable.getVariableName());
+          slotIndices.put(variable.getVariableName(), slot);
+          slotOffsets.add(variable.getOffset());
+        }
+        parameterSlots.add(slot);
+        parameterisedSql.append('?');
+      } else {
+        parameterisedSql.append(((SqlText) token).getText());
+      }
+    }
+
+    return new StatementTemplate(
+        sql,
+        parameterisedSql.toString(),
+        slotNames,
+        toArray(slotOffsets),
+        toArray(parameterSlots));
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  // Whether the statement is a write that never returns rows, so it can be sent in a batch.
+  boolean isWrite() {
+    return write;
+  }
+
+  // Whether the statement only reads, so that its results can be cached.
+  boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /** The original SQL, including named placeholders. */
+  public String getSql() {
+    return sql;
+  }
+
+  /** The SQL with each named placeholder replaced by a JDBC-style question mark. */
+  public String getParameterisedSql() {
+    return parameterisedSql;
+  }
+
+  /** The number of distinct placeholders in the statement. */
+  public int getSlotCount() {
+    return slotNames.size();
+  }
+
+  /** The names of the placeholders, indexed by slot. */
+  public List<String> getSlotNames() {
+    return slotNames;
+  }
+
+  /**
+   * Find the slot that holds the value of a placeholder.
+   *
+   * @param name The name of the placeholder, without the leading colon.
+   * @return The slot index.
+   */
+  public int slotOf(String name) {
+    Integer slot = slotIndices.get(name);
+    if (slot == null) {
+      throw new IllegalArgumentException(
+          "Placeholder \"" + name + "\" not found in \"" + sql + "\"");
+    }
+    return slot;
+  }
+
+  /** Start binding values to the placeholders of this template. */
+  public Binder bind() {
+    return new Binder(this);
+  }
+
+  // The number of JDBC parameters in the parameterised SQL.
+  int getParameterCount() {
+    return parameterSlots.length;
+  }
+
+  // The character offset of the first use of a slot.
+  int getSlotOffset(int slot) {
+    return slotOffsets[slot];
+  }
+
+  // The slot that supplies the value of a JDBC parameter. Parameters are indexed from zero.
+  int getParameterSlot(int parameter) {
+    return parameterSlots[parameter];
+  }
+
+  // Set every JDBC parameter of a prepared statement from slot values.
+  void setParameters(PreparedStatement statement, Object[] slotValues) throws SQLException {
+    for (int i = 0; i < parameterSlots.length; i++) {
+      Object value = slotValues[parameterSlots[i]];
+      if (value == null) {
+        statement.setNull(i + 1, Types.NULL);
+        continue;
+      }
+      CachedBinder cached = binders[i];
+      if (cached == null || cached.type != value.getClass()) {
+        cached = new CachedBinder(value.getClass());
+        binders[i] = cached;
+      }
+      cached.binder.bind(statement, i + 1, value);
+    }
+  }
+
+  // The SQL with each placeholder replaced by the SQL literal of its value, for commands such as
+  // COPY and EXPLAIN that can't take bind parameters. The tokeniser rejects question marks in the
+  // original SQL, so every one in the parameterised SQL is a parameter.
+  String inline(Object[] slotValues) {
+    StringBuilder inlined =
+        new StringBuilder(parameterisedSql.length() + 16 * parameterSlots.length);
+    int parameter = 0;
+    for (int i = 0; i < parameterisedSql.length(); i++) {
+      char c = parameterisedSql.charAt(i);
+      if (c == '?') {
+        inlined.append(literals.adapt(slotValues[parameterSlots[parameter++]]));
+      } else {
+        inlined.append(c);
+      }
+    }
+    return inlined.toString();
+  }
+
+  RowLayout getLayout() {
+    return layout;
+  }
+
+  void setLayout(RowLayout layout) {
+    this.layout = layout;
+  }
+
+  // Resolve a map of variables into slot order, checking that every placeholder has a value and
+  // every variable is used.
+  Object[] resolve(Map<String, Object> variables) {
+    Object[] values = new Object[slotNames.size()];
+    for (int slot = 0; slot < values.length; slot++) {
+      Object value = variables.get(slotNames.get(slot));
+      if (value == null) {
+        throw new RuntimeException(
+            "Variable '"
+                + slotNames.get(slot)
+                + "' not resolved at character "
+                + slotOffsets[slot]);
+      }
+      values[slot] = value;
+    }
+
+    // Throw an exception if there are variables that have been provided, but not used.
+    if (variables.size() != values.length) {
+      Set<String> unused = new TreeSet<>(variables.keySet());
+      unused.removeAll(slotNames);
+      throw new RuntimeException("Unused variables: " + String.join(", ", unused));
+    }
+
+    return values;
+  }
+
+  // Expand slot values into one value per JDBC parameter.
+  List<Object> parameters(Object[] slotValues) {
+    Object[] parameters = new Object[parameterSlots.length];
+    for (int i = 0; i < parameters.length; i++) {
+      parameters[i] = slotValues[parameterSlots[i]];
+    }
+    return Arrays.asList(parameters);
+  }
+
+  @Override
+  public String toString() {
+    return "StatementTemplate{" + "sql='" + sql + '\'' + ", slots=" + slotNames + '}';
+  }
+
+  private static final class CachedBinder {
+    private final Class<?> type;
+    private final ParameterBinder<Object> binder;
+
+    CachedBinder(Class<?> type) {
+      this.type = type;
+      this.binder = ParameterBinders.forClass(type);
+    }
+  }
+
+  // A Binder collects the values for each slot of a template and produces a Statement. Binders are
+  // cheap to create and are not thread-safe.
+  public static final class Binder {
+    private final StatementTemplate template;
+    private final Object[] values;
+    private final boolean[] bound;
+
+    private Binder(StatementTemplate template) {
+      this.template = template;
+      this.values = new Object[template.getSlotCount()];
+      this.bound = new boolean[values.length];
+    }
+
+    /**
+     * Bind a value to a slot.
+     *
+     * @param slot The slot index, as returned by {@link StatementTemplate#slotOf(String)}.
+     * @param value The value to bind. Null binds an SQL NULL.
+     */
+    public Binder set(int slot, Object value) {
+      if (slot < 0 || slot >= values.length) {
+        throw new IndexOutOfBoundsException(
+            "Slot " + slot + " out of range for " + values.length + " placeholders");
+      }
+      values[slot] = value;
+      bound[slot] = true;
+      return this;
+    }
+
+    /**
+     * Bind a value to a placeholder by name.
+     *
+     * @param name The name of the placeholder, without the leading colon.
+     * @param value The value to bind. Null binds an SQL NULL.
+     */
+    public Binder set(String name, Object value) {
+      return set(template.slotOf(name), value);
+    }
+
+    /** Build a Statement from the bound values. Every placeholder must have been bound. */
+    public Statement build() {
+      for (int slot = 0; slot < bound.length; slot++) {
+        if (!bound[slot]) {
+          throw new RuntimeException(
+              "Variable '"
+                  + template.slotNames.get(slot)
+                  + "' not resolved at character "
+                  + template.slotOffsets[slot]);
+        }
+      }
+      return new Statement(template, values.clone());
+    }
+  }
+}
@@ -6,7 +6,7 @@ import java.time.Instant;
 
 public class TimestampUtils {
 
-  private static Timestamp fromInstant(Instant instant) {
+  static Timestamp fromInstant(Instant instant) {
     return Timestamp.newBuilder()
         .setSeconds(instant.getEpochSecond())
         .setNanos(instant.getNano())
@@ -0,0 +1,152 @@
+package me.horlick.db;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.time.Duration;
+
+// How DatabaseClient.runInTransaction runs a transaction and retries it when it fails with a
+// serialization failure or deadlock. Instances are created with a Builder, for example:
+//
+//   TransactionOptions options =
+//       TransactionOptions.newBuilder()
+//           .setIsolationLevel(IsolationLevel.SERIALIZABLE)
+//           .setMaxAttempts(5)
+//           .build();
+//
+// Between attempts the runner sleeps for a random time between zero and a backoff that doubles
+// after each attempt, up to the maximum backoff. Randomising the whole backoff stops transactions
+// that conflicted once from conflicting again in lockstep. No attempt is started after the retry
+// budget has passed since the first one, so callers have a bound on how long contention can delay
+// them.
+public class TransactionOptions {
+
+  private final IsolationLevel isolationLevel;
+  private final boolean readOnly;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final Duration retryBudget;
+
+  private TransactionOptions(Builder builder) {
+    this.isolationLevel = builder.isolationLevel;
+    this.readOnly = builder.readOnly;
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoff = builder.initialBackoff;
+    this.maxBackoff = builder.maxBackoff;
+    this.retryBudget = builder.retryBudget;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static TransactionOptions defaults() {
+    return newBuilder().build();
+  }
+
+  /** The default options at another isolation level. */
+  public static TransactionOptions of(IsolationLevel isolationLevel) {
+    return newBuilder().setIsolationLevel(isolationLevel).build();
+  }
+
+  /** The isolation level of the transaction. */
+  public IsolationLevel getIsolationLevel() {
+    return isolationLevel;
+  }
+
+  /** Whether the transaction is declared read-only, so that the database rejects writes. */
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /** The maximum number of times the work is run, including the first. */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /** The upper bound of the random sleep before the first retry. */
+  public Duration getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  /** The largest upper bound of the random sleep between attempts. */
+  public Duration getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  /** How long after the first attempt started a retry may still be started. */
+  public Duration getRetryBudget() {
+    return retryBudget;
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionOptions{"
+        + "isolationLevel="
+        + isolationLevel
+        + ", readOnly="
+        + readOnly
+        + ", maxAttempts="
+        + maxAttempts
+        + ", initialBackoff="
+        + initialBackoff
+        + ", maxBackoff="
+        + maxBackoff
+        + ", retryBudget="
+        + retryBudget
+        + '}';
+  }
+
+  public static class Builder {
+    private IsolationLevel isolationLevel = IsolationLevel.READ_COMMITTED;
+    private boolean readOnly = false;
+    private int maxAttempts = 10;
+    private Duration initialBackoff = Duration.ofMillis(5);
+    private Duration maxBackoff = Duration.ofMillis(500);
+    private Duration retryBudget = Duration.ofSeconds(10);
+
+    private Builder() {}
+
+    public Builder setIsolationLevel(IsolationLevel isolationLevel) {
+      this.isolationLevel = isolationLevel;
+      return this;
+    }
+
+    public Builder setReadOnly(boolean readOnly) {
+      this.readOnly = readOnly;
+      return this;
+    }
+
+    /** Set the maximum number of attempts. One disables retries. */
+    public Builder setMaxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    public Builder setInitialBackoff(Duration initialBackoff) {
+      this.initialBackoff = initialBackoff;
+      return this;
+    }
+
+    public Builder setMaxBackoff(Duration maxBackoff) {
+      this.maxBackoff = maxBackoff;
+      return this;
+    }
+
+    public Builder setRetryBudget(Duration retryBudget) {
+      this.retryBudget = retryBudget;
+      return this;
+    }
+
+    public TransactionOptions build() {
+      checkArgument(isolationLevel != null, "isolationLevel must be set");
+      checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+      checkArgument(!initialBackoff.isNegative(), "initialBackoff must not be negative");
+      checkArgument(
+          maxBackoff.compareTo(initialBackoff) >= 0,
+          "maxBackoff must not be less than initialBackoff");
+      checkArgument(!retryBudget.isNegative(), "retryBudget must not be negative");
+      return new TransactionOptions(this);
+    }
+  }
+}
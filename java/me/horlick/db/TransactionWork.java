@@ -0,0 +1,9 @@
+package me.horlick.db;
+
+// A unit of work to run inside a DatabaseTransaction. The transaction is committed if the work
+// returns normally, and rolled back if it throws.
+@FunctionalInterface
+public interface TransactionWork<T> {
+
+  T run(DatabaseTransaction transaction) throws Exception;
+}
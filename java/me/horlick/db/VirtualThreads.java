@@ -0,0 +1,24 @@
+package me.horlick.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// VirtualThreads creates executors that run each task on its own virtual thread when the JVM
+// supports them (Java 21 and later), so that tasks blocked on database I/O don't tie up platform
+// threads. On older JVMs it falls back to a cached pool of daemon platform threads. Virtual threads
+// are looked up reflectively so the library still builds and runs on Java 8.
+final class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  static ExecutorService newExecutor(String nameFormat) {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package me.horlick.db.loadtest;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import me.horlick.db.LatencyHistogram;
+
+// Renders the results of a load test as JSON, so that runs can be compared by a script. A report
+// is built from nested maps, lists, strings, numbers and booleans, and fields keep the order they
+// were added in.
+final class LoadReport {
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private LoadReport() {}
+
+  // The summary of a histogram, in microseconds.
+  static Map<String, Object> latency(LatencyHistogram.Snapshot snapshot) {
+    Map<String, Object> latency = new LinkedHashMap<>();
+    latency.put("count", snapshot.getCount());
+    latency.put("mean_us", micros((long) snapshot.getMeanNanos()));
+    for (double percentile : PERCENTILES) {
+      String name = percentile == (long) percentile ? "p" + (long) percentile : "p999";
+      latency.put(name + "_us", micros(snapshot.getPercentileNanos(percentile)));
+    }
+    latency.put("max_us", micros(snapshot.getMaxNanos()));
+    return latency;
+  }
+
+  private static double micros(long nanos) {
+    return Math.round(nanos / 100.0) / 10.0;
+  }
+
+  static String toJson(Object value) {
+    StringBuilder json = new StringBuilder();
+    write(json, value, "");
+    return json.append('\n').toString();
+  }
+
+  private static void write(StringBuilder json, Object value, String indent) {
+    if (value == null) {
+      json.append("null");
+    } else if (value instanceof Map) {
+      Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+      if (!entries.hasNext()) {
+        json.append("{}");
+        return;
+      }
+      String inner = indent + "  ";
+      json.append("{\n");
+      while (entries.hasNext()) {
+        Map.Entry<?, ?> entry = entries.next();
+        json.append(inner);
+        writeString(json, String.valueOf(entry.getKey()));
+        json.append(": ");
+        write(json, entry.getValue(), inner);
+        json.append(entries.hasNext() ? ",\n" : "\n");
+      }
+      json.append(indent).append('}');
+    } else if (value instanceof Collection) {
+      json.append('[');
+      String separator = "";
+      for (Object element : (Collection<?>) value) {
+        json.append(separator);
+        write(json, element, indent);
+        separator = ", ";
+      }
+      json.append(']');
+    } else if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      json.append(Double.isFinite(number) ? String.valueOf(number) : "null");
+    } else if (value instanceof Number || value instanceof Boolean) {
+      json.append(value);
+    } else {
+      writeString(json, value.toString());
+    }
+  }
+
+  private static void writeString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    json.append('"');
+  }
+}
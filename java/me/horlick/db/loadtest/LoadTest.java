@@ -0,0 +1,374 @@
+package me.horlick.db.loadtest;
+
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.LongStream;
+import me.horlick.db.BulkLoader;
+import me.horlick.db.ConnectionPoolConfig;
+import me.horlick.db.DatabaseClient;
+import me.horlick.db.DatabaseClientFactory;
+import me.horlick.db.DatabaseTransaction;
+import me.horlick.db.LatencyHistogram;
+import me.horlick.db.MetricsRegistry;
+import me.horlick.db.MetricsSnapshot;
+import me.horlick.db.PoolStats;
+import me.horlick.db.StatementMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// LoadTest drives a database with many concurrent workers doing a mix of reads, writes and
+// transactions through DatabaseClientFactory, and prints a JSON report of the throughput and
+// latency of each kind of operation. For example:
+//
+//   bazel run //java/me/horlick/db/loadtest -- \
+//       --postgres_bin=/usr/lib/postgresql/9.6/bin --workers=64 --rate=5000 --duration=60s
+//
+// starts a throwaway Postgres server, and --host=localhost:5432 uses an existing one instead.
+//
+// Operations are issued at a fixed rate: each worker has a schedule of when its operations should
+// start, and latency is measured from that scheduled time rather than from when the worker got
+// round to it. A stall therefore counts against every operation that should have started during
+// it, not just the one that was running, which corrects for coordinated omission. The time spent
+// in the operation alone is reported separately as service time.
+public final class LoadTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoadTest.class);
+
+  private static final String USAGE =
+      "Flags:\n"
+          + "  --host=HOST:PORT        An existing database to test (default localhost:5432)\n"
+          + "  --postgres_bin=DIR      Start a throwaway server with the initdb and pg_ctl in DIR\n"
+          + "  --user=USER             (default postgres)\n"
+          + "  --password=PASSWORD\n"
+          + "  --workers=N             Concurrent workers (default 16)\n"
+          + "  --pool_size=N           Maximum connections (default the number of workers)\n"
+          + "  --rate=N                Operations started per second, across all workers"
+          + " (default 1000)\n"
+          + "  --mix=WEIGHTS           (default read=70,write=20,transaction=10)\n"
+          + "  --accounts=N            Rows in the test table (default 10000)\n"
+          + "  --warmup=DURATION       Run before measuring, e.g. 10s (default 10s)\n"
+          + "  --duration=DURATION     Measure for this long, e.g. 2m (default 60s)\n"
+          + "  --output=FILE           Write the report here rather than to standard output\n";
+
+  private final Options options;
+
+  // Latency measured from when each operation was scheduled to start, and from when it did start.
+  private final Map<Operation, LatencyHistogram> latency = new EnumMap<>(Operation.class);
+  private final Map<Operation, LatencyHistogram> serviceTime = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+  private LoadTest(Options options) {
+    this.options = options;
+    for (Operation operation : Operation.values()) {
+      latency.put(operation, new LatencyHistogram());
+      serviceTime.put(operation, new LatencyHistogram());
+      errors.put(operation, new LongAdder());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage() + "\n\n" + USAGE);
+      System.exit(2);
+      return;
+    }
+
+    String report;
+    if (options.postgresBin != null) {
+      try (LocalPostgres postgres =
+          LocalPostgres.start(options.postgresBin, options.poolSize + 10)) {
+        report = new LoadTest(options).run(postgres.getHostAndPort());
+      }
+    } else {
+      report = new LoadTest(options).run(options.host);
+    }
+
+    if (options.output == null) {
+      System.out.print(report);
+    } else {
+      try (OutputStream out = new FileOutputStream(options.output)) {
+        out.write(report.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  private String run(HostAndPort hostAndPort) throws Exception {
+    DatabaseClientFactory.Builder builder =
+        DatabaseClientFactory.newBuilder(hostAndPort)
+            .setUser(options.user)
+            .setMetricsRegistry(new MetricsRegistry())
+            .setPoolConfig(
+                ConnectionPoolConfig.newBuilder()
+                    .setMinSize(options.poolSize)
+                    .setMaxSize(options.poolSize)
+                    .build());
+    if (options.password != null) {
+      builder.setPassword(options.password);
+    }
+
+    try (DatabaseClientFactory factory = builder.build()) {
+      createAccounts(factory);
+
+      long start = System.nanoTime();
+      long measureFrom = start + options.warmup.toNanos();
+      long end = measureFrom + options.duration.toNanos();
+      logger.info("Running " + options.workers + " workers at " + options.rate + " operations/s");
+
+      ExecutorService executor =
+          Executors.newFixedThreadPool(
+              options.workers,
+              new ThreadFactoryBuilder().setDaemon(true).setNameFormat("load-test-%d").build());
+      try {
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < options.workers; i++) {
+          int worker = i;
+          workers.add(executor.submit(() -> work(factory, worker, start, measureFrom, end)));
+        }
+        for (Future<?> worker : workers) {
+          worker.get();
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      double seconds = (System.nanoTime() - measureFrom) / 1e9;
+
+      return LoadReport.toJson(
+          report(seconds, factory.getPoolStats(), factory.getMetrics().snapshot()));
+    }
+  }
+
+  private void createAccounts(DatabaseClientFactory factory) throws Exception {
+    try (DatabaseClient client = factory.create()) {
+      DatabaseTransaction tx = client.begin();
+      tx.execute(Operation.CREATE_TABLE.bind().build());
+      tx.execute(Operation.TRUNCATE_TABLE.bind().build());
+      try (BulkLoader loader =
+          client.newBulkLoader("load_test_accounts", "id", "balance", "name")) {
+        loader.load(
+            LongStream.range(0, options.accounts).boxed(),
+            id -> new Object[] {id, 1000L, "account " + id});
+      }
+      tx.commit();
+    }
+  }
+
+  private void work(
+      DatabaseClientFactory factory, int worker, long start, long measureFrom, long end) {
+    Random random = new Random(worker);
+    long interval = (long) (options.workers * 1e9 / options.rate);
+
+    // Stagger the workers so that they don't all start an operation at the same moment.
+    long scheduled = start + interval * worker / options.workers;
+    for (; scheduled < end; scheduled += interval) {
+      long wait;
+      while ((wait = scheduled - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      Operation operation = options.mix.choose(random);
+      long started = System.nanoTime();
+      try {
+        operation.run(factory, random, options.accounts);
+      } catch (Exception e) {
+        if (scheduled >= measureFrom) {
+          errors.get(operation).increment();
+        }
+        logger.debug("Operation " + operation + " failed", e);
+      }
+      long finished = System.nanoTime();
+      if (scheduled >= measureFrom) {
+        latency.get(operation).record(finished - scheduled);
+        serviceTime.get(operation).record(finished - started);
+      }
+    }
+  }
+
+  private Map<String, Object> report(double seconds, PoolStats pool, MetricsSnapshot metrics) {
+    Map<String, Object> operations = new LinkedHashMap<>();
+    LatencyHistogram.Snapshot allLatency = null;
+    LatencyHistogram.Snapshot allServiceTime = null;
+    long allErrors = 0;
+    for (Operation operation : options.mix.getWeights().keySet()) {
+      LatencyHistogram.Snapshot operationLatency = latency.get(operation).snapshot();
+      LatencyHistogram.Snapshot operationServiceTime = serviceTime.get(operation).snapshot();
+      long operationErrors = errors.get(operation).sum();
+      operations.put(
+          name(operation),
+          summary(seconds, operationLatency, operationServiceTime, operationErrors));
+      allLatency = allLatency == null ? operationLatency : allLatency.merge(operationLatency);
+      allServiceTime =
+          allServiceTime == null
+              ? operationServiceTime
+              : allServiceTime.merge(operationServiceTime);
+      allErrors += operationErrors;
+    }
+
+    Map<String, Object> poolReport = new LinkedHashMap<>();
+    poolReport.put("total", pool.getTotalCount());
+    poolReport.put("acquire", LoadReport.latency(pool.getAcquireLatency()));
+
+    // The library's own metrics cover the whole run, including setup and warmup.
+    Map<String, Object> statements = new LinkedHashMap<>();
+    for (StatementMetrics.Snapshot statement : metrics.getStatements().values()) {
+      Map<String, Object> statementReport = new LinkedHashMap<>();
+      statementReport.put("executions", statement.getExecutionCount());
+      statementReport.put("errors", statement.getErrorCount());
+      statementReport.put("execute", LoadReport.latency(statement.getExecuteLatency()));
+      statements.put(statement.getSql(), statementReport);
+    }
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("options", options.toMap());
+    report.put("elapsed_s", seconds);
+    report.put("total", summary(seconds, allLatency, allServiceTime, allErrors));
+    report.put("operations", operations);
+    report.put("pool", poolReport);
+    report.put("commit", LoadReport.latency(metrics.getCommitLatency()));
+    report.put("statements", statements);
+    return report;
+  }
+
+  private static Map<String, Object> summary(
+      double seconds,
+      LatencyHistogram.Snapshot latency,
+      LatencyHistogram.Snapshot serviceTime,
+      long errors) {
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("operations", latency.getCount());
+    summary.put("errors", errors);
+    summary.put("throughput_per_s", Math.round(latency.getCount() / seconds * 10) / 10.0);
+    summary.put("latency", LoadReport.latency(latency));
+    summary.put("service_time", LoadReport.latency(serviceTime));
+    return summary;
+  }
+
+  static final class Options {
+    HostAndPort host = HostAndPort.fromParts("localhost", 5432);
+    File postgresBin;
+    String user = "postgres";
+    String password;
+    int workers = 16;
+    int poolSize;
+    double rate = 1000;
+    OperationMix mix = OperationMix.parse("read=70,write=20,transaction=10");
+    int accounts = 10000;
+    Duration warmup = Duration.ofSeconds(10);
+    Duration duration = Duration.ofSeconds(60);
+    File output;
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      boolean poolSizeSet = false;
+      for (String arg : args) {
+        if (!arg.startsWith("--") || !arg.contains("=")) {
+          throw new IllegalArgumentException("Expected --name=value but got \"" + arg + "\"");
+        }
+        String name = arg.substring(2, arg.indexOf('='));
+        String value = arg.substring(arg.indexOf('=') + 1);
+        switch (name) {
+          case "host":
+            options.host = HostAndPort.fromString(value).withDefaultPort(5432);
+            break;
+          case "postgres_bin":
+            options.postgresBin = new File(value);
+            break;
+          case "user":
+            options.user = value;
+            break;
+          case "password":
+            options.password = value;
+            break;
+          case "workers":
+            options.workers = Integer.parseInt(value);
+            break;
+          case "pool_size":
+            options.poolSize = Integer.parseInt(value);
+            poolSizeSet = true;
+            break;
+          case "rate":
+            options.rate = Double.parseDouble(value);
+            break;
+          case "mix":
+            options.mix = OperationMix.parse(value);
+            break;
+          case "accounts":
+            options.accounts = Integer.parseInt(value);
+            break;
+          case "warmup":
+            options.warmup = parseDuration(value);
+            break;
+          case "duration":
+            options.duration = parseDuration(value);
+            break;
+          case "output":
+            options.output = new File(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown flag --" + name);
+        }
+      }
+      if (!poolSizeSet) {
+        options.poolSize = options.workers;
+      }
+      if (options.workers <= 0 || options.poolSize <= 0 || options.accounts <= 0) {
+        throw new IllegalArgumentException("workers, pool_size and accounts must be positive");
+      }
+      if (!(options.rate > 0)) {
+        throw new IllegalArgumentException("rate must be positive");
+      }
+      return options;
+    }
+
+    // Parses durations like "500ms", "30s" and "2m".
+    static Duration parseDuration(String value) {
+      try {
+        if (value.endsWith("ms")) {
+          return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+        } else if (value.endsWith("s")) {
+          return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+        } else if (value.endsWith("m")) {
+          return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+        }
+      } catch (NumberFormatException e) {
+        // Fall through to the error below.
+      }
+      throw new IllegalArgumentException("Can't parse duration \"" + value + "\"");
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put("workers", workers);
+      map.put("pool_size", poolSize);
+      map.put("target_rate", rate);
+      Map<String, Object> weights = new LinkedHashMap<>();
+      mix.getWeights().forEach((operation, weight) -> weights.put(name(operation), weight));
+      map.put("mix", weights);
+      map.put("accounts", accounts);
+      map.put("warmup_s", warmup.toMillis() / 1000.0);
+      map.put("duration_s", duration.toMillis() / 1000.0);
+      return map;
+    }
+  }
+
+  private static String name(Operation operation) {
+    return operation.name().toLowerCase();
+  }
+}
@@ -0,0 +1,122 @@
+package me.horlick.db.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.net.HostAndPort;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// A throwaway Postgres server in a temporary directory, started with the initdb and pg_ctl of a
+// local installation. It listens on a free port on localhost only, trusts every connection, and
+// is deleted when it is closed.
+final class LocalPostgres implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LocalPostgres.class);
+
+  private final File binDirectory;
+  private final Path dataDirectory;
+  private final int port;
+
+  private LocalPostgres(File binDirectory, Path dataDirectory, int port) {
+    this.binDirectory = binDirectory;
+    this.dataDirectory = dataDirectory;
+    this.port = port;
+  }
+
+  // @param binDirectory The directory containing initdb and pg_ctl, for example
+  //     /usr/lib/postgresql/9.6/bin.
+  static LocalPostgres start(File binDirectory, int maxConnections) throws IOException {
+    Path dataDirectory = Files.createTempDirectory("load-test-postgres");
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    LocalPostgres postgres = new LocalPostgres(binDirectory, dataDirectory, port);
+    try {
+      postgres.run("initdb", "-D", dataDirectory.toString(), "-U", "postgres", "-A", "trust");
+      postgres.run(
+          "pg_ctl",
+          "-D",
+          dataDirectory.toString(),
+          "-w",
+          "-l",
+          dataDirectory.resolve("server.log").toString(),
+          "-o",
+          "-h 127.0.0.1 -p "
+              + port
+              + " -k "
+              + dataDirectory
+              + " -c max_connections="
+              + maxConnections,
+          "start");
+    } catch (IOException | RuntimeException e) {
+      postgres.delete();
+      throw e;
+    }
+    logger.info("Started Postgres on port " + port + " in " + dataDirectory);
+    return postgres;
+  }
+
+  HostAndPort getHostAndPort() {
+    return HostAndPort.fromParts("127.0.0.1", port);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      run("pg_ctl", "-D", dataDirectory.toString(), "-w", "-m", "fast", "stop");
+    } finally {
+      delete();
+    }
+  }
+
+  // Output is written to a file rather than a pipe, because the server that pg_ctl starts keeps
+  // its standard output open.
+  private void run(String program, String... args) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(new File(binDirectory, program).getPath());
+    command.addAll(Arrays.asList(args));
+    Path output = Files.createTempFile(program, ".log");
+    try {
+      Process process =
+          new ProcessBuilder(command)
+              .redirectErrorStream(true)
+              .redirectOutput(output.toFile())
+              .start();
+      if (!process.waitFor(2, TimeUnit.MINUTES)) {
+        process.destroyForcibly();
+        throw new IOException(program + " did not finish");
+      }
+      if (process.exitValue() != 0) {
+        throw new IOException(
+            program
+                + " failed with exit code "
+                + process.exitValue()
+                + ":\n"
+                + new String(Files.readAllBytes(output), UTF_8));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for " + program, e);
+    } finally {
+      Files.delete(output);
+    }
+  }
+
+  private void delete() throws IOException {
+    try (Stream<Path> paths = Files.walk(dataDirectory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package me.horlick.db.loadtest;
+
+import java.util.Random;
+import me.horlick.db.Cursor;
+import me.horlick.db.DatabaseClient;
+import me.horlick.db.DatabaseClientFactory;
+import me.horlick.db.DatabaseTransaction;
+import me.horlick.db.StatementTemplate;
+
+// The kinds of work a load test does. Each one borrows a client from the factory and returns it
+// afterwards, so every operation also exercises the connection pool.
+enum Operation {
+  // Look up one account by its primary key.
+  READ {
+    @Override
+    void run(DatabaseClientFactory factory, Random random, int accounts) throws Exception {
+      try (DatabaseClient client = factory.create();
+          Cursor cursor =
+              client.executeStatement(
+                  SELECT_ACCOUNT.bind().set("id", (long) random.nextInt(accounts)).build())) {
+        while (cursor.next() != null) {}
+      }
+    }
+  },
+
+  // Change the balance of one account, in a transaction of its own.
+  WRITE {
+    @Override
+    void run(DatabaseClientFactory factory, Random random, int accounts) throws Exception {
+      try (DatabaseClient client = factory.create()) {
+        DatabaseTransaction tx = client.begin();
+        tx.execute(
+            ADD_TO_BALANCE
+                .bind()
+                .set("id", (long) random.nextInt(accounts))
+                .set("amount", (long) random.nextInt(100))
+                .build());
+        tx.commit();
+      }
+    }
+  },
+
+  // Move money between two accounts: read both, then update both and commit. Rows are always
+  // locked in order of id, so concurrent transfers can't deadlock.
+  TRANSACTION {
+    @Override
+    void run(DatabaseClientFactory factory, Random random, int accounts) throws Exception {
+      long first = random.nextInt(accounts);
+      long second = random.nextInt(accounts);
+      long amount = random.nextInt(100);
+      try (DatabaseClient client = factory.create()) {
+        DatabaseTransaction tx = client.begin();
+        for (long id : new long[] {Math.min(first, second), Math.max(first, second)}) {
+          try (Cursor cursor = tx.query(LOCK_ACCOUNT.bind().set("id", id).build())) {
+            while (cursor.next() != null) {}
+          }
+        }
+        tx.execute(ADD_TO_BALANCE.bind().set("id", first).set("amount", -amount).build());
+        tx.execute(ADD_TO_BALANCE.bind().set("id", second).set("amount", amount).build());
+        tx.commit();
+      }
+    }
+  };
+
+  static final StatementTemplate CREATE_TABLE =
+      StatementTemplate.of(
+          "CREATE TABLE IF NOT EXISTS load_test_accounts "
+              + "(id bigint PRIMARY KEY, balance bigint NOT NULL, name text NOT NULL)");
+  static final StatementTemplate TRUNCATE_TABLE =
+      StatementTemplate.of("TRUNCATE load_test_accounts");
+
+  private static final StatementTemplate SELECT_ACCOUNT =
+      StatementTemplate.of("SELECT id, balance, name FROM load_test_accounts WHERE id = :id");
+  private static final StatementTemplate LOCK_ACCOUNT =
+      StatementTemplate.of("SELECT balance FROM load_test_accounts WHERE id = :id FOR UPDATE");
+  private static final StatementTemplate ADD_TO_BALANCE =
+      StatementTemplate.of(
+          "UPDATE load_test_accounts SET balance = balance + :amount WHERE id = :id");
+
+  abstract void run(DatabaseClientFactory factory, Random random, int accounts) throws Exception;
+}
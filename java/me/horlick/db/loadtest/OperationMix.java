@@ -0,0 +1,64 @@
+package me.horlick.db.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+// An OperationMix picks operations at random in fixed proportions, given as a list of weights such
+// as "read=70,write=20,transaction=10". Weights don't need to add up to 100.
+final class OperationMix {
+
+  private final Map<Operation, Integer> weights;
+  private final Operation[] operations;
+
+  // The running total of the weights, so that operations[i] is picked for values below
+  // cumulative[i].
+  private final int[] cumulative;
+
+  private OperationMix(Map<Operation, Integer> weights) {
+    this.weights = weights;
+    this.operations = weights.keySet().toArray(new Operation[0]);
+    this.cumulative = new int[operations.length];
+    int total = 0;
+    for (int i = 0; i < operations.length; i++) {
+      total += weights.get(operations[i]);
+      cumulative[i] = total;
+    }
+  }
+
+  static OperationMix parse(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Expected name=weight but got \"" + entry + "\"");
+      }
+      Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+      int weight = Integer.parseInt(parts[1].trim());
+      if (weight < 0) {
+        throw new IllegalArgumentException("Weight of " + parts[0] + " must not be negative");
+      }
+      if (weight > 0) {
+        weights.put(operation, weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("At least one operation must have a positive weight");
+    }
+    return new OperationMix(weights);
+  }
+
+  Operation choose(Random random) {
+    int value = random.nextInt(cumulative[cumulative.length - 1]);
+    for (int i = 0; i < cumulative.length; i++) {
+      if (value < cumulative[i]) {
+        return operations[i];
+      }
+    }
+    throw new AssertionError();
+  }
+
+  Map<Operation, Integer> getWeights() {
+    return weights;
+  }
+}
@@ -0,0 +1,117 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import org.junit.Test;
+
+public class ArrayLiteralTest {
+
+  private enum Shape {
+    TRIANGLE,
+    SQUARE
+  }
+
+  @Test
+  public void shouldEncodePrimitiveArrays() {
+    assertEquals("{1,2,3}", ArrayLiteral.encode(new long[] {1, 2, 3}));
+    assertEquals("{-4}", ArrayLiteral.encode(new int[] {-4}));
+    assertEquals(
+        "{1.5,NULL,Infinity}",
+        ArrayLiteral.encode(new double[] {1.5, Double.NaN, Double.POSITIVE_INFINITY}));
+    assertEquals("{true,false}", ArrayLiteral.encode(new boolean[] {true, false}));
+  }
+
+  @Test
+  public void shouldEncodeEmptyArrays() {
+    assertEquals("{}", ArrayLiteral.encode(new long[0]));
+    assertEquals("{}", ArrayLiteral.encode(Collections.emptyList()));
+  }
+
+  @Test
+  public void shouldEncodeCollections() {
+    assertEquals("{1,NULL,3}", ArrayLiteral.encode(Arrays.asList(1L, null, 3L)));
+    assertEquals(
+        "{\"TRIANGLE\",\"SQUARE\"}",
+        ArrayLiteral.encode(new LinkedHashSet<>(Arrays.asList(Shape.TRIANGLE, Shape.SQUARE))));
+    UUID uuid = new UUID(0, 1);
+    assertEquals(
+        "{\"00000000-0000-0000-0000-000000000001\"}",
+        ArrayLiteral.encode(Collections.singletonList(uuid)));
+  }
+
+  @Test
+  public void shouldQuoteStrings() {
+    assertEquals(
+        "{\"a,b\",\"NULL\",\"say \\\"hi\\\"\",\"back\\\\slash\",\"{}\"}",
+        ArrayLiteral.encode(new String[] {"a,b", "NULL", "say \"hi\"", "back\\slash", "{}"}));
+  }
+
+  @Test
+  public void shouldEncodeTimestampsInUtc() {
+    assertEquals(
+        "{\"2017-03-04 05:06:07.123456+00\"}",
+        ArrayLiteral.encode(
+            Collections.singletonList(Instant.parse("2017-03-04T05:06:07.123456Z"))));
+  }
+
+  @Test
+  public void shouldNotTreatBytesAsArray() {
+    assertFalse(ArrayLiteral.isArray(new byte[] {1}));
+    assertTrue(ArrayLiteral.isArray(new long[] {1}));
+    assertTrue(ArrayLiteral.isArray(Collections.emptySet()));
+  }
+
+  @Test
+  public void shouldNotTreatCharsAsArray() {
+    assertFalse(ArrayLiteral.isArray(new char[] {'a'}));
+    try {
+      ArrayLiteral.encode(new char[] {'a'});
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void shouldEncodeNestedArraysAsDimensions() {
+    assertEquals("{{1,2},{3,4}}", ArrayLiteral.encode(new long[][] {{1, 2}, {3, 4}}));
+    assertEquals(
+        "{{1,2},{3,4}}",
+        ArrayLiteral.encode(Arrays.asList(new int[] {1, 2}, new int[] {3, 4})));
+    assertEquals(
+        "{{\"a\"},{NULL}}",
+        ArrayLiteral.encode(
+            Arrays.asList(Collections.singletonList("a"), Collections.singletonList(null))));
+  }
+
+  @Test
+  public void shouldRejectBinaryElements() {
+    for (Object value :
+        Arrays.asList(
+            new byte[][] {{1}},
+            Collections.singletonList(ByteBuffer.wrap(new byte[] {1})),
+            new Object[] {new char[] {'a'}})) {
+      try {
+        ArrayLiteral.encode(value);
+        fail();
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void shouldInlineArraysAsQuotedLiterals() {
+    assertEquals(
+        "E'{\"it''s\"}'", new SqlTypeAdapter().adapt(Collections.singletonList("it's")));
+    assertEquals(
+        "E'{\"a\\\\\\\\b\"}'", new SqlTypeAdapter().adapt(Collections.singletonList("a\\b")));
+  }
+}
@@ -0,0 +1,160 @@
+package me.horlick.db;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class AsyncDatabaseClientTest {
+
+  private static final String SELECT_SIDES = "SELECT sides FROM shapes";
+
+  @Test
+  public void shouldReadAndMapRowsOffTheCallingThread() throws Exception {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("sides");
+    when(md.getColumnType(1)).thenReturn(Types.INTEGER);
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getMetaData()).thenReturn(md);
+    when(rs.next()).thenReturn(true, true, false);
+    when(rs.getLong(1)).thenReturn(3L, 4L);
+    PreparedStatement select = mock(PreparedStatement.class);
+    when(select.execute()).thenReturn(true);
+    when(select.getResultSet()).thenReturn(rs);
+    Connection connection = mock(Connection.class);
+    when(connection.prepareStatement(SELECT_SIDES, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(select);
+
+    try (AsyncDatabaseClient client =
+        new AsyncDatabaseClient(() -> new DatabaseClient(connection), 1)) {
+      List<Integer> sides =
+          client
+              .executeStatement(
+                  new Statement(SELECT_SIDES, Collections.emptyMap()),
+                  row -> row.getInt("sides"))
+              .get(5, TimeUnit.SECONDS);
+
+      assertEquals(2, sides.size());
+      assertEquals(4, (int) sides.get(1));
+    }
+    // The result is read eagerly, so the cursor is closed before the future completes.
+    verify(rs).close();
+  }
+
+  @Test
+  public void shouldLimitConcurrentCalls() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    try (AsyncDatabaseClient client =
+        new AsyncDatabaseClient(() -> new DatabaseClient(mock(Connection.class)), 2)) {
+      List<CompletableFuture<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(
+            client.inTransaction(
+                transaction -> {
+                  int now = running.incrementAndGet();
+                  maxRunning.accumulateAndGet(now, Math::max);
+                  Thread.sleep(5);
+                  running.decrementAndGet();
+                  return now;
+                }));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .get(10, TimeUnit.SECONDS);
+    }
+
+    assertTrue(maxRunning.get() <= 2);
+  }
+
+  @Test
+  public void shouldNotCommitFailedTransaction() throws Exception {
+    Connection connection = mock(Connection.class);
+
+    try (AsyncDatabaseClient client =
+        new AsyncDatabaseClient(() -> new DatabaseClient(connection), 1)) {
+      CompletableFuture<Void> future =
+          client.inTransaction(
+              transaction -> {
+                throw new IllegalStateException("oops");
+              });
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (java.util.concurrent.ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    verify(connection, never()).commit();
+  }
+
+  @Test
+  public void shouldCancelInFlightStatement() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    Connection connection = mock(Connection.class);
+    when(connection.prepareStatement(SELECT_SIDES, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(blockingStatement(started, cancelled));
+
+    try (AsyncDatabaseClient client =
+        new AsyncDatabaseClient(() -> new DatabaseClient(connection), 1)) {
+      CompletableFuture<Cursor> future =
+          client.executeStatement(new Statement(SELECT_SIDES, Collections.emptyMap()));
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      assertTrue(future.cancel(true));
+
+      assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+      try {
+        future.join();
+        fail();
+      } catch (CancellationException expected) {
+      }
+    }
+  }
+
+  // A PreparedStatement whose execute blocks until the statement is cancelled.
+  private static PreparedStatement blockingStatement(
+      CountDownLatch started, CountDownLatch cancelled) {
+    return (PreparedStatement)
+        Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "execute":
+                  started.countDown();
+                  cancelled.await();
+                  throw new SQLException("canceling statement due to user request", "57014");
+                case "cancel":
+                  cancelled.countDown();
+                  return null;
+                default:
+                  return method.getReturnType() == boolean.class ? false : null;
+              }
+            });
+  }
+}
@@ -0,0 +1,126 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+public class BulkLoaderTest {
+
+  // Collects everything written to a COPY.
+  private static class FakeCopy {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final List<Integer> writeSizes = new ArrayList<>();
+
+    CopyIn copyIn() {
+      return (CopyIn)
+          Proxy.newProxyInstance(
+              CopyIn.class.getClassLoader(),
+              new Class<?>[] {CopyIn.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "writeToCopy":
+                    bytes.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    writeSizes.add((Integer) args[2]);
+                    return null;
+                  case "endCopy":
+                    return 0L;
+                  case "isActive":
+                    return true;
+                  default:
+                    return null;
+                }
+              });
+    }
+  }
+
+  @Test
+  public void shouldQuoteIdentifiers() {
+    assertEquals(
+        "COPY \"public\".\"shapes\" (\"sides\", \"created_at\") FROM STDIN WITH (FORMAT binary)",
+        BulkLoader.copySql("public.shapes", Arrays.asList("sides", "created_at")));
+  }
+
+  @Test
+  public void shouldRejectInvalidIdentifiers() {
+    for (String table : new String[] {"shapes; DROP TABLE shapes", "a.b.c", "\"shapes\"", ""}) {
+      try {
+        BulkLoader.copySql(table, Arrays.asList("sides"));
+        fail("Expecting exception for " + table);
+      } catch (IllegalArgumentException ignored) {
+      }
+    }
+    try {
+      BulkLoader.copySql("shapes", Arrays.asList("sides)"));
+      fail("Expecting exception");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test
+  public void shouldEncodeRowsInBinaryCopyFormat() throws Exception {
+    FakeCopy copy = new FakeCopy();
+    BinaryCopyWriter writer = new BinaryCopyWriter(copy.copyIn(), 1024);
+    writer.writeRow(
+        new Object[] {3, null, "ab", true, Instant.parse("2000-01-01T00:00:01.000002Z")});
+    writer.finish();
+
+    ByteBuffer buffer = ByteBuffer.wrap(copy.bytes.toByteArray());
+    byte[] signature = new byte[11];
+    buffer.get(signature);
+    assertEquals("PGCOPY\n", new String(signature, 0, 7, "US-ASCII"));
+    assertEquals(0, buffer.getInt()); // Flags.
+    assertEquals(0, buffer.getInt()); // Header extension.
+
+    assertEquals(5, buffer.getShort());
+    assertEquals(4, buffer.getInt());
+    assertEquals(3, buffer.getInt());
+    assertEquals(-1, buffer.getInt());
+    assertEquals(2, buffer.getInt());
+    assertEquals('a', buffer.get());
+    assertEquals('b', buffer.get());
+    assertEquals(1, buffer.getInt());
+    assertEquals(1, buffer.get());
+    assertEquals(8, buffer.getInt());
+    assertEquals(1_000_002L, buffer.getLong());
+
+    assertEquals(-1, buffer.getShort()); // Trailer.
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test
+  public void shouldSendBufferWhenFull() throws Exception {
+    FakeCopy copy = new FakeCopy();
+    BinaryCopyWriter writer = new BinaryCopyWriter(copy.copyIn(), 64);
+    for (int i = 0; i < 100; i++) {
+      writer.writeRow(new Object[] {(long) i});
+    }
+    writer.finish();
+
+    assertTrue(copy.writeSizes.size() > 1);
+    for (int size : copy.writeSizes) {
+      assertTrue(size <= 64);
+    }
+    assertEquals(19 + 100 * 14 + 2, copy.bytes.size());
+    assertEquals(100, writer.getRowCount());
+  }
+
+  @Test
+  public void shouldGrowBufferForLargeValues() throws Exception {
+    FakeCopy copy = new FakeCopy();
+    BinaryCopyWriter writer = new BinaryCopyWriter(copy.copyIn(), 16);
+    writer.writeRow(new Object[] {new byte[100]});
+    writer.finish();
+
+    assertEquals(19 + 2 + 4 + 100 + 2, copy.bytes.size());
+  }
+}
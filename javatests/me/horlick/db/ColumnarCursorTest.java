@@ -0,0 +1,164 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarCursorTest {
+
+  private ResultSet rs;
+  private ColumnarCursor cursor;
+
+  @Before
+  public void setUp() throws SQLException {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(4);
+    when(md.getColumnName(1)).thenReturn("id");
+    when(md.getColumnType(1)).thenReturn(Types.BIGINT);
+    when(md.getColumnName(2)).thenReturn("name");
+    when(md.getColumnType(2)).thenReturn(Types.VARCHAR);
+    when(md.getColumnName(3)).thenReturn("area");
+    when(md.getColumnType(3)).thenReturn(Types.DOUBLE);
+    when(md.getColumnName(4)).thenReturn("sides");
+    when(md.getColumnType(4)).thenReturn(Types.INTEGER);
+
+    // Three rows, read in batches of two:
+    //   (1, "triangle", 0.5, 3)
+    //   (2, "carr\u00e9", NULL, 4)
+    //   (NULL, NULL, 2.0, 5)
+    rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true, true, true, false);
+    when(rs.getLong(1)).thenReturn(1L, 2L, 0L);
+    when(rs.getString(2)).thenReturn("triangle", "carr\u00e9", null);
+    when(rs.getDouble(3)).thenReturn(0.5, 0.0, 2.0);
+    when(rs.getInt(4)).thenReturn(3, 4, 5);
+    when(rs.wasNull()).thenReturn(false, false, false, false, true, false, true, false, false);
+
+    ResultSetCursor source =
+        new ResultSetCursor(
+            rs,
+            RowLayout.fromMetaData(md),
+            new CachedStatement(
+                new PreparedStatementCache(mock(Connection.class), 1),
+                "SELECT id, name, area, sides FROM shapes",
+                mock(PreparedStatement.class)));
+    cursor = new ColumnarCursor(source, 2);
+  }
+
+  @Test
+  public void shouldReadRowsInBatches() throws Exception {
+    ColumnarBatch first = cursor.nextBatch();
+    assertEquals(2, first.getRowCount());
+    ColumnVector id = first.getColumn("id");
+    ColumnVector name = first.getColumn("name");
+    ColumnVector area = first.getColumn("area");
+    assertEquals(ColumnVector.Type.LONG, id.getType());
+    assertEquals(ColumnVector.Type.STRING, name.getType());
+    assertEquals(ColumnVector.Type.INT, first.getColumn("sides").getType());
+    assertEquals(1L, id.getLong(0));
+    assertEquals(2L, id.getLong(1));
+    assertEquals("triangle", name.getString(0));
+    assertEquals("carr\u00e9", name.getString(1));
+    assertEquals(0.5, area.getDouble(0), 0);
+    assertFalse(area.isNull(0));
+    assertTrue(area.isNull(1));
+    assertEquals(4, first.getColumn("sides").getInt(1));
+
+    ColumnarBatch second = cursor.nextBatch();
+    assertSame(first, second);
+    assertSame(id, second.getColumn("id"));
+    assertEquals(1, second.getRowCount());
+    assertTrue(id.isNull(0));
+    assertNull(name.getString(0));
+    assertEquals(2.0, area.getDouble(0), 0);
+    assertEquals(5L, second.getColumn("sides").getLong(0));
+
+    assertNull(cursor.nextBatch());
+    cursor.close();
+    verify(rs).close();
+  }
+
+  @Test
+  public void shouldExposeArrowLayout() {
+    ColumnarBatch batch = cursor.nextBatch();
+
+    ByteBuffer validity = batch.getColumn("area").getValidityBuffer();
+    assertEquals(1, validity.remaining());
+    assertEquals(0b01, validity.get(0));
+
+    ByteBuffer values = batch.getColumn("id").getValueBuffer();
+    assertEquals(16, values.remaining());
+    assertEquals(ByteOrder.LITTLE_ENDIAN, values.order());
+    assertEquals(2L, values.getLong(8));
+
+    ColumnVector name = batch.getColumn("name");
+    ByteBuffer offsets = name.getOffsetBuffer();
+    assertEquals(0, offsets.getInt(0));
+    assertEquals(8, offsets.getInt(4));
+    assertEquals(14, offsets.getInt(8));
+    assertEquals(14, name.getDataBuffer().remaining());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectReadsOfWrongType() {
+    cursor.nextBatch().getColumn("id").getDouble(0);
+  }
+
+  @Test
+  public void shouldRejectReadsAfterClose() throws Exception {
+    ColumnVector id = cursor.nextBatch().getColumn("id");
+    cursor.close();
+
+    try {
+      id.getLong(0);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      id.getValueBuffer();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      cursor.nextBatch();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    verify(rs).close();
+
+    // Closing again does nothing.
+    cursor.close();
+  }
+
+  @Test
+  public void shouldGrowStringData() {
+    ColumnVector vector = new ColumnVector("text", ColumnVector.Type.STRING, 2);
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longString.append("ab");
+    }
+    vector.reset();
+    vector.appendString("x");
+    vector.appendString(longString.toString());
+
+    assertEquals("x", vector.getString(0));
+    assertEquals(longString.toString(), vector.getString(1));
+  }
+}
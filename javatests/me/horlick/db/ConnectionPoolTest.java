@@ -0,0 +1,251 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+  private final AtomicInteger opened = new AtomicInteger();
+  private ConnectionPool pool;
+
+  private ConnectionPool createPool(ConnectionPoolConfig config) {
+    pool =
+        new ConnectionPool(
+            () -> {
+              opened.incrementAndGet();
+              return mock(Connection.class);
+            },
+            config);
+    return pool;
+  }
+
+  // A pool whose connections can't be opened until connectable is counted down. The first
+  // connection starts opening in the background straight away, to fill the pool to its minimum.
+  private ConnectionPool createSlowPool(
+      CountDownLatch connecting, CountDownLatch connectable, Connection connection) {
+    pool =
+        new ConnectionPool(
+            () -> {
+              opened.incrementAndGet();
+              connecting.countDown();
+              Uninterruptibles.awaitUninterruptibly(connectable);
+              return connection;
+            },
+            ConnectionPoolConfig.newBuilder().setMinSize(1).setMaxSize(1).build());
+    return pool;
+  }
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void shouldReuseReleasedConnection() {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(2).build());
+
+    PooledConnection first = pool.borrow();
+    pool.release(first);
+    PooledConnection second = pool.borrow();
+
+    assertSame(first, second);
+    assertEquals(1, opened.get());
+  }
+
+  @Test
+  public void shouldOpenNewConnectionWhenAllAreBorrowed() {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(2).build());
+
+    PooledConnection first = pool.borrow();
+    PooledConnection second = pool.borrow();
+
+    assertNotSame(first, second);
+    assertEquals(2, pool.stats().getActiveCount());
+    assertEquals(2, pool.stats().getTotalCount());
+  }
+
+  @Test
+  public void shouldTimeOutWhenPoolIsExhausted() {
+    createPool(
+        ConnectionPoolConfig.newBuilder()
+            .setMinSize(0)
+            .setMaxSize(1)
+            .setAcquireTimeout(Duration.ofMillis(10))
+            .build());
+
+    pool.borrow();
+    try {
+      pool.borrow();
+      fail("Expecting exception");
+    } catch (RuntimeException ignored) {
+    }
+    assertEquals(1, opened.get());
+  }
+
+  @Test
+  public void shouldHandReleasedConnectionToWaitingBorrower() throws Exception {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(1).build());
+    PooledConnection first = pool.borrow();
+
+    PooledConnection[] borrowed = new PooledConnection[1];
+    Thread borrower = new Thread(() -> borrowed[0] = pool.borrow());
+    borrower.start();
+    while (pool.stats().getWaiterCount() == 0) {
+      Thread.sleep(1);
+    }
+    pool.release(first);
+    borrower.join(TimeUnit.SECONDS.toMillis(10));
+
+    assertSame(first, borrowed[0]);
+    assertEquals(1, opened.get());
+  }
+
+  @Test
+  public void shouldNeverLendMoreThanMaxSize() throws Exception {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(3).build());
+    AtomicInteger lent = new AtomicInteger();
+    AtomicInteger mostLent = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 1000; i++) {
+                  PooledConnection pooled = pool.borrow();
+                  mostLent.accumulateAndGet(lent.incrementAndGet(), Math::max);
+                  lent.decrementAndGet();
+                  pool.release(pooled);
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    assertEquals(0, pool.stats().getActiveCount());
+    assertTrue(mostLent.get() <= 3);
+    assertTrue(pool.stats().getTotalCount() <= 3);
+  }
+
+  @Test
+  public void tryBorrowShouldNotWaitWhenPoolIsExhausted() {
+    createPool(
+        ConnectionPoolConfig.newBuilder()
+            .setMinSize(0)
+            .setMaxSize(1)
+            .setAcquireTimeout(Duration.ofMinutes(1))
+            .build());
+
+    PooledConnection first = pool.tryBorrow();
+    assertNotNull(first);
+    assertNull(pool.tryBorrow());
+
+    pool.release(first);
+    assertSame(first, pool.tryBorrow());
+  }
+
+  @Test
+  public void shouldRollBackUncommittedWorkOnRelease() throws SQLException {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(1).build());
+
+    PooledConnection pooled = pool.borrow();
+    pool.release(pooled);
+
+    verify(pooled.getConnection()).rollback();
+    assertEquals(0, pool.stats().getActiveCount());
+    assertEquals(1, pool.stats().getIdleCount());
+  }
+
+  @Test
+  public void shouldDiscardConnectionThatFailsToReset() throws SQLException {
+    createPool(ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(1).build());
+
+    PooledConnection pooled = pool.borrow();
+    when(pooled.getConnection().getAutoCommit()).thenThrow(new SQLException("broken"));
+    pool.release(pooled);
+
+    verify(pooled.getConnection()).close();
+    assertEquals(0, pool.stats().getTotalCount());
+    assertNotSame(pooled, pool.borrow());
+  }
+
+  @Test
+  public void shouldReplaceConnectionsPastTheirLifetime() {
+    createPool(
+        ConnectionPoolConfig.newBuilder()
+            .setMinSize(0)
+            .setMaxSize(1)
+            .setMaxLifetime(Duration.ZERO)
+            .build());
+
+    PooledConnection first = pool.borrow();
+    pool.release(first);
+
+    assertNotSame(first, pool.borrow());
+    assertEquals(2, opened.get());
+  }
+
+  @Test
+  public void shouldWaitForConnectionBeingOpened() throws Exception {
+    CountDownLatch connecting = new CountDownLatch(1);
+    CountDownLatch connectable = new CountDownLatch(1);
+    Connection connection = mock(Connection.class);
+    createSlowPool(connecting, connectable, connection);
+    connecting.await();
+
+    // The only slot is taken by the housekeeper's connection, so the borrower waits for it.
+    new Thread(
+            () -> {
+              Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+              connectable.countDown();
+            })
+        .start();
+    PooledConnection pooled = pool.borrow();
+
+    assertSame(connection, pooled.getConnection());
+    assertEquals(1, opened.get());
+  }
+
+  @Test
+  public void shouldCloseConnectionOpenedWhileClosing() throws Exception {
+    CountDownLatch connecting = new CountDownLatch(1);
+    CountDownLatch connectable = new CountDownLatch(1);
+    Connection connection = mock(Connection.class);
+    createSlowPool(connecting, connectable, connection);
+    connecting.await();
+
+    pool.close();
+    connectable.countDown();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (pool.stats().getTotalCount() > 0) {
+      if (System.nanoTime() > deadline) {
+        fail("Connection opened by the housekeeper was never closed");
+      }
+      Thread.sleep(1);
+    }
+    assertEquals(0, pool.stats().getIdleCount());
+    verify(connection).close();
+  }
+}
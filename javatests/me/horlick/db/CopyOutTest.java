@@ -0,0 +1,110 @@
+package me.horlick.db;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import me.horlick.db.RowLayout.Kind;
+import org.junit.Test;
+import org.postgresql.copy.CopyOut;
+
+public class CopyOutTest {
+
+  // A CopyOut that returns each of the given lines in turn.
+  private static CopyOut copyOf(String... lines) {
+    Deque<byte[]> remaining = new ArrayDeque<>();
+    for (String line : lines) {
+      remaining.add(line.getBytes(UTF_8));
+    }
+    return (CopyOut)
+        Proxy.newProxyInstance(
+            CopyOut.class.getClassLoader(),
+            new Class<?>[] {CopyOut.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "readFromCopy":
+                  return remaining.poll();
+                case "isActive":
+                  return !remaining.isEmpty();
+                case "getHandledRowCount":
+                  return (long) lines.length;
+                default:
+                  return null;
+              }
+            });
+  }
+
+  @Test
+  public void shouldInlineValuesAsLiterals() {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("name", "O'Brien");
+    variables.put("after", Instant.parse("2017-01-02T03:04:05Z"));
+    Statement statement =
+        new Statement(
+            "SELECT * FROM people WHERE name = :name AND created > :after;", variables);
+
+    assertEquals(
+        "COPY (SELECT * FROM people WHERE name = E'O''Brien' AND created > "
+            + "'2017-01-02 03:04:05.000000+00') TO STDOUT WITH (FORMAT csv, HEADER true)",
+        CopyExport.copySql(statement, CopyFormat.CSV));
+  }
+
+  @Test
+  public void shouldPassRowsStraightThrough() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long rows = CopyExport.writeTo(copyOf("1,a\n", "2,b\n"), out);
+
+    assertEquals(2, rows);
+    assertEquals("1,a\n2,b\n", new String(out.toByteArray(), UTF_8));
+  }
+
+  @Test
+  public void shouldDecodeTextFormat() throws Exception {
+    RowLayout layout =
+        new RowLayout(
+            new String[] {"id", "area", "regular", "name"},
+            new Kind[] {Kind.LONG, Kind.DOUBLE, Kind.BOOLEAN, Kind.OBJECT},
+            64);
+    CopyOutCursor cursor =
+        new CopyOutCursor(
+            copyOf(
+                "-9223372036854775808\t1.5\tt\tplain\n",
+                "42\t\\N\tf\ttab\\there\\\\ \\x41\\101\n"),
+            layout);
+
+    Row first = cursor.next();
+    assertEquals(Long.MIN_VALUE, first.getLong("id"));
+    assertEquals(1.5, first.getDouble("area"));
+    assertTrue(first.getBoolean("regular"));
+    assertEquals("plain", first.get("name"));
+
+    Row second = cursor.next();
+    assertEquals(42, second.getInt("id"));
+    assertTrue(second.isNull("area"));
+    assertFalse(second.getBoolean("regular"));
+    assertEquals("tab\there\\ AA", second.get("name"));
+
+    assertNull(cursor.next());
+    cursor.close();
+  }
+
+  @Test
+  public void shouldQuoteValuesForSql() {
+    SqlTypeAdapter adapter = new SqlTypeAdapter();
+    assertEquals("E'it''s'", adapter.adapt("it's"));
+    assertEquals("E'a\\\\'' OR 1=1 --'", adapter.adapt("a\\' OR 1=1 --"));
+    assertEquals("NULL", adapter.adapt(Double.NaN));
+    assertEquals("'-Infinity'", adapter.adapt(Double.NEGATIVE_INFINITY));
+    assertEquals("[3, TRUE]", Arrays.asList(adapter.adapt(3), adapter.adapt(true)).toString());
+  }
+}
@@ -0,0 +1,296 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatabaseTransactionTest {
+
+  private static final String INSERT_SHAPE = "INSERT INTO shapes (sides) VALUES (?)";
+  private static final String DELETE_SHAPE = "DELETE FROM shapes WHERE sides = ?";
+  private static final String COUNT_SHAPES = "SELECT count(*) FROM shapes";
+
+  private Connection connection;
+  private PreparedStatement insert;
+  private PreparedStatement delete;
+  private PreparedStatement count;
+
+  @Before
+  public void setUp() throws SQLException {
+    connection = mock(Connection.class);
+    insert = mock(PreparedStatement.class);
+    delete = mock(PreparedStatement.class);
+    count = mock(PreparedStatement.class);
+    when(connection.prepareStatement(INSERT_SHAPE, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(insert);
+    when(connection.prepareStatement(DELETE_SHAPE, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(delete);
+    when(connection.prepareStatement(COUNT_SHAPES, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(count);
+  }
+
+  private static Statement insertShape(int sides) {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("sides", sides);
+    return new Statement("INSERT INTO shapes (sides) VALUES (:sides)", variables);
+  }
+
+  private static Statement deleteShape(int sides) {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("sides", sides);
+    return new Statement("DELETE FROM shapes WHERE sides = :sides", variables);
+  }
+
+  @Test
+  public void shouldGroupConsecutiveStatementsWithSameSql() throws SQLException {
+    when(insert.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1});
+    when(delete.executeBatch()).thenReturn(new int[] {3});
+
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    int[] counts =
+        tx.executeBatch(
+            Arrays.asList(insertShape(3), insertShape(4), deleteShape(5), insertShape(6)));
+
+    assertEquals("[1, 1, 3, 1]", Arrays.toString(counts));
+    verify(insert, times(3)).addBatch();
+    verify(insert, times(2)).executeBatch();
+    verify(delete, times(1)).executeBatch();
+  }
+
+  @Test
+  public void shouldSplitRunsLongerThanBatchSize() throws SQLException {
+    when(insert.executeBatch()).thenReturn(new int[] {1, 1}, new int[] {1, 1}, new int[] {1});
+
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    tx.setBatchSize(2);
+    for (int i = 0; i < 5; i++) {
+      tx.addBatch(insertShape(i));
+    }
+    int[] counts = tx.flush();
+
+    assertEquals(5, counts.length);
+    verify(insert, times(3)).executeBatch();
+    verify(insert, times(5)).setInt(anyInt(), anyInt());
+  }
+
+  @Test
+  public void shouldFlushQueuedStatementsOnCommit() throws SQLException {
+    when(insert.executeBatch()).thenReturn(new int[] {1});
+
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    tx.addBatch(insertShape(3));
+    tx.commit();
+
+    verify(insert).executeBatch();
+    verify(connection).commit();
+  }
+
+  @Test
+  public void shouldDeferWritesUntilCommit() throws SQLException {
+    when(insert.executeBatch()).thenReturn(new int[] {1, 1});
+
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    tx.setDeferred(true);
+    tx.execute(insertShape(3));
+    tx.execute(insertShape(4));
+
+    verify(insert, never()).executeBatch();
+    verify(insert, never()).execute();
+
+    tx.commit();
+
+    verify(insert).executeBatch();
+    verify(insert, times(2)).addBatch();
+    verify(connection).commit();
+  }
+
+  @Test
+  public void shouldFlushDeferredWritesBeforeRead() throws SQLException {
+    when(insert.executeBatch()).thenReturn(new int[] {1});
+
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    tx.setDeferred(true);
+    tx.execute(insertShape(3));
+    tx.query(new Statement("SELECT count(*) FROM shapes", new HashMap<>()));
+
+    verify(insert).executeBatch();
+    verify(count).execute();
+  }
+
+  @Test
+  public void shouldDiscardQueuedStatementsOnRollback() throws Exception {
+    DatabaseTransaction tx = new DatabaseClient(connection).begin();
+    tx.addBatch(insertShape(3));
+    tx.rollback();
+    tx.close();
+
+    verify(insert, never()).executeBatch();
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+  }
+
+  private static TransactionOptions retryOptions(int maxAttempts) {
+    return TransactionOptions.newBuilder()
+        .setIsolationLevel(IsolationLevel.SERIALIZABLE)
+        .setMaxAttempts(maxAttempts)
+        .setInitialBackoff(Duration.ZERO)
+        .build();
+  }
+
+  private static RuntimeException failure(String sqlState) {
+    return new RuntimeException(new SQLException("Transaction failed", sqlState));
+  }
+
+  @Test
+  public void shouldRetrySerializationFailure() throws SQLException {
+    MetricsRegistry metrics = new MetricsRegistry();
+    DatabaseClient client =
+        new DatabaseClient(
+            new PooledConnection(connection, 8), null, metrics, SlowQueryLog.defaults());
+    AtomicInteger attempts = new AtomicInteger();
+
+    String result =
+        client.runInTransaction(
+            retryOptions(3),
+            tx -> {
+              if (attempts.incrementAndGet() == 1) {
+                throw failure("40001");
+              }
+              return "done";
+            });
+
+    assertEquals("done", result);
+    assertEquals(2, attempts.get());
+    verify(connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    verify(connection).rollback();
+    verify(connection).commit();
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(1, snapshot.getSerializationFailureCount());
+    assertEquals(1, snapshot.getTransactionRetryCount());
+    assertEquals(0, snapshot.getRetriesExhaustedCount());
+  }
+
+  @Test
+  public void shouldRetryDeadlockAtCommit() throws SQLException {
+    doThrow(new SQLException("deadlock detected", "40P01")).when(connection).commit();
+    MetricsRegistry metrics = new MetricsRegistry();
+    DatabaseClient client =
+        new DatabaseClient(
+            new PooledConnection(connection, 8), null, metrics, SlowQueryLog.defaults());
+    AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      client.runInTransaction(retryOptions(2), tx -> attempts.incrementAndGet());
+      fail();
+    } catch (RuntimeException expected) {
+      assertEquals("40P01", DatabaseClient.retryableState(expected));
+    }
+
+    assertEquals(2, attempts.get());
+    verify(connection, times(2)).rollback();
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(2, snapshot.getDeadlockCount());
+    assertEquals(1, snapshot.getTransactionRetryCount());
+    assertEquals(1, snapshot.getRetriesExhaustedCount());
+  }
+
+  @Test
+  public void shouldNotRetryOtherFailures() throws SQLException {
+    DatabaseClient client = new DatabaseClient(connection);
+    AtomicInteger attempts = new AtomicInteger();
+
+    try {
+      client.runInTransaction(
+          retryOptions(3),
+          tx -> {
+            attempts.incrementAndGet();
+            throw failure("23505");
+          });
+      fail();
+    } catch (RuntimeException expected) {
+    }
+
+    assertEquals(1, attempts.get());
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+  }
+
+  @Test
+  public void shouldStopRetryingWhenBudgetIsSpent() {
+    DatabaseClient client = new DatabaseClient(connection);
+    AtomicInteger attempts = new AtomicInteger();
+    TransactionOptions options =
+        TransactionOptions.newBuilder()
+            .setMaxAttempts(100)
+            .setInitialBackoff(Duration.ZERO)
+            .setRetryBudget(Duration.ZERO)
+            .build();
+
+    try {
+      client.runInTransaction(
+          options,
+          tx -> {
+            attempts.incrementAndGet();
+            throw failure("40001");
+          });
+      fail();
+    } catch (RuntimeException expected) {
+    }
+
+    assertEquals(1, attempts.get());
+  }
+
+  @Test
+  public void shouldBoundBackoff() {
+    TransactionOptions options =
+        TransactionOptions.newBuilder()
+            .setInitialBackoff(Duration.ofMillis(10))
+            .setMaxBackoff(Duration.ofMillis(100))
+            .build();
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(DatabaseClient.backoffNanos(options, 1) <= 10_000_000);
+      assertTrue(DatabaseClient.backoffNanos(options, 3) <= 40_000_000);
+      assertTrue(DatabaseClient.backoffNanos(options, 50) <= 100_000_000);
+      assertTrue(DatabaseClient.backoffNanos(options, 50) >= 0);
+    }
+  }
+
+  @Test
+  public void readOnlyClientShouldRunReadOnlyTransactions() throws SQLException {
+    DatabaseClient client = new DatabaseClient(connection);
+    client.setReadOnly(null);
+
+    int result =
+        client.runInTransaction(
+            TransactionOptions.newBuilder()
+                .setIsolationLevel(IsolationLevel.REPEATABLE_READ)
+                .setReadOnly(true)
+                .build(),
+            tx -> 42);
+
+    assertEquals(42, result);
+    verify(connection).setReadOnly(true);
+    verify(connection).commit();
+  }
+}
@@ -0,0 +1,57 @@
+package me.horlick.db;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Measures DatabaseClient.executeStatement end to end against the fake driver: binding, the
+// statement cache, metrics and slow-query checks, and reading the result.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExecuteStatementBenchmark {
+
+  private static final StatementTemplate SELECT_SHAPES =
+      StatementTemplate.of("SELECT * FROM shapes WHERE sides = :sides");
+  private static final StatementTemplate INSERT_SHAPE =
+      StatementTemplate.of("INSERT INTO shapes (sides, name) VALUES (:sides, :name)");
+
+  @Param({"1", "100"})
+  public int rows;
+
+  private DatabaseClient client;
+
+  @Setup
+  public void setUp() {
+    client = new DatabaseClient(FakeJdbc.connection(FakeJdbc.Table.of(8, rows)));
+  }
+
+  @Benchmark
+  public void select(Blackhole blackhole) throws Exception {
+    try (Cursor cursor = client.executeStatement(SELECT_SHAPES.bind().set("sides", 4L).build())) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        blackhole.consume(row);
+      }
+    }
+  }
+
+  @Benchmark
+  public Cursor insert() {
+    return client.executeStatement(
+        INSERT_SHAPE.bind().set("sides", 4L).set("name", "square").build());
+  }
+}
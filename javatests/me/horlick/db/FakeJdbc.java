@@ -0,0 +1,273 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+// An in-memory stand-in for a JDBC driver, for benchmarks. Every SELECT returns the same fixed
+// table, and every other statement updates one row. Nothing is random, so repeated runs do the
+// same work.
+//
+// The JDBC objects are hand-written stubs that read values from arrays filled in when the table is
+// made, so reading a value doesn't allocate and the rawResultSet benchmarks show how little the
+// stubs cost on their own.
+final class FakeJdbc {
+
+  // A table of values. Integer columns hold Longs, and double columns hold Doubles. The values are
+  // also kept unboxed, by column, for the typed getters.
+  static final class Table {
+    final String[] names;
+    final int[] types;
+    final Object[][] rows;
+
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final ResultSetMetaData metaData;
+
+    Table(String[] names, int[] types, Object[][] rows) {
+      this.names = names;
+      this.types = types;
+      this.rows = rows;
+      this.longs = new long[names.length][rows.length];
+      this.doubles = new double[names.length][rows.length];
+      for (int r = 0; r < rows.length; r++) {
+        for (int c = 0; c < names.length; c++) {
+          Object value = rows[r][c];
+          if (value instanceof Number) {
+            longs[c][r] = ((Number) value).longValue();
+            doubles[c][r] = ((Number) value).doubleValue();
+          } else if (value instanceof Boolean) {
+            longs[c][r] = (Boolean) value ? 1 : 0;
+          }
+        }
+      }
+      this.metaData = new FakeMetaData(this);
+    }
+
+    // A table with a mix of bigint, double precision, boolean and text columns.
+    static Table of(int columns, int rows) {
+      String[] names = new String[columns];
+      int[] types = new int[columns];
+      for (int c = 0; c < columns; c++) {
+        names[c] = "column_" + c;
+        types[c] = TYPES[c % TYPES.length];
+      }
+      Object[][] values = new Object[rows][columns];
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < columns; c++) {
+          values[r][c] = valueOf(types[c], r * columns + c);
+        }
+      }
+      return new Table(names, types, values);
+    }
+
+    private static final int[] TYPES = {Types.BIGINT, Types.DOUBLE, Types.BOOLEAN, Types.VARCHAR};
+
+    private static Object valueOf(int type, int seed) {
+      switch (type) {
+        case Types.BIGINT:
+          return (long) seed;
+        case Types.DOUBLE:
+          return seed * 0.5;
+        case Types.BOOLEAN:
+          return seed % 2 == 0;
+        default:
+          return "value " + seed;
+      }
+    }
+  }
+
+  private FakeJdbc() {}
+
+  static Connection connection(Table table) {
+    return new FakeConnection(table);
+  }
+
+  static PreparedStatement preparedStatement(Table table, String sql) {
+    return new FakePreparedStatement(table, sql);
+  }
+
+  static ResultSet resultSet(Table table) {
+    return new FakeResultSet(table);
+  }
+
+  static ResultSetMetaData metaData(Table table) {
+    return table.metaData;
+  }
+
+  private static final class FakeConnection extends JdbcStubs.ConnectionStub {
+    private final Table table;
+
+    FakeConnection(Table table) {
+      this.table = table;
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) {
+      return preparedStatement(table, sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int concurrency) {
+      return preparedStatement(table, sql);
+    }
+
+    @Override
+    public boolean isValid(int timeout) {
+      return true;
+    }
+  }
+
+  private static final class FakePreparedStatement extends JdbcStubs.PreparedStatementStub {
+    private static final int[] UPDATED_ONE = {1};
+
+    private final Table table;
+    private final boolean query;
+
+    // Reused by every execution, since only one result of a statement is read at a time.
+    private final FakeResultSet resultSet;
+
+    FakePreparedStatement(Table table, String sql) {
+      this.table = table;
+      this.query = sql.trim().toUpperCase().startsWith("SELECT");
+      this.resultSet = new FakeResultSet(table);
+    }
+
+    @Override
+    public boolean execute() {
+      resultSet.row = -1;
+      return query;
+    }
+
+    @Override
+    public ResultSet getResultSet() {
+      return query ? resultSet : null;
+    }
+
+    @Override
+    public ResultSet executeQuery() {
+      return new FakeResultSet(table);
+    }
+
+    @Override
+    public int getUpdateCount() {
+      return query ? -1 : 1;
+    }
+
+    @Override
+    public int executeUpdate() {
+      return 1;
+    }
+
+    @Override
+    public int[] executeBatch() {
+      return UPDATED_ONE;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() {
+      return table.metaData;
+    }
+  }
+
+  private static final class FakeResultSet extends JdbcStubs.ResultSetStub {
+    private final Table table;
+
+    // The index of the current row, and whether the last value read was NULL.
+    private int row = -1;
+    private boolean wasNull = false;
+
+    FakeResultSet(Table table) {
+      this.table = table;
+    }
+
+    @Override
+    public boolean next() {
+      return ++row < table.rows.length;
+    }
+
+    @Override
+    public boolean wasNull() {
+      return wasNull;
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() {
+      return table.metaData;
+    }
+
+    @Override
+    public Object getObject(int column) {
+      Object value = table.rows[row][column - 1];
+      wasNull = value == null;
+      return value;
+    }
+
+    @Override
+    public String getString(int column) {
+      return (String) getObject(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+      wasNull = table.rows[row][column - 1] == null;
+      return table.longs[column - 1][row];
+    }
+
+    @Override
+    public int getInt(int column) {
+      return (int) getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+      wasNull = table.rows[row][column - 1] == null;
+      return table.doubles[column - 1][row];
+    }
+
+    @Override
+    public boolean getBoolean(int column) {
+      return getLong(column) != 0;
+    }
+  }
+
+  private static final class FakeMetaData extends JdbcStubs.ResultSetMetaDataStub {
+    private final Table table;
+
+    FakeMetaData(Table table) {
+      this.table = table;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return table.names.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return table.names[column - 1];
+    }
+
+    @Override
+    public String getColumnLabel(int column) {
+      return table.names[column - 1];
+    }
+
+    @Override
+    public int getColumnType(int column) {
+      return table.types[column - 1];
+    }
+
+    @Override
+    public String getColumnTypeName(int column) {
+      return table.types[column - 1] == Types.BOOLEAN ? "bool" : "unknown";
+    }
+
+    @Override
+    public int getColumnDisplaySize(int column) {
+      return 16;
+    }
+  }
+}
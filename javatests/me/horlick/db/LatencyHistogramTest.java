@@ -0,0 +1,86 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldRecordSmallValuesExactly() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i);
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(10, snapshot.getCount());
+    assertEquals(5, snapshot.getPercentileNanos(50));
+    assertEquals(10, snapshot.getPercentileNanos(100));
+    assertEquals(5.5, snapshot.getMeanNanos(), 0.001);
+  }
+
+  @Test
+  public void shouldReportLargeValuesWithinThreePercent() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long value = 123_456_789L;
+    histogram.record(value);
+    histogram.record(1);
+
+    long reported = histogram.snapshot().getPercentileNanos(50);
+    assertEquals(1, reported);
+
+    reported = histogram.snapshot().getPercentileNanos(99);
+    assertTrue(Math.abs(reported - value) <= value * 0.03);
+  }
+
+  @Test
+  public void shouldMapEveryValueIntoABucketThatContainsIt() {
+    long[] values = {0, 31, 32, 63, 64, 1000, 1L << 40, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(LatencyHistogram.highestValueIn(bucket) >= value);
+      if (bucket > 0) {
+        assertTrue(LatencyHistogram.highestValueIn(bucket - 1) < value);
+      }
+    }
+  }
+
+  @Test
+  public void shouldMergeSnapshots() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    first.record(10);
+    second.record(20);
+
+    LatencyHistogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+    assertEquals(2, merged.getCount());
+    assertEquals(20, merged.getMaxNanos());
+  }
+
+  @Test
+  public void shouldCountEveryValueRecordedConcurrently() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      // Every thread records the same values, so they collide on the same buckets.
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 100_000; i++) {
+                  histogram.record(1000 + i % 10);
+                }
+              });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(800_000, snapshot.getCount());
+    assertEquals(1009, snapshot.getMaxNanos());
+    assertEquals(1004.5, snapshot.getMeanNanos(), 0.001);
+  }
+}
@@ -0,0 +1,113 @@
+package me.horlick.db;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+  private static final String SELECT_SIDES = "SELECT sides FROM shapes";
+  private static final String INSERT_SHAPE = "INSERT INTO shapes (sides) VALUES (:sides)";
+
+  private Connection connection;
+  private MetricsRegistry registry;
+  private DatabaseClient client;
+
+  @Before
+  public void setUp() {
+    connection = mock(Connection.class);
+    registry = new MetricsRegistry();
+    client =
+        new DatabaseClient(
+            new PooledConnection(connection, 8), null, registry, SlowQueryLog.defaults());
+  }
+
+  @Test
+  public void shouldRecordRowsAndPhasesPerTemplate() throws Exception {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("sides");
+    when(md.getColumnType(1)).thenReturn(Types.INTEGER);
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getMetaData()).thenReturn(md);
+    when(rs.next()).thenReturn(true, true, true, false);
+    PreparedStatement select = mock(PreparedStatement.class);
+    when(select.execute()).thenReturn(true);
+    when(select.getResultSet()).thenReturn(rs);
+    when(connection.prepareStatement(SELECT_SIDES, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(select);
+
+    for (int i = 0; i < 2; i++) {
+      try (Cursor cursor = client.executeStatement(new Statement(SELECT_SIDES, new HashMap<>()))) {
+        while (cursor.next() != null) {}
+      }
+    }
+
+    StatementMetrics.Snapshot metrics = registry.snapshot().getStatement(SELECT_SIDES);
+    assertEquals(2, metrics.getExecutionCount());
+    assertEquals(0, metrics.getErrorCount());
+    // The mock returns three rows the first time, then no more.
+    assertEquals(3, metrics.getRowsReturned());
+    assertEquals(2, metrics.getParseLatency().getCount());
+    assertEquals(2, metrics.getPrepareLatency().getCount());
+    assertEquals(2, metrics.getExecuteLatency().getCount());
+    assertEquals(1, metrics.getFirstRowLatency().getCount());
+    assertEquals(2, metrics.getDrainLatency().getCount());
+  }
+
+  @Test
+  public void shouldKeyByTemplateRatherThanValues() throws SQLException {
+    PreparedStatement insert = mock(PreparedStatement.class);
+    when(insert.getUpdateCount()).thenReturn(1);
+    when(connection.prepareStatement(
+            "INSERT INTO shapes (sides) VALUES (?)", TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(insert);
+
+    DatabaseTransaction tx = client.begin();
+    for (int sides = 3; sides < 6; sides++) {
+      Map<String, Object> variables = new HashMap<>();
+      variables.put("sides", sides);
+      tx.execute(new Statement(INSERT_SHAPE, variables));
+    }
+    tx.commit();
+
+    MetricsSnapshot snapshot = registry.snapshot();
+    assertEquals(1, snapshot.getStatements().size());
+    assertEquals(3, snapshot.getStatement(INSERT_SHAPE).getExecutionCount());
+    assertEquals(3, snapshot.getStatement(INSERT_SHAPE).getRowsAffected());
+    assertEquals(1, snapshot.getCommitLatency().getCount());
+  }
+
+  @Test
+  public void shouldCountErrors() throws SQLException {
+    PreparedStatement select = mock(PreparedStatement.class);
+    when(select.execute()).thenThrow(new SQLException("relation does not exist"));
+    when(connection.prepareStatement(SELECT_SIDES, TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(select);
+
+    try {
+      client.executeStatement(new Statement(SELECT_SIDES, Collections.emptyMap()));
+      fail("Expecting exception");
+    } catch (RuntimeException ignored) {
+    }
+
+    StatementMetrics.Snapshot metrics = registry.snapshot().getStatement(SELECT_SIDES);
+    assertEquals(1, metrics.getErrorCount());
+    assertEquals(0, metrics.getExecutionCount());
+  }
+}
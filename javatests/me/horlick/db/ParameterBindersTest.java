@@ -0,0 +1,191 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParameterBindersTest {
+
+  private enum Shape {
+    TRIANGLE,
+    SQUARE {
+      @Override
+      public String toString() {
+        return "square";
+      }
+    }
+  }
+
+  private interface Measurement {
+    double getValue();
+  }
+
+  private static final class Metres implements Measurement {
+    private final double value;
+
+    Metres(double value) {
+      this.value = value;
+    }
+
+    @Override
+    public double getValue() {
+      return value;
+    }
+  }
+
+  private static final class Point {}
+
+  private PreparedStatement statement;
+
+  @Before
+  public void setUp() {
+    statement = mock(PreparedStatement.class);
+  }
+
+  private void bind(Object value) throws SQLException {
+    ParameterBinders.forClass(value.getClass()).bind(statement, 1, value);
+  }
+
+  @Test
+  public void shouldBindPrimitivesWithTypedSetters() throws SQLException {
+    bind(42L);
+    bind(7);
+    bind(true);
+    bind("text");
+    bind(1.5);
+    bind(new BigDecimal("1.25"));
+
+    verify(statement).setLong(1, 42L);
+    verify(statement).setInt(1, 7);
+    verify(statement).setBoolean(1, true);
+    verify(statement).setString(1, "text");
+    verify(statement).setDouble(1, 1.5);
+    verify(statement).setBigDecimal(1, new BigDecimal("1.25"));
+    verify(statement, never()).setObject(1, 42L);
+  }
+
+  @Test
+  public void shouldBindNaNAsNull() throws SQLException {
+    bind(Double.NaN);
+    bind(Float.NaN);
+
+    verify(statement).setNull(1, Types.DOUBLE);
+    verify(statement).setNull(1, Types.REAL);
+  }
+
+  @Test
+  public void shouldBindTimestampsInUtc() throws SQLException {
+    Instant instant = Instant.parse("2017-03-04T05:06:07.123456Z");
+    bind(instant);
+    bind(TimestampUtils.fromInstant(instant));
+
+    verify(statement, times(2))
+        .setTimestamp(eq(1), eq(java.sql.Timestamp.from(instant)), any(Calendar.class));
+  }
+
+  @Test
+  public void shouldBindUuidsAndEnumsAsOther() throws SQLException {
+    UUID uuid = UUID.randomUUID();
+    bind(uuid);
+    bind(Shape.TRIANGLE);
+    bind(Shape.SQUARE);
+
+    verify(statement).setObject(1, uuid, Types.OTHER);
+    verify(statement).setObject(1, "TRIANGLE", Types.OTHER);
+    verify(statement).setObject(1, "SQUARE", Types.OTHER);
+  }
+
+  @Test
+  public void shouldBindBytes() throws SQLException {
+    byte[] bytes = {1, 2, 3};
+    bind(bytes);
+
+    verify(statement).setBytes(1, bytes);
+  }
+
+  @Test
+  public void shouldBindRemainingBytesOfBuffer() throws SQLException {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0, 1, 2, 3});
+    buffer.get();
+    bind(buffer);
+
+    verify(statement).setBytes(eq(1), any(byte[].class));
+    assertEquals(3, buffer.remaining());
+  }
+
+  @Test
+  public void shouldBindCollectionsAsArrays() throws SQLException {
+    bind(new long[] {1, 2, 3});
+    bind(Arrays.asList("a", "b"));
+
+    verify(statement).setObject(1, "{1,2,3}", Types.OTHER);
+    verify(statement).setObject(1, "{\"a\",\"b\"}", Types.OTHER);
+  }
+
+  @Test
+  public void shouldFallBackToSetObject() throws SQLException {
+    LocalDate date = LocalDate.of(2017, 3, 4);
+    bind(date);
+
+    verify(statement).setObject(1, date);
+  }
+
+  @Test
+  public void shouldUseRegisteredBinders() throws SQLException {
+    ParameterBinders.register(
+        Measurement.class, (ps, index, value) -> ps.setDouble(index, value.getValue()));
+    ParameterBinders.register(Point.class, (ps, index, value) -> ps.setString(index, "(0,0)"));
+
+    bind(new Metres(2.5));
+    bind(new Point());
+
+    verify(statement).setDouble(1, 2.5);
+    verify(statement).setString(1, "(0,0)");
+    try {
+      ParameterBinders.register(Point.class, (ps, index, value) -> {});
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void shouldResolveBinderOncePerClass() {
+    assertSame(ParameterBinders.forClass(Long.class), ParameterBinders.forClass(Long.class));
+  }
+
+  @Test
+  public void templateShouldRebindWhenClassChanges() throws SQLException {
+    StatementTemplate template =
+        StatementTemplate.of("SELECT * FROM shapes WHERE name = :name OR sides = :sides");
+
+    template.setParameters(statement, new Object[] {"square", 4});
+    template.setParameters(statement, new Object[] {"triangle", 3L});
+    template.setParameters(statement, new Object[] {null, 5L});
+
+    verify(statement).setString(1, "square");
+    verify(statement).setInt(2, 4);
+    verify(statement).setString(1, "triangle");
+    verify(statement).setLong(2, 3L);
+    verify(statement).setNull(1, Types.NULL);
+    verify(statement).setLong(2, 5L);
+  }
+}
@@ -0,0 +1,171 @@
+package me.horlick.db;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class PartitionedScanTest {
+
+  private static final StatementTemplate SCAN_SHAPES =
+      StatementTemplate.of("SELECT id FROM shapes WHERE id >= :lower AND id < :upper");
+
+  private static final String SNAPSHOT_ID = "00000003-0000001B-1";
+
+  // Every connection handed out, the first of which exports the snapshot.
+  private final List<Connection> connections = Collections.synchronizedList(new ArrayList<>());
+  private final List<java.sql.Statement> statements =
+      Collections.synchronizedList(new ArrayList<>());
+
+  // A client whose connection exports a snapshot and returns two rows from any query.
+  private DatabaseClient newClient() {
+    try {
+      ResultSet snapshot = mock(ResultSet.class);
+      when(snapshot.next()).thenReturn(true);
+      when(snapshot.getString(1)).thenReturn(SNAPSHOT_ID);
+      java.sql.Statement statement = mock(java.sql.Statement.class);
+      when(statement.executeQuery("SELECT pg_export_snapshot()")).thenReturn(snapshot);
+
+      ResultSetMetaData md = mock(ResultSetMetaData.class);
+      when(md.getColumnCount()).thenReturn(1);
+      when(md.getColumnName(1)).thenReturn("id");
+      when(md.getColumnType(1)).thenReturn(Types.BIGINT);
+      ResultSet rs = mock(ResultSet.class);
+      when(rs.getMetaData()).thenReturn(md);
+      when(rs.next()).thenReturn(true, true, false);
+      when(rs.getLong(1)).thenReturn(1L, 2L);
+      PreparedStatement query = mock(PreparedStatement.class);
+      when(query.execute()).thenReturn(true);
+      when(query.getResultSet()).thenReturn(rs);
+
+      Connection connection = mock(Connection.class);
+      when(connection.createStatement()).thenReturn(statement);
+      when(connection.prepareStatement(
+              any(String.class), eq(TYPE_FORWARD_ONLY), eq(CONCUR_READ_ONLY)))
+          .thenReturn(query);
+      synchronized (connections) {
+        connections.add(connection);
+        statements.add(statement);
+      }
+      return new DatabaseClient(connection);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  public void rangesShouldCoverEveryKey() {
+    List<Statement> partitions =
+        Partitioning.ranges("lower", "upper", 0, 10, 3).statements(SCAN_SHAPES.bind());
+
+    assertEquals(3, partitions.size());
+    assertBounds(partitions.get(0), 0L, 4L);
+    assertBounds(partitions.get(1), 4L, 7L);
+    assertBounds(partitions.get(2), 7L, 10L);
+  }
+
+  @Test
+  public void hashShouldBindModulusAndRemainder() {
+    List<Statement> partitions =
+        Partitioning.hash("modulus", "remainder", 4)
+            .statements(
+                StatementTemplate.of(
+                        "SELECT * FROM shapes"
+                            + " WHERE mod(abs(hashtext(name)), :modulus) = :remainder")
+                    .bind());
+
+    assertEquals(4, partitions.size());
+    for (int i = 0; i < 4; i++) {
+      Object[] values = partitions.get(i).getSlotValues();
+      assertEquals(4, values[0]);
+      assertEquals(i, values[1]);
+    }
+  }
+
+  @Test
+  public void ctidShouldLeaveLastRangeUnbounded() {
+    List<Statement> partitions =
+        Partitioning.ctid("lower", "upper", 100, 2)
+            .statements(
+                StatementTemplate.of(
+                        "SELECT * FROM shapes"
+                            + " WHERE ctid >= CAST(:lower AS tid) AND ctid < CAST(:upper AS tid)")
+                    .bind());
+
+    assertBounds(partitions.get(0), "(0,0)", "(50,0)");
+    assertBounds(partitions.get(1), "(50,0)", "(4294967295,0)");
+  }
+
+  @Test
+  public void shouldRejectEmptyRange() {
+    try {
+      Partitioning.ranges("lower", "upper", 10, 10, 2);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void shouldReadEveryPartitionInOneSnapshot() throws Exception {
+    List<Statement> partitions =
+        Partitioning.ranges("lower", "upper", 0, 100, 4).statements(SCAN_SHAPES.bind());
+
+    List<Long> ids;
+    try (Stream<Row> rows = new PartitionedScan(this::newClient, partitions).stream()) {
+      ids = rows.map(row -> row.getLong("id")).collect(Collectors.toList());
+    }
+
+    // Two rows from each partition, read on one connection each besides the exporter's.
+    assertEquals(8, ids.size());
+    assertEquals(5, connections.size());
+    for (int i = 1; i < connections.size(); i++) {
+      verify(statements.get(i)).execute("SET TRANSACTION SNAPSHOT '" + SNAPSHOT_ID + "'");
+    }
+    for (Connection connection : connections) {
+      verify(connection).setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+      verify(connection).rollback();
+      verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    }
+  }
+
+  @Test
+  public void shouldEndSnapshotWhenClosedEarly() throws Exception {
+    List<Statement> partitions =
+        Partitioning.ranges("lower", "upper", 0, 100, 4).statements(SCAN_SHAPES.bind());
+
+    try (Stream<Row> rows = new PartitionedScan(this::newClient, partitions).stream()) {
+      rows.sequential().findFirst();
+    }
+
+    // The exporter and the one partition that was started.
+    assertEquals(2, connections.size());
+    for (Connection connection : connections) {
+      verify(connection).rollback();
+    }
+  }
+
+  // The lower bound is the first placeholder of each scan, and the upper bound the second.
+  private static void assertBounds(Statement statement, Object lower, Object upper) {
+    Object[] values = statement.getSlotValues();
+    assertEquals(lower, values[0]);
+    assertEquals(upper, values[1]);
+  }
+}
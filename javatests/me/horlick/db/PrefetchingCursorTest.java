@@ -0,0 +1,304 @@
+package me.horlick.db;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingCursorTest {
+
+  // The rows of the result, or -1 for an endless result.
+  private int rowCount;
+
+  // Rows from this one onwards block until released or the statement is cancelled, or 0 if none
+  // do.
+  private int blockingRow;
+
+  // Rows from this one onwards fail, or 0 if none do.
+  private int failingRow;
+
+  private final AtomicInteger rowsRead = new AtomicInteger();
+  private final CountDownLatch blocked = new CountDownLatch(1);
+  private final CountDownLatch released = new CountDownLatch(1);
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+  private volatile boolean resultSetClosed = false;
+
+  private boolean inTransaction = false;
+  private long closeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+  private RowLayout layout;
+
+  @Before
+  public void setUp() throws SQLException {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("id");
+    when(md.getColumnType(1)).thenReturn(Types.BIGINT);
+    layout = RowLayout.fromMetaData(md);
+  }
+
+  // A result whose rows have ids counting up from one. Mocks aren't safe to use from two threads,
+  // so the ResultSet and PreparedStatement are proxies.
+  private PrefetchingCursor newCursor(int batchSize, int depth) {
+    ResultSet rs =
+        (ResultSet)
+            Proxy.newProxyInstance(
+                ResultSet.class.getClassLoader(),
+                new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "next":
+                      int row = rowsRead.get() + 1;
+                      if (blockingRow > 0 && row >= blockingRow) {
+                        blocked.countDown();
+                        released.await();
+                        if (cancelled.getCount() == 0) {
+                          throw new SQLException("canceling statement", "57014");
+                        }
+                      }
+                      if (failingRow > 0 && row >= failingRow) {
+                        throw new SQLException("connection reset", "08006");
+                      }
+                      if (rowCount >= 0 && row > rowCount) {
+                        return false;
+                      }
+                      rowsRead.incrementAndGet();
+                      return true;
+                    case "getLong":
+                      return (long) rowsRead.get();
+                    case "wasNull":
+                      return false;
+                    case "close":
+                      resultSetClosed = true;
+                      return null;
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    PreparedStatement statement =
+        (PreparedStatement)
+            Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                  if (method.getName().equals("cancel")) {
+                    cancelled.countDown();
+                    released.countDown();
+                    return null;
+                  }
+                  throw new UnsupportedOperationException(method.getName());
+                });
+    ResultSetCursor source =
+        new ResultSetCursor(
+            rs,
+            layout,
+            new CachedStatement(
+                new PreparedStatementCache(mock(Connection.class), 1),
+                "SELECT id FROM shapes",
+                statement));
+    return new PrefetchingCursor(
+        source,
+        batchSize,
+        depth,
+        inTransaction,
+        closeTimeoutNanos,
+        command -> new Thread(command).start());
+  }
+
+  @Test
+  public void shouldReadEveryRowInOrder() {
+    rowCount = 5;
+    PrefetchingCursor cursor = newCursor(2, 1);
+
+    for (long id = 1; id <= 5; id++) {
+      assertEquals(id, cursor.next().getLong("id"));
+    }
+    assertNull(cursor.next());
+    assertNull(cursor.next());
+    cursor.close();
+
+    assertTrue(resultSetClosed);
+    assertEquals(1, cancelled.getCount());
+  }
+
+  @Test
+  public void shouldStopReadingWhenQueueIsFull() throws Exception {
+    rowCount = -1;
+    PrefetchingCursor cursor = newCursor(3, 2);
+
+    // Two batches wait in the queue, and a third waits for space.
+    awaitRowsRead(9);
+    Thread.sleep(50);
+    assertEquals(9, rowsRead.get());
+
+    assertEquals(1L, cursor.next().getLong("id"));
+    awaitRowsRead(12);
+
+    // Closing while the fetcher waits for space doesn't need to cancel the statement.
+    cursor.close();
+    assertTrue(resultSetClosed);
+    assertEquals(1, cancelled.getCount());
+  }
+
+  @Test
+  public void closeShouldCancelStatementBeingRead() throws Exception {
+    rowCount = -1;
+    blockingRow = 3;
+    PrefetchingCursor cursor = newCursor(10, 1);
+
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    cursor.close();
+
+    assertEquals(0, cancelled.getCount());
+    assertEquals(2, rowsRead.get());
+    assertTrue(resultSetClosed);
+  }
+
+  @Test
+  public void closeShouldWaitForRowBeingReadInTransaction() throws Exception {
+    rowCount = -1;
+    blockingRow = 3;
+    inTransaction = true;
+    PrefetchingCursor cursor = newCursor(10, 1);
+
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    Thread closer = new Thread(cursor::close);
+    closer.start();
+    while (closer.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    released.countDown();
+    closer.join(TimeUnit.SECONDS.toMillis(10));
+
+    // The row being read arrives, and no more are read.
+    assertFalse(closer.isAlive());
+    assertEquals(3, rowsRead.get());
+    assertEquals(1, cancelled.getCount());
+    assertTrue(resultSetClosed);
+    try {
+      cursor.next();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void closeShouldCancelReadThatOutlastsTimeoutInTransaction() throws Exception {
+    rowCount = -1;
+    blockingRow = 3;
+    inTransaction = true;
+    closeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    PrefetchingCursor cursor = newCursor(10, 1);
+
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+    cursor.close();
+
+    assertEquals(0, cancelled.getCount());
+    assertTrue(resultSetClosed);
+  }
+
+  @Test
+  public void transactionShouldCarryOnAfterEarlyClose() throws Exception {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("id");
+    when(md.getColumnType(1)).thenReturn(Types.BIGINT);
+    ResultSet events = mock(ResultSet.class);
+    when(events.getMetaData()).thenReturn(md);
+    when(events.next()).thenReturn(true);
+    when(events.getLong(1)).thenReturn(1L);
+    PreparedStatement scan = mock(PreparedStatement.class);
+    when(scan.execute()).thenReturn(true);
+    when(scan.getResultSet()).thenReturn(events);
+
+    ResultSet count = mock(ResultSet.class);
+    when(count.getMetaData()).thenReturn(md);
+    when(count.next()).thenReturn(true, false);
+    when(count.getLong(1)).thenReturn(42L);
+    PreparedStatement countEvents = mock(PreparedStatement.class);
+    when(countEvents.execute()).thenReturn(true);
+    when(countEvents.getResultSet()).thenReturn(count);
+
+    Connection connection = mock(Connection.class);
+    when(connection.prepareStatement(
+            any(String.class), eq(TYPE_FORWARD_ONLY), eq(CONCUR_READ_ONLY)))
+        .thenReturn(scan, countEvents);
+    DatabaseClient client = new DatabaseClient(connection);
+    DatabaseTransaction tx = client.begin();
+
+    Statement scanEvents = StatementTemplate.of("SELECT id FROM events").bind().build();
+    try (PrefetchingCursor cursor = client.executePrefetching(scanEvents, 10, 1)) {
+      assertEquals(1L, cursor.next().getLong("id"));
+    }
+    verify(scan, never()).cancel();
+    verify(events).close();
+
+    Statement countAll = StatementTemplate.of("SELECT count(*) AS id FROM events").bind().build();
+    try (Cursor cursor = tx.query(countAll)) {
+      assertEquals(42L, cursor.next().getLong("id"));
+    }
+    tx.commit();
+    verify(connection).commit();
+  }
+
+  @Test
+  public void shouldReportFailureAfterEarlierRows() {
+    rowCount = -1;
+    failingRow = 3;
+    PrefetchingCursor cursor = newCursor(1, 4);
+
+    assertEquals(1L, cursor.next().getLong("id"));
+    assertEquals(2L, cursor.next().getLong("id"));
+    try {
+      cursor.next();
+      fail();
+    } catch (RuntimeException expected) {
+      assertTrue(expected.getCause().getCause() instanceof SQLException);
+    }
+    cursor.close();
+    assertTrue(resultSetClosed);
+  }
+
+  @Test
+  public void shouldRejectNonPositiveDepth() {
+    rowCount = 0;
+    try {
+      newCursor(1, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertFalse(resultSetClosed);
+  }
+
+  private void awaitRowsRead(int rows) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (rowsRead.get() < rows) {
+      if (System.nanoTime() > deadline) {
+        fail("Only " + rowsRead.get() + " of " + rows + " rows were read");
+      }
+      Thread.sleep(1);
+    }
+  }
+}
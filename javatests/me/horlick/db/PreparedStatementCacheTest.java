@@ -0,0 +1,84 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreparedStatementCacheTest {
+
+  private Connection connection;
+
+  @Before
+  public void setUp() throws SQLException {
+    connection = mock(Connection.class);
+    when(connection.prepareStatement(anyString(), anyInt(), anyInt()))
+        .thenReturn(
+            mock(PreparedStatement.class),
+            mock(PreparedStatement.class),
+            mock(PreparedStatement.class));
+  }
+
+  @Test
+  public void shouldReuseReleasedStatement() throws SQLException {
+    PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+
+    CachedStatement first = cache.acquire("SELECT 1");
+    first.release();
+    CachedStatement second = cache.acquire("SELECT 1");
+
+    assertSame(first.get(), second.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    verify(first.get()).clearParameters();
+  }
+
+  @Test
+  public void shouldPrepareNewStatementWhileFirstIsInUse() throws SQLException {
+    PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+
+    CachedStatement first = cache.acquire("SELECT 1");
+    CachedStatement second = cache.acquire("SELECT 1");
+
+    assertNotSame(first.get(), second.get());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void shouldCloseLeastRecentlyUsedStatementWhenFull() throws SQLException {
+    PreparedStatementCache cache = new PreparedStatementCache(connection, 1);
+
+    CachedStatement first = cache.acquire("SELECT 1");
+    first.release();
+    CachedStatement second = cache.acquire("SELECT 2");
+    second.release();
+
+    verify(first.get()).close();
+    verify(second.get(), never()).close();
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void shouldCloseAllStatementsOnClose() throws SQLException {
+    PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+
+    CachedStatement first = cache.acquire("SELECT 1");
+    first.release();
+    cache.close();
+
+    verify(first.get()).close();
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,265 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class ReplicaRouterTest {
+
+  private static final ConnectionPoolConfig POOL_CONFIG =
+      ConnectionPoolConfig.newBuilder().setMinSize(0).setMaxSize(32).build();
+
+  // The lag reported by each replica's connections, keyed by connection. Probes run on other
+  // threads.
+  private final Map<Connection, Long> lagMillis = new ConcurrentHashMap<>();
+  private final List<ReplicaRouter.Replica> replicas = new ArrayList<>();
+  private ReplicaRouter router;
+
+  private ReplicaRouter.Replica replica(String name, long lag) {
+    return replica(name, lag, POOL_CONFIG);
+  }
+
+  private ReplicaRouter.Replica replica(String name, long lag, ConnectionPoolConfig config) {
+    ConnectionPool.Connector connector =
+        () -> {
+          Connection connection = mock(Connection.class);
+          lagMillis.put(connection, lag);
+          return connection;
+        };
+    ReplicaRouter.Replica replica =
+        new ReplicaRouter.Replica(name, new ConnectionPool(connector, config), connector);
+    replicas.add(replica);
+    return replica;
+  }
+
+  private ReplicaRouter.Replica unreachableReplica(String name) {
+    ConnectionPool.Connector connector =
+        () -> {
+          throw new SQLException("Connection refused", "08001");
+        };
+    ReplicaRouter.Replica replica =
+        new ReplicaRouter.Replica(name, new ConnectionPool(connector, POOL_CONFIG), connector);
+    replicas.add(replica);
+    return replica;
+  }
+
+  private ReplicaRouter createRouter() {
+    router =
+        new ReplicaRouter(
+            replicas,
+            (connection, timeoutSeconds) -> lagMillis.get(connection),
+            Duration.ofSeconds(10),
+            Duration.ofMinutes(1),
+            Duration.ZERO,
+            new Random(42));
+    return router;
+  }
+
+  @After
+  public void tearDown() {
+    if (router != null) {
+      router.close();
+    }
+  }
+
+  @Test
+  public void shouldPreferFasterReplica() {
+    ReplicaRouter.Replica slow = replica("slow", 0);
+    ReplicaRouter.Replica fast = replica("fast", 0);
+    createRouter();
+    slow.recordLatency(10_000_000);
+    fast.recordLatency(1_000_000);
+
+    for (int i = 0; i < 10; i++) {
+      assertSame(fast, router.choose(Collections.emptyList()));
+    }
+  }
+
+  @Test
+  public void shouldSpreadLoadAwayFromBusyReplica() {
+    ReplicaRouter.Replica slow = replica("slow", 0);
+    ReplicaRouter.Replica fast = replica("fast", 0);
+    createRouter();
+    slow.recordLatency(10_000_000);
+    fast.recordLatency(1_000_000);
+
+    // Once ten clients are using the fast replica it costs more than the idle slow one.
+    List<ReplicaRouter.Lease> leases = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      leases.add(router.borrow());
+    }
+    assertEquals(10, fast.getActiveCount());
+    assertSame(slow, router.choose(Collections.emptyList()));
+
+    for (ReplicaRouter.Lease lease : leases) {
+      lease.release();
+    }
+    assertEquals(0, fast.getActiveCount());
+    assertSame(fast, router.choose(Collections.emptyList()));
+  }
+
+  @Test
+  public void shouldAverageLatency() {
+    ReplicaRouter.Replica replica = replica("replica", 0);
+    createRouter();
+
+    replica.recordLatency(1000);
+    assertEquals(1000.0, replica.getLatencyNanos());
+    replica.recordLatency(2000);
+    assertEquals(1200.0, replica.getLatencyNanos(), 1e-6);
+  }
+
+  @Test
+  public void shouldEjectReplicaAfterConsecutiveFailures() {
+    ReplicaRouter.Replica down = unreachableReplica("down");
+    createRouter();
+
+    for (int i = 0; i < ReplicaRouter.MAX_CONSECUTIVE_FAILURES; i++) {
+      assertTrue(down.isAvailable(System.nanoTime()));
+      assertNull(router.borrow());
+    }
+
+    assertFalse(down.isAvailable(System.nanoTime()));
+    assertNull(router.choose(Collections.emptyList()));
+  }
+
+  @Test
+  public void shouldTryAnotherReplicaWhenBorrowFails() {
+    unreachableReplica("down");
+    ReplicaRouter.Replica up = replica("up", 0);
+    createRouter();
+
+    ReplicaRouter.Lease lease = router.borrow();
+
+    assertNotNull(lease);
+    assertEquals(1, up.getActiveCount());
+  }
+
+  @Test
+  public void shouldResetFailuresAfterSuccess() {
+    ReplicaRouter.Replica replica = replica("replica", 0);
+    createRouter();
+
+    router.recordFailure(replica);
+    router.recordFailure(replica);
+    replica.recordLatency(1000);
+    router.recordFailure(replica);
+
+    assertTrue(replica.isAvailable(System.nanoTime()));
+  }
+
+  @Test
+  public void shouldTreatExhaustedPoolAsBusy() {
+    ReplicaRouter.Replica busy =
+        replica(
+            "busy",
+            0,
+            ConnectionPoolConfig.newBuilder()
+                .setMinSize(0)
+                .setMaxSize(1)
+                .setAcquireTimeout(Duration.ofMinutes(1))
+                .build());
+    createRouter();
+
+    assertNotNull(router.borrow());
+    long start = System.nanoTime();
+    for (int i = 0; i < ReplicaRouter.MAX_CONSECUTIVE_FAILURES; i++) {
+      assertNull(router.borrow());
+    }
+
+    // Falling back doesn't wait for the acquire timeout.
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertTrue(busy.isAvailable(System.nanoTime()));
+  }
+
+  @Test
+  public void shouldCheckHealthOutsideReplicaPool() {
+    ReplicaRouter.Replica busy =
+        replica(
+            "busy",
+            0,
+            ConnectionPoolConfig.newBuilder()
+                .setMinSize(0)
+                .setMaxSize(1)
+                .setAcquireTimeout(Duration.ofMillis(1))
+                .build());
+    createRouter();
+    assertNotNull(router.borrow());
+
+    router.checkHealth();
+
+    assertTrue(busy.isHealthy());
+  }
+
+  @Test
+  public void shouldExcludeLaggingReplica() {
+    ReplicaRouter.Replica behind = replica("behind", 60_000);
+    ReplicaRouter.Replica current = replica("current", 0);
+    createRouter();
+
+    router.checkHealth();
+
+    assertFalse(behind.isHealthy());
+    assertEquals(60_000, behind.getLagMillis());
+    assertTrue(current.isHealthy());
+    for (int i = 0; i < 10; i++) {
+      assertSame(current, router.choose(Collections.emptyList()));
+    }
+  }
+
+  @Test
+  public void shouldMarkUnreachableReplicaUnhealthy() {
+    ReplicaRouter.Replica down = unreachableReplica("down");
+    createRouter();
+
+    router.checkHealth();
+
+    assertFalse(down.isHealthy());
+    assertNull(router.borrow());
+  }
+
+  @Test
+  public void readOnlyClientShouldRejectWrites() {
+    DatabaseClient client =
+        new DatabaseClient(
+            new PooledConnection(mock(Connection.class), 8),
+            null,
+            new MetricsRegistry(),
+            SlowQueryLog.defaults());
+    client.setReadOnly(null);
+
+    assertTrue(client.isReadOnly());
+    try {
+      client.begin();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      client.executeStatement(
+          StatementTemplate.of("DELETE FROM shapes WHERE sides = :sides")
+              .bind()
+              .set("sides", 3)
+              .build());
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package me.horlick.db;
+
+import static java.sql.ResultSet.CONCUR_READ_ONLY;
+import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  private static final StatementTemplate SELECT_SHAPE =
+      StatementTemplate.of("SELECT sides FROM shapes WHERE name = :name");
+  private static final StatementTemplate UPDATE_SHAPE =
+      StatementTemplate.of("UPDATE shapes SET sides = :sides WHERE name = :name");
+
+  private Connection connection;
+  private PreparedStatement select;
+  private ResultCache cache;
+  private DatabaseClient client;
+
+  @Before
+  public void setUp() throws SQLException {
+    connection = mock(Connection.class);
+    select = mock(PreparedStatement.class);
+    when(select.execute()).thenReturn(true);
+    when(select.getResultSet())
+        .thenReturn(resultSet(), resultSet(), resultSet(), resultSet(), resultSet());
+    when(connection.prepareStatement(
+            SELECT_SHAPE.getParameterisedSql(), TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(select);
+    PreparedStatement update = mock(PreparedStatement.class);
+    when(update.executeBatch()).thenReturn(new int[] {1});
+    when(connection.prepareStatement(
+            UPDATE_SHAPE.getParameterisedSql(), TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(update);
+
+    cache = ResultCache.newBuilder().build();
+    client = clientWith(cache);
+  }
+
+  private DatabaseClient clientWith(ResultCache cache) {
+    return new DatabaseClient(
+        new PooledConnection(connection, 8),
+        null,
+        new MetricsRegistry(),
+        SlowQueryLog.defaults(),
+        cache);
+  }
+
+  // A result set with a single row.
+  private static ResultSet resultSet() throws SQLException {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("sides");
+    when(md.getColumnType(1)).thenReturn(Types.INTEGER);
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getMetaData()).thenReturn(md);
+    when(rs.next()).thenReturn(true, false);
+    when(rs.getLong(1)).thenReturn(4L);
+    return rs;
+  }
+
+  private static Statement selectShape(String name) {
+    return SELECT_SHAPE.bind().set("name", name).build().withTables("Shapes");
+  }
+
+  private static List<Row> readAll(Cursor cursor) throws Exception {
+    List<Row> rows = new ArrayList<>();
+    try (Cursor c = cursor) {
+      Row row;
+      while ((row = c.next()) != null) {
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+
+  @Test
+  public void shouldAnswerRepeatedReadsFromTheCache() throws Exception {
+    List<Row> first = readAll(client.executeStatement(selectShape("square")));
+    List<Row> second = readAll(client.executeStatement(selectShape("square")));
+    readAll(client.executeStatement(selectShape("triangle")));
+
+    verify(select, times(2)).execute();
+    assertEquals(4, first.get(0).getLong("sides"));
+    assertEquals(4, second.get(0).getLong("sides"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void shouldNotCacheReadsWithoutTables() throws Exception {
+    readAll(client.executeStatement(SELECT_SHAPE.bind().set("name", "square").build()));
+    readAll(client.executeStatement(SELECT_SHAPE.bind().set("name", "square").build()));
+
+    verify(select, times(2)).execute();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void shouldBypassCacheInSnapshotTransactions() throws Exception {
+    readAll(client.executeStatement(selectShape("square")));
+
+    // A serializable transaction must read from its own snapshot, and must not cache what it sees.
+    client.runInTransaction(
+        IsolationLevel.SERIALIZABLE,
+        tx -> {
+          readAll(tx.query(selectShape("square")));
+          readAll(tx.query(selectShape("triangle")));
+          return null;
+        });
+    verify(select, times(3)).execute();
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.size());
+
+    // Back at READ COMMITTED, the cache answers again.
+    readAll(client.executeStatement(selectShape("square")));
+    verify(select, times(3)).execute();
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void shouldInvalidateReadsOfWrittenTablesOnCommit() throws Exception {
+    readAll(client.executeStatement(selectShape("square")));
+
+    DatabaseTransaction tx = client.begin();
+    tx.execute(
+        UPDATE_SHAPE.bind().set("sides", 5).set("name", "square").build().withTables("shapes"));
+
+    // The transaction's own write isn't in the cache, so its reads go to the database.
+    readAll(tx.query(selectShape("square")));
+    verify(select, times(2)).execute();
+    assertEquals(1, cache.size());
+
+    tx.commit();
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getInvalidationCount());
+
+    readAll(client.executeStatement(selectShape("square")));
+    verify(select, times(3)).execute();
+  }
+
+  @Test
+  public void shouldInvalidateReadsOfTablesWrittenByDeferredWrites() throws Exception {
+    readAll(client.executeStatement(selectShape("square")));
+
+    DatabaseTransaction tx = client.begin();
+    tx.setDeferred(true);
+    tx.execute(
+        UPDATE_SHAPE.bind().set("sides", 5).set("name", "square").build().withTables("shapes"));
+    tx.commit();
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void shouldInvalidateReadsOfBulkLoadedTablesOnCommit() throws Exception {
+    readAll(client.executeStatement(selectShape("square")));
+
+    DatabaseTransaction tx = client.begin();
+    client.newBulkLoader("Shapes", "name", "sides").close();
+    readAll(tx.query(selectShape("square")));
+    verify(select, times(2)).execute();
+    tx.commit();
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void shouldExpireEntries() throws Exception {
+    client = clientWith(ResultCache.newBuilder().setTtl(Duration.ofNanos(1)).build());
+
+    readAll(client.executeStatement(selectShape("square")));
+    Thread.sleep(1);
+    readAll(client.executeStatement(selectShape("square")));
+
+    verify(select, times(2)).execute();
+  }
+
+  @Test
+  public void shouldNotCacheResultsReadWhileTheirTablesWereInvalidated() {
+    Object[] values = {"square"};
+    long generation = cache.generation(Collections.singleton("shapes"));
+    cache.invalidate("shapes");
+    cache.put(
+        SELECT_SHAPE, values, Collections.singleton("shapes"), new ArrayList<>(), 0, generation);
+
+    assertNull(cache.get(SELECT_SHAPE, values));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesToStayUnderTheLimit() {
+    // Each empty result weighs 144 bytes, and results over an eighth of the limit aren't cached.
+    cache = ResultCache.newBuilder().setMaxWeightBytes(8 * 150).build();
+    for (int i = 0; i < 8; i++) {
+      cache.put(
+          SELECT_SHAPE,
+          new Object[] {"shape " + i},
+          Collections.singleton("shapes"),
+          new ArrayList<>(),
+          0,
+          0);
+      // Keep the first entry in use.
+      assertNotNull(cache.get(SELECT_SHAPE, new Object[] {"shape 0"}));
+    }
+
+    assertEquals(8, cache.size());
+    cache.put(
+        SELECT_SHAPE,
+        new Object[] {"shape 8"},
+        Collections.singleton("shapes"),
+        new ArrayList<>(),
+        0,
+        0);
+
+    assertEquals(8, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertNotNull(cache.get(SELECT_SHAPE, new Object[] {"shape 0"}));
+    assertNull(cache.get(SELECT_SHAPE, new Object[] {"shape 1"}));
+  }
+
+  @Test
+  public void shouldStreamResultsTooLargeToCache() throws Exception {
+    // Room for one row of this layout in a single entry.
+    ResultCache small = ResultCache.newBuilder().setMaxWeightBytes(2048).build();
+    ResultSet rs = resultSet();
+    when(rs.next()).thenReturn(true, true, true, false);
+    when(rs.getLong(1)).thenReturn(3L, 4L, 5L);
+    PreparedStatement large = mock(PreparedStatement.class);
+    when(large.execute()).thenReturn(true);
+    when(large.getResultSet()).thenReturn(rs);
+    connection = mock(Connection.class);
+    when(connection.prepareStatement(
+            SELECT_SHAPE.getParameterisedSql(), TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(large);
+
+    Cursor cursor = clientWith(small).executeStatement(selectShape("any"));
+
+    // Only the rows that might have fit have been read so far.
+    verify(rs, times(2)).next();
+    verify(rs, never()).close();
+    List<Row> rows = readAll(cursor);
+    assertEquals(3, rows.size());
+    assertEquals(5L, rows.get(2).getLong("sides"));
+    verify(rs).close();
+    assertEquals(0, small.size());
+  }
+
+  @Test
+  public void shouldWeighRowsByTheValuesRead() throws Exception {
+    // Room for 8 KiB of rows in a single entry, which a short name fits in but a long one doesn't.
+    ResultCache small = ResultCache.newBuilder().setMaxWeightBytes(64 << 10).build();
+    StatementTemplate selectNames =
+        StatementTemplate.of("SELECT name FROM shapes WHERE sides = :sides");
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(1);
+    when(md.getColumnName(1)).thenReturn("name");
+    when(md.getColumnType(1)).thenReturn(Types.VARCHAR);
+    when(md.getColumnDisplaySize(1)).thenReturn(Integer.MAX_VALUE);
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getMetaData()).thenReturn(md);
+    when(rs.next()).thenReturn(true, false, true, false);
+    when(rs.getObject(1)).thenReturn("square", new String(new char[10_000]));
+    PreparedStatement names = mock(PreparedStatement.class);
+    when(names.execute()).thenReturn(true);
+    when(names.getResultSet()).thenReturn(rs);
+    connection = mock(Connection.class);
+    when(connection.prepareStatement(
+            selectNames.getParameterisedSql(), TYPE_FORWARD_ONLY, CONCUR_READ_ONLY))
+        .thenReturn(names);
+    DatabaseClient client = clientWith(small);
+
+    Statement squares = selectNames.bind().set("sides", 4).build().withTables("shapes");
+    readAll(client.executeStatement(squares));
+    assertEquals(1, small.size());
+
+    Statement pentagons = selectNames.bind().set("sides", 5).build().withTables("shapes");
+    List<Row> rows = readAll(client.executeStatement(pentagons));
+    assertEquals(10_000, rows.get(0).<String>get("name").length());
+    assertEquals(1, small.size());
+    assertTrue(small.getWeightBytes() < 1024);
+  }
+}
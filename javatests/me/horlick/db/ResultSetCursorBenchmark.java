@@ -0,0 +1,114 @@
+package me.horlick.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Measures reading a result of 1000 rows into Rows and reading values back out of them, for narrow
+// and wide rows. rawResultSet reads the same values straight from the fake ResultSet, which is the
+// cost of the fake driver alone.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResultSetCursorBenchmark {
+
+  private static final int ROWS = 1000;
+  private static final String SQL = "SELECT * FROM shapes";
+
+  @Param({"4", "64"})
+  public int columns;
+
+  private FakeJdbc.Table table;
+  private RowLayout layout;
+  private PreparedStatementCache cache;
+  private String[] names;
+  private Column<?>[] handles;
+
+  @Setup
+  public void setUp() throws SQLException {
+    table = FakeJdbc.Table.of(columns, ROWS);
+    layout = RowLayout.fromMetaData(FakeJdbc.metaData(table));
+    Connection connection = FakeJdbc.connection(table);
+    cache = new PreparedStatementCache(connection, 1);
+    names = table.names;
+    handles = new Column<?>[columns];
+    for (int i = 0; i < columns; i++) {
+      handles[i] = Column.of(names[i], Object.class);
+    }
+  }
+
+  private ResultSetCursor cursor() throws SQLException {
+    return new ResultSetCursor(FakeJdbc.resultSet(table), layout, cache.acquire(SQL));
+  }
+
+  @Benchmark
+  public void rawResultSet(Blackhole blackhole) throws SQLException {
+    ResultSet rs = FakeJdbc.resultSet(table);
+    while (rs.next()) {
+      for (int i = 1; i <= columns; i++) {
+        blackhole.consume(rs.getObject(i));
+      }
+    }
+  }
+
+  @Benchmark
+  public void next(Blackhole blackhole) throws Exception {
+    try (ResultSetCursor cursor = cursor()) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        blackhole.consume(row);
+      }
+    }
+  }
+
+  @Benchmark
+  public void nextAndGetByName(Blackhole blackhole) throws Exception {
+    try (ResultSetCursor cursor = cursor()) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        for (String name : names) {
+          blackhole.consume(row.<Object>get(name));
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void nextAndGetByColumn(Blackhole blackhole) throws Exception {
+    try (ResultSetCursor cursor = cursor()) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        for (Column<?> column : handles) {
+          blackhole.consume(row.get(column));
+        }
+      }
+    }
+  }
+
+  // Reads the first column, which is a bigint, without boxing it.
+  @Benchmark
+  public void nextAndGetLong(Blackhole blackhole) throws Exception {
+    try (ResultSetCursor cursor = cursor()) {
+      Row row;
+      while ((row = cursor.next()) != null) {
+        blackhole.consume(row.getLong(handles[0]));
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class ResultSetCursorTest {
+
+  @Test
+  public void shouldStreamRowsAndCloseCursorWithStream() throws SQLException {
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true, true, false);
+    when(rs.getObject(1)).thenReturn("triangle", "square");
+
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    PreparedStatementCache cache = new PreparedStatementCache(mock(Connection.class), 1);
+    ResultSetCursor cursor =
+        new ResultSetCursor(
+            rs,
+            RowLayout.ofObjects(Collections.singletonMap("name", 0)),
+            new CachedStatement(cache, "SELECT name FROM shapes", preparedStatement));
+
+    List<String> names;
+    try (Stream<Row> rows = cursor.stream()) {
+      names = rows.map(row -> row.<String>get("name")).collect(Collectors.toList());
+    }
+
+    assertEquals(2, names.size());
+    verify(rs).close();
+    verify(preparedStatement).clearParameters();
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void shouldReadNumericColumnsWithPrimitiveGetters() throws SQLException {
+    ResultSetMetaData md = mock(ResultSetMetaData.class);
+    when(md.getColumnCount()).thenReturn(3);
+    when(md.getColumnName(1)).thenReturn("id");
+    when(md.getColumnType(1)).thenReturn(Types.BIGINT);
+    when(md.getColumnName(2)).thenReturn("area");
+    when(md.getColumnType(2)).thenReturn(Types.DOUBLE);
+    when(md.getColumnName(3)).thenReturn("sides");
+    when(md.getColumnType(3)).thenReturn(Types.INTEGER);
+
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.next()).thenReturn(true, false);
+    when(rs.getLong(1)).thenReturn(42L);
+    when(rs.getDouble(2)).thenReturn(1.5);
+    when(rs.wasNull()).thenReturn(false, false, true);
+
+    ResultSetCursor cursor =
+        new ResultSetCursor(
+            rs,
+            RowLayout.fromMetaData(md),
+            new CachedStatement(
+                new PreparedStatementCache(mock(Connection.class), 1),
+                "SELECT id, area, sides FROM shapes",
+                mock(PreparedStatement.class)));
+
+    Row row = cursor.next();
+    assertEquals(42L, row.getLong("id"));
+    assertEquals(Long.valueOf(42), row.get("id"));
+    assertEquals(1.5, row.getDouble("area"), 0);
+    assertFalse(row.isNull("area"));
+    assertTrue(row.isNull("sides"));
+    assertNull(row.get("sides"));
+    assertEquals(0, row.getInt("sides"));
+    verify(rs, never()).getObject(1);
+  }
+
+  @Test
+  public void shouldRebuildLayoutWhenColumnTypeChanges() throws Exception {
+    // The same one-column statement returns a bigint and then, once the placeholder is bound to a
+    // string, text.
+    ResultSetMetaData bigint = mock(ResultSetMetaData.class);
+    when(bigint.getColumnCount()).thenReturn(1);
+    when(bigint.getColumnName(1)).thenReturn("v");
+    when(bigint.getColumnType(1)).thenReturn(Types.BIGINT);
+    ResultSetMetaData text = mock(ResultSetMetaData.class);
+    when(text.getColumnCount()).thenReturn(1);
+    when(text.getColumnName(1)).thenReturn("v");
+    when(text.getColumnType(1)).thenReturn(Types.VARCHAR);
+
+    ResultSet first = mock(ResultSet.class);
+    when(first.getMetaData()).thenReturn(bigint);
+    when(first.next()).thenReturn(true, false);
+    when(first.getLong(1)).thenReturn(3L);
+    ResultSet second = mock(ResultSet.class);
+    when(second.getMetaData()).thenReturn(text);
+    when(second.next()).thenReturn(true, false);
+    when(second.getObject(1)).thenReturn("three");
+
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.execute()).thenReturn(true);
+    when(preparedStatement.getResultSet()).thenReturn(first, second);
+    Connection connection = mock(Connection.class);
+    when(connection.prepareStatement(
+            "SELECT ? AS v", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .thenReturn(preparedStatement);
+    StatementTemplate template = StatementTemplate.of("SELECT :v AS v");
+
+    DatabaseClient client = new DatabaseClient(connection);
+    try (Cursor cursor = client.executeStatement(template.bind().set("v", 3L).build())) {
+      assertEquals(3L, cursor.next().getLong("v"));
+    }
+    try (Cursor cursor = client.executeStatement(template.bind().set("v", "three").build())) {
+      assertEquals("three", cursor.next().<String>get("v"));
+    }
+    verify(second, never()).getLong(1);
+  }
+}
@@ -0,0 +1,103 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import com.google.protobuf.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.junit.Test;
+
+public class RowMapperTest {
+
+  public enum Colour {
+    RED,
+    BLUE
+  }
+
+  public static class Shape {
+    private int sides;
+    private String name;
+    private Long areaMm;
+    private Colour colour;
+
+    public void setName(String name) {
+      this.name = "shape:" + name;
+    }
+  }
+
+  private static Map<String, Integer> columns(String... names) {
+    Map<String, Integer> columns = new HashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      columns.put(names[i], i);
+    }
+    return columns;
+  }
+
+  @Test
+  public void shouldMapColumnsToFieldsAndSetters() {
+    Row row =
+        new Row(
+            columns("sides", "name", "area_mm", "colour", "unused"),
+            new Object[] {3, "triangle", 150L, "BLUE", "ignored"});
+
+    Shape shape = RowMapper.of(Shape.class).map(row);
+
+    assertEquals(3, shape.sides);
+    assertEquals("shape:triangle", shape.name);
+    assertEquals(Long.valueOf(150), shape.areaMm);
+    assertSame(Colour.BLUE, shape.colour);
+  }
+
+  @Test
+  public void shouldKeepNullsForBoxedProperties() {
+    Row row = new Row(columns("sides", "area_mm"), new Object[] {null, null});
+
+    Shape shape = RowMapper.of(Shape.class).map(row);
+
+    assertEquals(0, shape.sides);
+    assertNull(shape.areaMm);
+  }
+
+  @Test
+  public void shouldMapColumnsToProtobufMessage() {
+    Row row = new Row(columns("seconds", "nanos"), new Object[] {1500000000L, 42});
+
+    Timestamp timestamp = RowMapper.of(Timestamp.class).map(row);
+
+    assertEquals(1500000000L, timestamp.getSeconds());
+    assertEquals(42, timestamp.getNanos());
+  }
+
+  @Test
+  public void shouldMapEachRowOfCursor() throws Exception {
+    Map<String, Integer> columns = columns("sides", "name");
+    Iterator<Row> rows =
+        Arrays.asList(
+                new Row(columns, new Object[] {3, "triangle"}),
+                new Row(columns, new Object[] {4, "square"}))
+            .iterator();
+    Cursor cursor =
+        new Cursor() {
+          @Override
+          public Row next() {
+            return rows.hasNext() ? rows.next() : null;
+          }
+
+          @Override
+          public void close() {}
+        };
+
+    try (MappedCursor<Shape> shapes = cursor.map(RowMapper.of(Shape.class))) {
+      assertTrue(shapes.hasNext());
+      assertEquals(3, shapes.next().sides);
+      assertEquals(4, shapes.next().sides);
+      assertFalse(shapes.hasNext());
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class RowTest {
+
+  private static final Column<Integer> SIDES = Column.of("sides", Integer.class);
+  private static final Column<String> NAME = Column.of("name", String.class);
+
+  private static Map<String, Integer> columns() {
+    Map<String, Integer> columns = new HashMap<>();
+    columns.put("name", 0);
+    columns.put("sides", 1);
+    return columns;
+  }
+
+  @Test
+  public void shouldReadValuesByHandle() {
+    Row row = new Row(columns(), new Object[] {"triangle", 3});
+
+    assertEquals("triangle", row.get(NAME));
+    assertEquals(Integer.valueOf(3), row.get(SIDES));
+    assertEquals(3L, row.getLong(SIDES));
+  }
+
+  @Test
+  public void rowsWithSameColumnsShouldShareLayout() {
+    Map<String, Integer> columns = columns();
+    Row first = new Row(columns, new Object[] {"triangle", 3});
+    columns.put("colour", 2);
+    Row second = new Row(columns(), new Object[] {"square", 4});
+
+    assertSame(first.getLayout(), second.getLayout());
+    assertEquals(2, second.getLayout().getColumnCount());
+  }
+
+  @Test
+  public void shouldResolveHandleAgainstEachLayout() {
+    Map<String, Integer> reversed = new HashMap<>();
+    reversed.put("sides", 0);
+    reversed.put("name", 1);
+
+    assertEquals(3, new Row(columns(), new Object[] {"triangle", 3}).getInt(SIDES));
+    assertEquals(4, new Row(reversed, new Object[] {4, "square"}).getInt(SIDES));
+  }
+
+  @Test
+  public void shouldReportNullValues() {
+    Row row = new Row(columns(), new Object[] {"point", null});
+
+    assertTrue(row.isNull(SIDES));
+    assertEquals(0, row.getInt("sides"));
+  }
+
+  @Test
+  public void shouldThrowForUnknownColumn() {
+    Row row = new Row(columns(), new Object[] {"triangle", 3});
+    try {
+      row.get(Column.of("colour", String.class));
+      fail("Expecting exception");
+    } catch (RuntimeException ignored) {
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.time.Duration;
+import org.junit.Test;
+
+public class SlowQueryLogTest {
+
+  private static final StatementTemplate SELECT_SHAPE =
+      StatementTemplate.of("SELECT * FROM shapes WHERE name = :name AND sides = :sides");
+  private static final StatementTemplate REPORT =
+      StatementTemplate.of("SELECT count(*) FROM shapes");
+
+  @Test
+  public void shouldUsePerTemplateThresholds() {
+    SlowQueryLog log =
+        SlowQueryLog.newBuilder()
+            .setThreshold(Duration.ofMillis(100))
+            .setThreshold(REPORT, Duration.ofSeconds(5))
+            .build();
+
+    assertFalse(log.isSlow(SELECT_SHAPE, Duration.ofMillis(99).toNanos()));
+    assertTrue(log.isSlow(SELECT_SHAPE, Duration.ofMillis(100).toNanos()));
+    assertFalse(log.isSlow(REPORT, Duration.ofSeconds(1).toNanos()));
+    assertTrue(log.isSlow(REPORT, Duration.ofSeconds(6).toNanos()));
+  }
+
+  @Test
+  public void shouldRateLimitLogs() {
+    SlowQueryLog log = SlowQueryLog.newBuilder().setMaxLogsPerSecond(1).build();
+
+    assertTrue(log.tryAcquireLogPermit());
+    assertFalse(log.tryAcquireLogPermit());
+  }
+
+  @Test
+  public void shouldTruncateParameters() {
+    SlowQueryLog log = SlowQueryLog.newBuilder().setMaxParameterLength(5).build();
+
+    assertEquals(
+        "[E'squ...(9 chars), 4]", log.renderParameters(SELECT_SHAPE, new Object[] {"square", 4}));
+  }
+
+  @Test
+  public void shouldRedactParameters() {
+    SlowQueryLog log = SlowQueryLog.newBuilder().setRedactParameters(true).build();
+
+    assertEquals(
+        "[<String>, <Integer>]",
+        log.renderParameters(SELECT_SHAPE, new Object[] {"square", 4}));
+  }
+
+  @Test
+  public void shouldRejectExplainWithRedactedParameters() {
+    try {
+      SlowQueryLog.newBuilder().setRedactParameters(true).setExplain(true).build();
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
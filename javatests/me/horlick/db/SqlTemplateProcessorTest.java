@@ -0,0 +1,140 @@
+package me.horlick.db;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SqlTemplateProcessorTest {
+
+  private Path output;
+  private DiagnosticCollector<JavaFileObject> diagnostics;
+
+  @Before
+  public void setUp() throws Exception {
+    output = Files.createTempDirectory("sql-template-processor-test");
+    diagnostics = new DiagnosticCollector<>();
+  }
+
+  // Compile a single class with the processor, returning whether compilation succeeded.
+  private boolean compile(String className, String source) throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    JavaFileObject file =
+        new SimpleJavaFileObject(
+            new File(className.replace('.', '/') + ".java").toURI(), JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+          }
+        };
+    try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, UTF_8)) {
+      List<String> options =
+          Arrays.asList(
+              "-classpath",
+              System.getProperty("java.class.path"),
+              "-d",
+              output.toString(),
+              "-s",
+              output.toString());
+      JavaCompiler.CompilationTask task =
+          compiler.getTask(
+              null, files, diagnostics, options, null, Collections.singletonList(file));
+      task.setProcessors(Collections.singletonList(new SqlTemplateProcessor()));
+      return task.call();
+    }
+  }
+
+  private String errors() {
+    StringBuilder errors = new StringBuilder();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.append(diagnostic.getMessage(null)).append('\n');
+      }
+    }
+    return errors.toString();
+  }
+
+  @Test
+  public void shouldGeneratePrecompiledTemplates() throws Exception {
+    boolean compiled =
+        compile(
+            "shapes.ShapeQueries",
+            "package shapes;\n"
+                + "import me.horlick.db.SqlTemplate;\n"
+                + "public class ShapeQueries {\n"
+                + "  @SqlTemplate public static final String INSERT_SHAPE =\n"
+                + "      \"INSERT INTO shapes (sides,regular,name) \"\n"
+                + "          + \"VALUES (:sides,:regular,:sides)\";\n"
+                + "}\n");
+    assertTrue(errors(), compiled);
+
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {output.toUri().toURL()}, getClass().getClassLoader())) {
+      StatementTemplate template =
+          (StatementTemplate)
+              loader.loadClass("shapes.ShapeQueriesTemplates").getField("INSERT_SHAPE").get(null);
+
+      assertEquals(
+          "INSERT INTO shapes (sides,regular,name) VALUES (?,?,?)",
+          template.getParameterisedSql());
+      assertEquals(Arrays.asList("sides", "regular"), template.getSlotNames());
+      assertEquals(0, template.getParameterSlot(2));
+      assertSame(
+          template,
+          StatementTemplate.forSql(
+              "INSERT INTO shapes (sides,regular,name) VALUES (:sides,:regular,:sides)"));
+    }
+  }
+
+  @Test
+  public void shouldRejectMalformedSql() throws Exception {
+    boolean compiled =
+        compile(
+            "shapes.BadQueries",
+            "package shapes;\n"
+                + "import me.horlick.db.SqlTemplate;\n"
+                + "class BadQueries {\n"
+                + "  @SqlTemplate static final String CAST = \"SELECT sides::text FROM shapes\";\n"
+                + "  @SqlTemplate static final String JDBC =\n"
+                + "      \"SELECT * FROM shapes WHERE id = ?\";\n"
+                + "}\n");
+
+    assertFalse(compiled);
+    assertTrue(errors(), errors().contains("Malformed placeholder at character 12"));
+    assertTrue(errors(), errors().contains("must not contain question marks"));
+  }
+
+  @Test
+  public void shouldRejectFieldsThatAreNotConstant() throws Exception {
+    boolean compiled =
+        compile(
+            "shapes.NotConstant",
+            "package shapes;\n"
+                + "import me.horlick.db.SqlTemplate;\n"
+                + "class NotConstant {\n"
+                + "  @SqlTemplate static String SELECT = \"SELECT * FROM shapes\";\n"
+                + "}\n");
+
+    assertFalse(compiled);
+    assertTrue(errors(), errors().contains("static final String"));
+  }
+}
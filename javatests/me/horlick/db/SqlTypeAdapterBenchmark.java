@@ -0,0 +1,66 @@
+package me.horlick.db;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures rendering each supported type as an SQL literal.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SqlTypeAdapterBenchmark {
+
+  @Param({"long", "integer", "double", "boolean", "string", "instant", "timestamp"})
+  public String type;
+
+  private final SqlTypeAdapter adapter = new SqlTypeAdapter();
+  private Object value;
+
+  @Setup
+  public void setUp() {
+    Instant instant = Instant.parse("2017-01-02T03:04:05.123456Z");
+    switch (type) {
+      case "long":
+        value = 1234567890123L;
+        break;
+      case "integer":
+        value = 123456;
+        break;
+      case "double":
+        value = 1234.5678;
+        break;
+      case "boolean":
+        value = true;
+        break;
+      case "string":
+        value = "It's a string with a quote";
+        break;
+      case "instant":
+        value = instant;
+        break;
+      case "timestamp":
+        value = TimestampUtils.fromInstant(instant);
+        break;
+      default:
+        throw new IllegalArgumentException(type);
+    }
+  }
+
+  @Benchmark
+  public String adapt() {
+    return adapter.adapt(value);
+  }
+}
@@ -0,0 +1,78 @@
+package me.horlick.db;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures turning SQL with named placeholders into JDBC SQL and parameters. tokenise and compile
+// are the cost of the first execution of a statement, and parse is the cost of every later one.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StatementParserBenchmark {
+
+  @Param({"1", "8", "64"})
+  public int placeholders;
+
+  // The length of the SQL text around the placeholders.
+  @Param({"short", "long"})
+  public String size;
+
+  private final StatementParser parser = new StatementParser();
+  private String sql;
+  private Statement statement;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder("SELECT id, name, sides FROM shapes WHERE ");
+    for (int i = 0; i < placeholders; i++) {
+      if (i > 0) {
+        builder.append(" OR ");
+      }
+      builder.append("sides = :sides_").append(i);
+    }
+    if (size.equals("long")) {
+      builder.append(" AND name IN (");
+      for (int i = 0; i < 200; i++) {
+        builder.append(i > 0 ? ", " : "").append("'shape number ").append(i).append('\'');
+      }
+      builder.append(')');
+    }
+    sql = builder.toString();
+
+    StatementTemplate template = StatementTemplate.forSql(sql);
+    Object[] values = new Object[template.getSlotCount()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) i;
+    }
+    statement = new Statement(template, values);
+  }
+
+  @Benchmark
+  public List<StatementParser.Token> tokenise() {
+    return parser.tokenise(sql);
+  }
+
+  @Benchmark
+  public StatementTemplate compile() {
+    return StatementTemplate.compile(sql);
+  }
+
+  @Benchmark
+  public StatementParser.ParsedStatement parse() {
+    return parser.parse(statement);
+  }
+}
@@ -70,6 +70,17 @@ public class StatementParserTest {
     assertEquals(Arrays.asList(new SqlVariable("sides_are_great123", 0)), tokens);
   }
 
+  @Test
+  public void shouldRejectMalformedPlaceholders() {
+    for (String sql : new String[] {"SELECT 1::text", "SELECT :", "SELECT '10:30'", "SELECT : a"}) {
+      try {
+        parser.tokenise(sql);
+        fail("Expecting exception for " + sql);
+      } catch (IllegalArgumentException ignored) {
+      }
+    }
+  }
+
   @Test
   public void shouldSubstituteSingleNumericPlaceholder() {
     Map<String, Object> variables = new HashMap<>();
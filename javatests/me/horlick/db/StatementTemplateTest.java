@@ -0,0 +1,114 @@
+package me.horlick.db;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import me.horlick.db.StatementParser.ParsedStatement;
+import org.junit.Test;
+
+public class StatementTemplateTest {
+
+  StatementParser parser = new StatementParser();
+
+  @Test
+  public void shouldRewritePlaceholdersToQuestionMarks() {
+    StatementTemplate template =
+        StatementTemplate.of("INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)");
+
+    assertEquals(
+        "INSERT INTO shapes (sides,regular) VALUES (?,?)", template.getParameterisedSql());
+    assertEquals(Arrays.asList("sides", "regular"), template.getSlotNames());
+  }
+
+  @Test
+  public void shouldShareSlotForRepeatedPlaceholder() {
+    StatementTemplate template =
+        StatementTemplate.of("SELECT * FROM shapes WHERE sides = :sides OR sides = :sides + 1");
+
+    assertEquals(1, template.getSlotCount());
+    assertEquals(
+        new ParsedStatement(
+            "SELECT * FROM shapes WHERE sides = ? OR sides = ? + 1", Arrays.asList(4, 4)),
+        parser.parse(template.bind().set("sides", 4).build()));
+  }
+
+  @Test
+  public void shouldReturnSameTemplateForSameSql() {
+    assertSame(
+        StatementTemplate.of("SELECT * FROM shapes WHERE sides = :sides"),
+        StatementTemplate.of("SELECT * FROM shapes WHERE sides = :sides"));
+  }
+
+  @Test
+  public void shouldBindBySlotIndex() {
+    StatementTemplate template =
+        StatementTemplate.of("INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)");
+
+    Statement statement =
+        template
+            .bind()
+            .set(template.slotOf("regular"), true)
+            .set(template.slotOf("sides"), 3)
+            .build();
+
+    assertEquals(
+        new ParsedStatement(
+            "INSERT INTO shapes (sides,regular) VALUES (?,?)", Arrays.asList(3, true)),
+        parser.parse(statement));
+  }
+
+  @Test
+  public void shouldBindSameValuesAsMap() {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("sides", 3);
+    variables.put("regular", true);
+
+    StatementTemplate template =
+        StatementTemplate.of("INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)");
+
+    assertEquals(
+        parser.parse(
+            new Statement(
+                "INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)", variables)),
+        parser.parse(template.bind().set("sides", 3).set("regular", true).build()));
+  }
+
+  @Test
+  public void shouldThrowIfSlotIsNotBound() {
+    StatementTemplate template =
+        StatementTemplate.of("INSERT INTO shapes (sides,regular) VALUES (:sides,:regular)");
+    try {
+      template.bind().set("sides", 3).build();
+      fail("Expecting exception");
+    } catch (Exception ignored) {
+    }
+  }
+
+  @Test
+  public void shouldThrowIfPlaceholderIsUnknown() {
+    StatementTemplate template = StatementTemplate.of("SELECT * FROM shapes WHERE sides = :sides");
+    try {
+      template.bind().set("colour", "red");
+      fail("Expecting exception");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test
+  public void shouldOnlyTreatWritesWithoutReturningAsWrites() {
+    assertTrue(StatementTemplate.of("  insert INTO shapes (sides) VALUES (:sides)").isWrite());
+    assertTrue(StatementTemplate.of("DELETE FROM shapes WHERE sides = :sides").isWrite());
+    assertFalse(
+        StatementTemplate.of("INSERT INTO shapes (sides) VALUES (:sides) RETURNING id").isWrite());
+    assertFalse(StatementTemplate.of("SELECT * FROM shapes").isWrite());
+    assertFalse(
+        StatementTemplate.of("WITH d AS (DELETE FROM shapes RETURNING *) SELECT count(*) FROM d")
+            .isWrite());
+  }
+}
@@ -0,0 +1,61 @@
+package me.horlick.db.loadtest;
+
+import static junit.framework.TestCase.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.horlick.db.LatencyHistogram;
+import org.junit.Test;
+
+public class LoadReportTest {
+
+  @Test
+  public void shouldWriteNestedValuesAsJson() {
+    Map<String, Object> inner = new LinkedHashMap<>();
+    inner.put("count", 3L);
+    inner.put("rate", 1.5);
+    inner.put("ok", true);
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("name", "say \"hi\"\n");
+    report.put("inner", inner);
+    report.put("list", Arrays.asList(1, 2));
+    report.put("empty", Collections.emptyMap());
+    report.put("missing", Double.NaN);
+
+    assertEquals(
+        "{\n"
+            + "  \"name\": \"say \\\"hi\\\"\\n\",\n"
+            + "  \"inner\": {\n"
+            + "    \"count\": 3,\n"
+            + "    \"rate\": 1.5,\n"
+            + "    \"ok\": true\n"
+            + "  },\n"
+            + "  \"list\": [1, 2],\n"
+            + "  \"empty\": {},\n"
+            + "  \"missing\": null\n"
+            + "}\n",
+        LoadReport.toJson(report));
+  }
+
+  @Test
+  public void shouldSummariseLatencyInMicroseconds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 1000; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(1));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+
+    Map<String, Object> latency = LoadReport.latency(histogram.snapshot());
+
+    assertEquals(
+        Arrays.asList("count", "mean_us", "p50_us", "p90_us", "p99_us", "p999_us", "max_us"),
+        Arrays.asList(latency.keySet().toArray()));
+    assertEquals(1001L, latency.get("count"));
+    assertEquals(1.0, (Double) latency.get("p50_us"), 0.05);
+    assertEquals(1.0, (Double) latency.get("p999_us"), 0.05);
+    assertEquals(5000.0, latency.get("max_us"));
+  }
+}
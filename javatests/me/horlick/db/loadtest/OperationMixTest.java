@@ -0,0 +1,48 @@
+package me.horlick.db.loadtest;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class OperationMixTest {
+
+  @Test
+  public void shouldChooseOperationsInProportion() {
+    OperationMix mix = OperationMix.parse("read=70, write=20, transaction=10");
+    Map<Operation, Integer> counts = new EnumMap<>(Operation.class);
+    Random random = new Random(0);
+    for (int i = 0; i < 100000; i++) {
+      counts.merge(mix.choose(random), 1, Integer::sum);
+    }
+
+    assertEquals(70000, counts.get(Operation.READ), 1000);
+    assertEquals(20000, counts.get(Operation.WRITE), 1000);
+    assertEquals(10000, counts.get(Operation.TRANSACTION), 1000);
+  }
+
+  @Test
+  public void shouldLeaveOutOperationsWithoutWeight() {
+    OperationMix mix = OperationMix.parse("read=1,write=0");
+
+    assertTrue(mix.getWeights().containsKey(Operation.READ));
+    assertFalse(mix.getWeights().containsKey(Operation.WRITE));
+    assertEquals(Operation.READ, mix.choose(new Random(0)));
+  }
+
+  @Test
+  public void shouldRejectMalformedMixes() {
+    for (String mix : new String[] {"read", "read=-1", "write=0", "delete=5"}) {
+      try {
+        OperationMix.parse(mix);
+        fail("Expecting exception for " + mix);
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+}